@@ -0,0 +1,91 @@
+package de.muenchen.mailmerge.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import de.muenchen.mailmerge.db.ColumnarQueryResults;
+
+/**
+ * Erzeugt reproduzierbare künstliche Seriendruckdaten für die Benchmarks. Die
+ * Spalten ähneln einer typischen Adressliste: einige Spalten mit wenigen
+ * verschiedenen Werten (Anrede, Ort, Referat), einige mit überwiegend
+ * verschiedenen Werten (Name, Straße, E-Mail) und eine Freitextspalte mit
+ * Zeichen, die in csv-Dateien und Dateinamen maskiert werden müssen.
+ */
+public final class SyntheticData
+{
+  public static final List<String> COLUMNS = Arrays.asList("Anrede", "Vorname",
+    "Nachname", "Strasse", "PLZ", "Ort", "Referat", "EMail", "Geschlecht",
+    "Bemerkung");
+
+  private static final String[] ANREDEN = { "Herr", "Frau", "" };
+
+  private static final String[] VORNAMEN = { "Anna", "Bernd", "Claudia", "Dieter",
+    "Eva", "Franz", "Gabriele", "Hans", "Ingrid", "Jürgen", "Katrin", "Ludwig" };
+
+  private static final String[] ORTE = { "München", "Augsburg", "Freising",
+    "Dachau", "Erding", "Starnberg", "Rosenheim", "Landshut" };
+
+  private static final String[] REFERATE = { "KVR", "RGU", "SozRef", "RBS", "PLAN",
+    "KR", "BAU", "POR", "RAW", "KULT" };
+
+  private static final String[] BEMERKUNGEN = { "", "bitte \"persönlich\" zustellen",
+    "c/o Hausverwaltung, 2. OG", "Zeile 1\nZeile 2", "Tel. 089/233-0" };
+
+  private SyntheticData()
+  {}
+
+  /**
+   * Liefert die Werte des Datensatzes mit der Nummer row in der Reihenfolge von
+   * {@link #COLUMNS}. Gleiche row liefern immer gleiche Werte.
+   */
+  public static String[] row(int row)
+  {
+    Random r = new Random(row);
+    String vorname = VORNAMEN[r.nextInt(VORNAMEN.length)];
+    String nachname = "Nachname" + row;
+    return new String[] { ANREDEN[r.nextInt(ANREDEN.length)], vorname, nachname,
+      "Musterstraße " + (1 + r.nextInt(200)), String.valueOf(80000 + r.nextInt(8000)),
+      ORTE[r.nextInt(ORTE.length)], REFERATE[r.nextInt(REFERATE.length)],
+      vorname.toLowerCase() + "." + nachname.toLowerCase() + "@example.org",
+      r.nextBoolean() ? "w" : "m", BEMERKUNGEN[r.nextInt(BEMERKUNGEN.length)] };
+  }
+
+  /**
+   * Liefert den Datensatz row als Zuordnung Spaltenname → Wert.
+   */
+  public static Map<String, String> dataset(int row)
+  {
+    String[] values = row(row);
+    Map<String, String> ds = new LinkedHashMap<>();
+    for (int i = 0; i < values.length; ++i)
+      ds.put(COLUMNS.get(i), values[i]);
+    return ds;
+  }
+
+  /**
+   * Liefert rows Datensätze als Zuordnungen Spaltenname → Wert.
+   */
+  public static List<Map<String, String>> datasets(int rows)
+  {
+    List<Map<String, String>> list = new ArrayList<>(rows);
+    for (int i = 0; i < rows; ++i)
+      list.add(dataset(i));
+    return list;
+  }
+
+  /**
+   * Liefert rows Datensätze als {@link ColumnarQueryResults}.
+   */
+  public static ColumnarQueryResults queryResults(int rows)
+  {
+    ColumnarQueryResults res = new ColumnarQueryResults(COLUMNS);
+    for (int i = 0; i < rows; ++i)
+      res.addRow(row(i));
+    return res;
+  }
+}
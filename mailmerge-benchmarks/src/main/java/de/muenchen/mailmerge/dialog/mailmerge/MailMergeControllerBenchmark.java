@@ -0,0 +1,158 @@
+package de.muenchen.mailmerge.dialog.mailmerge;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JTextField;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
+import de.muenchen.allg.itd51.wollmux.core.dialog.TextComponentTags;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.mailmerge.benchmark.SyntheticData;
+import de.muenchen.mailmerge.dialog.mailmerge.gui.IndexSelection;
+
+/**
+ * Misst die Teile des Seriendrucks, die pro Datensatz bzw. pro Auftrag ohne
+ * LibreOffice laufen: das Erzeugen der Dateinamen aus dem Dateinamensmuster
+ * ({@link MailMergeControllerImpl#createOutputPathFromPattern(TextComponentTags, XPrintModel)}),
+ * das Bereinigen von Dateinamen ({@link MailMergeNew#simplifyFilename(String)})
+ * und die Auswahl der zu druckenden Datensätze
+ * ({@link MailMergeControllerImpl#selectDatasets(DatasetSelectionType, int, IndexSelection)}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MailMergeControllerBenchmark
+{
+  @Param({ "1000", "10000", "100000" })
+  public int rows;
+
+  private QueryResults data;
+
+  private List<HashMap<String, String>> exports;
+
+  private List<String> rawNames;
+
+  private TextComponentTags filePattern;
+
+  private List<Integer> individual;
+
+  /**
+   * Der Datensatz, den das PrintModel pmod als exportierten Datensatz des
+   * aktuellen Seriendruckdokuments liefert.
+   */
+  private HashMap<String, String> current;
+
+  private XPrintModel pmod;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    data = SyntheticData.queryResults(rows);
+    exports = new ArrayList<>(rows);
+    rawNames = new ArrayList<>(rows);
+    for (int i = 0; i < rows; ++i)
+    {
+      HashMap<String, String> ds = new HashMap<>(SyntheticData.dataset(i));
+      ds.put(MailMergeParams.TAG_DATENSATZNUMMER, "" + (i + 1));
+      ds.put(MailMergeParams.TAG_SERIENBRIEFNUMMER, "" + (i + 1));
+      exports.add(ds);
+      rawNames.add(ds.get("Referat") + "/" + ds.get("Nachname") + ", "
+        + ds.get("Vorname") + " (" + ds.get("Ort") + ") " + ds.get("Bemerkung"));
+    }
+
+    filePattern = new TextComponentTags(new JTextField());
+    filePattern.setContent(TextComponentTags.CAT_VALUE_SYNTAX, new ConfigThingy("",
+      "CAT(\"Brief_\" VALUE \"Referat\" \"_\" VALUE \"Nachname\" \" \" VALUE \"Ort\" \"_\" VALUE \"#DS\" \".odt\")").getFirstChild());
+
+    individual = new ArrayList<>();
+    for (int i = 0; i < rows; i += 3)
+      individual.add(i);
+
+    InvocationHandler handler = (proxy, method, args) -> {
+      switch (method.getName())
+      {
+        case "getPropertyValue":
+          return data;
+        case "getProp":
+          return current;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        default:
+          return null;
+      }
+    };
+    pmod = (XPrintModel) Proxy.newProxyInstance(XPrintModel.class.getClassLoader(),
+      new Class<?>[] { XPrintModel.class }, handler);
+  }
+
+  @Benchmark
+  public int createOutputPathFromPattern()
+  {
+    int len = 0;
+    for (HashMap<String, String> ds : exports)
+    {
+      current = ds;
+      len += MailMergeControllerImpl.createOutputPathFromPattern(filePattern, pmod).length();
+    }
+    return len;
+  }
+
+  @Benchmark
+  public int simplifyFilename()
+  {
+    int len = 0;
+    for (String name : rawNames)
+      len += MailMergeNew.simplifyFilename(name).length();
+    return len;
+  }
+
+  @Benchmark
+  public List<Integer> selectAll()
+  {
+    return MailMergeControllerImpl.selectDatasets(DatasetSelectionType.ALL, data.size(),
+      null);
+  }
+
+  @Benchmark
+  public List<Integer> selectRange()
+  {
+    IndexSelection sel = new IndexSelection();
+    sel.setRangeStart(rows / 4);
+    sel.setRangeEnd(3 * rows / 4);
+    return MailMergeControllerImpl.selectDatasets(DatasetSelectionType.RANGE,
+      data.size(), sel);
+  }
+
+  @Benchmark
+  public List<Integer> selectIndividual()
+  {
+    IndexSelection sel = new IndexSelection();
+    sel.setSelectedIndexes(individual);
+    return MailMergeControllerImpl.selectDatasets(DatasetSelectionType.INDIVIDUAL,
+      data.size(), sel);
+  }
+}
@@ -0,0 +1,114 @@
+package de.muenchen.mailmerge.document;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.muenchen.allg.itd51.wollmux.core.dialog.DialogLibrary;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionFactory;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.mailmerge.benchmark.SyntheticData;
+
+/**
+ * Misst die Auswertung von TRAFOs über
+ * {@link TextDocumentController#getTransformedValue(FunctionLibrary, String, Map)}
+ * (TRAFOs mit mehreren Parametern bzw. Formularfelder mit
+ * useKnownFormValues) und
+ * {@link TextDocumentController#getTransformedValue(FunctionLibrary, String, String)}
+ * (einfache Einfügungen). Die Funktionsbibliothek wird wie in
+ * {@link TextDocumentController#getFunctionLibrary()} aus einem Abschnitt
+ * "Formular" geparst.
+ *
+ * Die Varianten "cached..." werten dieselben TRAFOs über einen
+ * {@link TrafoCache} aus, wie er während eines Seriendrucks verwendet wird.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrafoBenchmark
+{
+  private static final String FORMULAR = "Funktionen("
+    + "AnredeTrafo(IF(STRCMP(VALUE \"Geschlecht\" \"w\") "
+    + "THEN \"Sehr geehrte Frau\" ELSE \"Sehr geehrter Herr\")) "
+    + "Adresszeile(CAT(VALUE \"Strasse\" \", \" VALUE \"PLZ\" \" \" VALUE \"Ort\")) "
+    + "Referatsname(IF(MATCH(VALUE \"Referat\" \"KVR|RGU|SozRef\") "
+    + "THEN CAT(\"Referat \" VALUE \"Referat\") ELSE VALUE \"Referat\")))";
+
+  private static final String[] TRAFOS = { "AnredeTrafo", "Adresszeile",
+    "Referatsname" };
+
+  @Param({ "1000", "10000", "100000" })
+  public int rows;
+
+  private FunctionLibrary funcLib;
+
+  private List<Map<String, String>> datasets;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    datasets = SyntheticData.datasets(rows);
+    ConfigThingy formConf = new ConfigThingy("Formular", FORMULAR);
+    funcLib = FunctionFactory.parseFunctions(formConf, new DialogLibrary(),
+      new HashMap<Object, Object>(), new FunctionLibrary());
+  }
+
+  @Benchmark
+  public int transformWithKnownValues()
+  {
+    int len = 0;
+    for (Map<String, String> ds : datasets)
+      for (String trafo : TRAFOS)
+        len += TextDocumentController.getTransformedValue(funcLib, trafo, ds).length();
+    return len;
+  }
+
+  @Benchmark
+  public int transformSingleValue()
+  {
+    int len = 0;
+    for (Map<String, String> ds : datasets)
+      len += TextDocumentController.getTransformedValue(funcLib, "Referatsname",
+        ds.get("Referat")).length();
+    return len;
+  }
+
+  @Benchmark
+  public int cachedTransformWithKnownValues()
+  {
+    TrafoCache cache = new TrafoCache(funcLib, 1000);
+    int len = 0;
+    for (Map<String, String> ds : datasets)
+      for (String trafo : TRAFOS)
+        len += cache.transform(trafo, ds).length();
+    return len;
+  }
+
+  @Benchmark
+  public int cachedTransformSingleValue()
+  {
+    TrafoCache cache = new TrafoCache(funcLib, 1000);
+    int len = 0;
+    for (Map<String, String> ds : datasets)
+      len += cache.transform("Referatsname", ds.get("Referat")).length();
+    return len;
+  }
+}
@@ -0,0 +1,270 @@
+package de.muenchen.mailmerge.fake;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.container.NoSuchElementException;
+import com.sun.star.container.XEnumeration;
+import com.sun.star.container.XEnumerationAccess;
+import com.sun.star.container.XIndexAccess;
+import com.sun.star.container.XNameAccess;
+import com.sun.star.container.XNamed;
+import com.sun.star.frame.XModel;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import com.sun.star.text.XBookmarksSupplier;
+import com.sun.star.text.XText;
+import com.sun.star.text.XTextContent;
+import com.sun.star.text.XTextDocument;
+import com.sun.star.text.XTextField;
+import com.sun.star.text.XTextFieldsSupplier;
+import com.sun.star.text.XTextRange;
+import com.sun.star.text.XTextSection;
+import com.sun.star.text.XTextSectionsSupplier;
+import com.sun.star.util.XModifiable;
+import com.sun.star.view.XPrintable;
+
+/**
+ * Erzeugt Textdokumente aus {@link FakeUno}-Objekten, mit denen die
+ * Druckfunktionen des Seriendrucks ohne LibreOffice ablaufen können. Ein solches
+ * Dokument enthält
+ * <ul>
+ * <li>für jede Formularfeld-ID eine Textmarke mit dem Dokumentkommando
+ * insertFormValue, deren Textbereich den gesetzten Wert speichert,</li>
+ * <li>für jede Formularfeld-ID ein Textfeld, dessen Inhalt über das Property
+ * Content gesetzt werden kann,</li>
+ * <li>die übergebenen Bereiche (Sichtbarkeit über das Property IsVisible),</li>
+ * <li>{@link XStorable#storeToURL(String, com.sun.star.beans.PropertyValue[])}
+ * und {@link XPrintable#print(com.sun.star.beans.PropertyValue[])}, die nur
+ * gezählt werden.</li>
+ * </ul>
+ * Die Laufzeiten der Aufrufe über die UNO-Brücke werden über {@link Latencies}
+ * simuliert.
+ */
+public class FakeOffice
+{
+  /**
+   * Simulierte Laufzeiten in Mikrosekunden.
+   */
+  public static class Latencies
+  {
+    /**
+     * Laufzeit eines einfachen Aufrufs, z.B. setString() oder setPropertyValue().
+     */
+    public long call = 0;
+
+    /**
+     * Laufzeit von storeToURL().
+     */
+    public long store = 0;
+
+    /**
+     * Laufzeit von print().
+     */
+    public long print = 0;
+  }
+
+  private final Latencies latencies;
+
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private final AtomicInteger stores = new AtomicInteger();
+
+  private final AtomicInteger prints = new AtomicInteger();
+
+  public FakeOffice(Latencies latencies)
+  {
+    this.latencies = latencies;
+  }
+
+  /**
+   * Anzahl der simulierten einfachen Aufrufe (Textinhalte, Properties).
+   */
+  public int getCalls()
+  {
+    return calls.get();
+  }
+
+  /**
+   * Anzahl der Aufrufe von storeToURL().
+   */
+  public int getStores()
+  {
+    return stores.get();
+  }
+
+  /**
+   * Anzahl der Aufrufe von print().
+   */
+  public int getPrints()
+  {
+    return prints.get();
+  }
+
+  /**
+   * Setzt alle Zähler zurück.
+   */
+  public void reset()
+  {
+    calls.set(0);
+    stores.set(0);
+    prints.set(0);
+  }
+
+  /**
+   * Erzeugt ein Textdokument mit Textmarken und Textfeldern für die
+   * Formularfelder formFieldIds und den Bereichen sectionNames.
+   */
+  public XTextDocument createTextDocument(List<String> formFieldIds,
+      List<String> sectionNames)
+  {
+    FakeUno doc = new FakeUno(XTextDocument.class, XModel.class, XComponent.class,
+      XStorable.class, XPrintable.class, XModifiable.class, XBookmarksSupplier.class,
+      XTextFieldsSupplier.class, XTextSectionsSupplier.class);
+    XText text = doc.as(XText.class);
+
+    Map<String, Object> bookmarks = new LinkedHashMap<>();
+    List<Object> fields = new ArrayList<>();
+    for (String id : formFieldIds)
+    {
+      String name = "WM(CMD 'insertFormValue' ID '" + id + "')";
+      XTextRange anchor = createTextRange(text);
+      FakeUno bookmark = new FakeUno(XTextContent.class, XNamed.class);
+      bookmark.on("getName", args -> name);
+      bookmark.on("getAnchor", args -> anchor);
+      bookmarks.put(name, bookmark.as(XTextContent.class));
+
+      FakeUno field = new FakeUno(XTextField.class, XPropertySet.class);
+      Map<String, Object> props = properties(field);
+      props.put("Content", "");
+      field.on("getPresentation", args -> props.get("Content"));
+      field.on("getAnchor", args -> anchor);
+      fields.add(field.as(XTextField.class));
+    }
+
+    Map<String, Object> sections = new LinkedHashMap<>();
+    for (String name : sectionNames)
+    {
+      FakeUno section = new FakeUno(XTextSection.class, XNamed.class,
+        XPropertySet.class);
+      section.on("getName", args -> name);
+      properties(section).put("IsVisible", Boolean.TRUE);
+      sections.put(name, section.as(XTextSection.class));
+    }
+
+    Object bookmarkAccess = container(bookmarks);
+    Object fieldAccess = container(listToMap(fields));
+    Object sectionAccess = container(sections);
+    boolean[] modified = { false };
+    doc.on("getText", args -> text);
+    doc.on("getBookmarks", args -> bookmarkAccess);
+    doc.on("getTextFields", args -> fieldAccess);
+    doc.on("getTextSections", args -> sectionAccess);
+    doc.on("isModified", args -> modified[0]);
+    doc.on("setModified", args -> {
+      modified[0] = (Boolean) args[0];
+      return null;
+    });
+    doc.on("storeToURL", args -> {
+      FakeUno.simulateLatency(latencies.store);
+      stores.incrementAndGet();
+      return null;
+    });
+    doc.on("print", args -> {
+      FakeUno.simulateLatency(latencies.print);
+      prints.incrementAndGet();
+      return null;
+    });
+    return doc.as(XTextDocument.class);
+  }
+
+  /**
+   * Liefert einen Textbereich, der seinen Inhalt speichert.
+   */
+  private XTextRange createTextRange(XText text)
+  {
+    FakeUno range = new FakeUno(XTextRange.class);
+    String[] content = { "" };
+    XTextRange self = range.as(XTextRange.class);
+    range.on("getString", args -> content[0]);
+    range.on("setString", args -> {
+      simulateCall();
+      content[0] = (String) args[0];
+      return null;
+    });
+    range.on("getText", args -> text);
+    range.on("getStart", args -> self);
+    range.on("getEnd", args -> self);
+    return range.as(XTextRange.class);
+  }
+
+  /**
+   * Hinterlegt für o die Methoden von {@link XPropertySet} über eine Map und
+   * liefert diese zurück.
+   */
+  private Map<String, Object> properties(FakeUno o)
+  {
+    Map<String, Object> props = new ConcurrentHashMap<>();
+    o.on("getPropertyValue", args -> props.get(args[0]));
+    o.on("setPropertyValue", args -> {
+      simulateCall();
+      props.put((String) args[0], args[1]);
+      return null;
+    });
+    return props;
+  }
+
+  /**
+   * Liefert einen Container, der elements über {@link XNameAccess},
+   * {@link XIndexAccess} und {@link XEnumerationAccess} bereitstellt.
+   */
+  private static Object container(Map<String, Object> elements)
+  {
+    FakeUno c = new FakeUno(XNameAccess.class, XIndexAccess.class,
+      XEnumerationAccess.class);
+    List<Object> list = new ArrayList<>(elements.values());
+    c.on("getElementNames", args -> elements.keySet().toArray(new String[0]));
+    c.on("hasByName", args -> elements.containsKey(args[0]));
+    c.on("getByName", args -> {
+      Object o = elements.get(args[0]);
+      if (o == null)
+        throw new NoSuchElementException((String) args[0]);
+      return o;
+    });
+    c.on("getCount", args -> list.size());
+    c.on("getByIndex", args -> list.get((Integer) args[0]));
+    c.on("hasElements", args -> !list.isEmpty());
+    c.on("createEnumeration", args -> {
+      Iterator<Object> iter = list.iterator();
+      FakeUno e = new FakeUno(XEnumeration.class);
+      e.on("hasMoreElements", a -> iter.hasNext());
+      e.on("nextElement", a -> {
+        if (!iter.hasNext())
+          throw new NoSuchElementException();
+        return iter.next();
+      });
+      return e.as(XEnumeration.class);
+    });
+    return c.as(XNameAccess.class);
+  }
+
+  private static Map<String, Object> listToMap(List<Object> list)
+  {
+    Map<String, Object> map = new LinkedHashMap<>();
+    for (int i = 0; i < list.size(); ++i)
+      map.put("" + i, list.get(i));
+    return map;
+  }
+
+  private void simulateCall()
+  {
+    FakeUno.simulateLatency(latencies.call);
+    calls.incrementAndGet();
+  }
+}
@@ -0,0 +1,49 @@
+package de.muenchen.mailmerge.fake;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.frame.XStorable;
+import com.sun.star.uno.UnoRuntime;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.mailmerge.print.PrintFunction;
+
+/**
+ * Druckfunktionen, die am Ende einer Aufrufkette auf einem Dokument von
+ * {@link FakeOffice} stehen können.
+ */
+public class FakePrintFunctions
+{
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  private FakePrintFunctions()
+  {}
+
+  /**
+   * Erzeugt eine {@link PrintFunction}, die wie die internen Druckfunktionen aus
+   * StandardPrint die öffentliche statische Methode methodName von clazz aufruft.
+   */
+  public static PrintFunction create(Class<?> clazz, String methodName, int order)
+      throws Exception
+  {
+    ConfigThingy conf = new ConfigThingy("EXTERN");
+    ConfigThingy url = new ConfigThingy("URL");
+    url.addChild(new ConfigThingy("java:" + clazz.getName() + "." + methodName));
+    conf.addChild(url);
+    return new PrintFunction(conf, methodName, order);
+  }
+
+  /**
+   * Speichert das Dokument von pmod wie die Druckfunktionen zum Erzeugen von
+   * Einzeldokumenten über {@link XStorable#storeToURL(String, PropertyValue[])}.
+   */
+  public static void storeToURL(XPrintModel pmod) throws Exception
+  {
+    XStorable store = UnoRuntime.queryInterface(XStorable.class,
+      pmod.getTextDocument());
+    store.storeToURL("file:///fake/" + COUNTER.incrementAndGet() + ".odt",
+      new PropertyValue[0]);
+  }
+}
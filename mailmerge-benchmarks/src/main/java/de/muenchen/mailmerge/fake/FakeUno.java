@@ -0,0 +1,184 @@
+package de.muenchen.mailmerge.fake;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.sun.star.uno.IQueryInterface;
+import com.sun.star.uno.Type;
+
+/**
+ * Ein UNO-Objekt, das ohne LibreOffice im selben Prozess lebt. Das Objekt
+ * implementiert die im Konstruktor angegebenen UNO-Interfaces und über
+ * {@link IQueryInterface} jedes weitere Interface, nach dem
+ * {@link com.sun.star.uno.UnoRuntime#queryInterface(Class, Object)} fragt.
+ *
+ * Das Verhalten einzelner Methoden wird über {@link #on(String, Behaviour)}
+ * festgelegt. Alle anderen Methoden liefern Standardwerte: leere Strings und
+ * Arrays, 0 bzw. false und für UNO-Interfaces ein weiteres FakeUno-Objekt, das
+ * pro Methode nur einmal erzeugt wird. Dadurch laufen auch Aufrufketten wie
+ * doc.getText().createTextCursor() ins Leere, ohne dass jedes Interface von
+ * Hand nachgebaut werden muss.
+ */
+public class FakeUno implements InvocationHandler
+{
+  /**
+   * Implementierung einer Methode eines FakeUno-Objekts.
+   */
+  public interface Behaviour
+  {
+    Object invoke(Object[] args) throws Exception;
+  }
+
+  private static final AtomicLong OIDS = new AtomicLong();
+
+  private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<>();
+
+  static
+  {
+    PRIMITIVE_DEFAULTS.put(boolean.class, Boolean.FALSE);
+    PRIMITIVE_DEFAULTS.put(byte.class, (byte) 0);
+    PRIMITIVE_DEFAULTS.put(short.class, (short) 0);
+    PRIMITIVE_DEFAULTS.put(char.class, (char) 0);
+    PRIMITIVE_DEFAULTS.put(int.class, 0);
+    PRIMITIVE_DEFAULTS.put(long.class, 0L);
+    PRIMITIVE_DEFAULTS.put(float.class, 0f);
+    PRIMITIVE_DEFAULTS.put(double.class, 0d);
+  }
+
+  private final String oid = "fake-uno-" + OIDS.incrementAndGet();
+
+  private final Set<Class<?>> types = new LinkedHashSet<>();
+
+  private final Map<String, Behaviour> behaviours = new ConcurrentHashMap<>();
+
+  private final Map<Method, Object> stubs = new ConcurrentHashMap<>();
+
+  private Object proxy;
+
+  /**
+   * Erzeugt ein FakeUno-Objekt, das die Interfaces types implementiert.
+   */
+  public FakeUno(Class<?>... types)
+  {
+    Collections.addAll(this.types, types);
+    this.types.add(IQueryInterface.class);
+    proxy = createProxy();
+  }
+
+  /**
+   * Legt fest, dass alle Methoden mit dem Namen methodName (unabhängig vom
+   * Interface) von behaviour ausgeführt werden.
+   */
+  public FakeUno on(String methodName, Behaviour behaviour)
+  {
+    behaviours.put(methodName, behaviour);
+    return this;
+  }
+
+  /**
+   * Liefert das Objekt als type. Implementiert das Objekt type noch nicht, so wird
+   * es ergänzt.
+   */
+  public synchronized <T> T as(Class<T> type)
+  {
+    if (!type.isInstance(proxy))
+    {
+      types.add(type);
+      proxy = createProxy();
+    }
+    return type.cast(proxy);
+  }
+
+  /**
+   * Liefert das FakeUno-Objekt hinter o oder null, wenn o kein FakeUno-Objekt ist.
+   */
+  public static FakeUno of(Object o)
+  {
+    if (o != null && Proxy.isProxyClass(o.getClass()))
+    {
+      InvocationHandler h = Proxy.getInvocationHandler(o);
+      if (h instanceof FakeUno)
+        return (FakeUno) h;
+    }
+    return null;
+  }
+
+  private Object createProxy()
+  {
+    return Proxy.newProxyInstance(FakeUno.class.getClassLoader(),
+      types.toArray(new Class<?>[types.size()]), this);
+  }
+
+  @Override
+  public Object invoke(Object p, Method method, Object[] args) throws Throwable
+  {
+    String name = method.getName();
+    if (method.getDeclaringClass() == Object.class)
+    {
+      switch (name)
+      {
+        case "hashCode":
+          return oid.hashCode();
+        case "equals":
+          return of(args[0]) == this;
+        default:
+          return oid;
+      }
+    }
+
+    if (method.getDeclaringClass() == IQueryInterface.class)
+    {
+      switch (name)
+      {
+        case "getOid":
+          return oid;
+        case "isSame":
+          return of(args[0]) == this;
+        default:
+          Class<?> zClass = ((Type) args[0]).getZClass();
+          return zClass == null || !zClass.isInterface() ? null : as(zClass);
+      }
+    }
+
+    Behaviour behaviour = behaviours.get(name);
+    if (behaviour != null)
+      return behaviour.invoke(args == null ? new Object[0] : args);
+    return defaultValue(method);
+  }
+
+  private Object defaultValue(Method method)
+  {
+    Class<?> ret = method.getReturnType();
+    if (ret == void.class)
+      return null;
+    if (ret.isPrimitive())
+      return PRIMITIVE_DEFAULTS.get(ret);
+    if (ret == String.class)
+      return "";
+    if (ret.isArray())
+      return Array.newInstance(ret.getComponentType(), 0);
+    if (ret.isInterface() && ret.getName().startsWith("com.sun.star."))
+      return stubs.computeIfAbsent(method, m -> new FakeUno(ret).as(ret));
+    return null;
+  }
+
+  /**
+   * Wartet micros Mikrosekunden, um die Laufzeit eines Aufrufs über die UNO-Brücke
+   * zu simulieren.
+   */
+  static void simulateLatency(long micros)
+  {
+    if (micros > 0)
+      LockSupport.parkNanos(micros * 1000L);
+  }
+}
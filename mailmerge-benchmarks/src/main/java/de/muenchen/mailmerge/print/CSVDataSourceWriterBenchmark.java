@@ -0,0 +1,93 @@
+package de.muenchen.mailmerge.print;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.muenchen.mailmerge.benchmark.SyntheticData;
+
+/**
+ * Misst das Schreiben der Seriendruckdaten in die csv-Datei, die
+ * {@link OOoBasedMailMerge} als Datenquelle verwendet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CSVDataSourceWriterBenchmark
+{
+  @Param({ "1000", "10000", "100000" })
+  public int rows;
+
+  private List<Map<String, String>> datasets;
+
+  private File dir;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException
+  {
+    datasets = SyntheticData.datasets(rows);
+    dir = Files.createTempDirectory("CSVDataSourceWriterBenchmark").toFile();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown()
+  {
+    File[] files = dir.listFiles();
+    if (files != null)
+      for (File f : files)
+        f.delete();
+    dir.delete();
+  }
+
+  /**
+   * Alle Spalten sind bereits beim ersten Datensatz bekannt.
+   */
+  @Benchmark
+  public int write() throws Exception
+  {
+    CSVDataSourceWriter writer = new CSVDataSourceWriter(dir, SyntheticData.COLUMNS);
+    for (Map<String, String> ds : datasets)
+      writer.addDataset(ds);
+    writer.flushAndClose();
+    return writer.getSize();
+  }
+
+  /**
+   * Im letzten Datensatz taucht eine neue Spalte auf, so dass die Datei beim
+   * Schließen mit vollständiger Kopfzeile neu geschrieben werden muss.
+   */
+  @Benchmark
+  public int writeWithLateColumn() throws Exception
+  {
+    CSVDataSourceWriter writer = new CSVDataSourceWriter(dir, SyntheticData.COLUMNS);
+    int last = datasets.size() - 1;
+    for (int i = 0; i < last; ++i)
+      writer.addDataset(datasets.get(i));
+    Map<String, String> ds = new HashMap<>(datasets.get(last));
+    ds.put("WM:SE_Zusatz", "true");
+    writer.addDataset(ds);
+    writer.flushAndClose();
+    return writer.getSize();
+  }
+}
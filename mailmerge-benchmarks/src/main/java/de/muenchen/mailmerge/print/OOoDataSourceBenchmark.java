@@ -0,0 +1,179 @@
+package de.muenchen.mailmerge.print;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.star.sdb.XDocumentDataSource;
+
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormFieldType;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
+import de.muenchen.mailmerge.benchmark.SyntheticData;
+
+/**
+ * Misst {@link OOoDataSource#processSimulationResults(SimulationResults)}, also
+ * das Umsetzen der Simulationsergebnisse eines Datensatzes (Formularwerte,
+ * Inhalte von Formularfeldern mit TRAFOs und Checkboxen, Sichtbarkeiten) in einen
+ * Datensatz der OOo-Datenquelle. Die Datensätze werden an einen
+ * {@link DataSourceWriter} übergeben, der sie nur zählt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OOoDataSourceBenchmark
+{
+  @Param({ "1000", "10000", "100000" })
+  public int rows;
+
+  private List<SimulationResults> results;
+
+  private CountingDataSource dataSource;
+
+  @Setup(Level.Trial)
+  public void setup()
+  {
+    List<FormField> fields = new ArrayList<>();
+    FormFieldType other = null;
+    for (FormFieldType type : FormFieldType.values())
+      if (type != FormFieldType.CHECKBOX_FORM_FIELD)
+        other = type;
+    fields.add(formField("Anrede", "AnredeTrafo", other, true));
+    fields.add(formField("Nachname", "Grossbuchstaben", other, true));
+    fields.add(formField(null, "Adresszeile", other, false));
+    fields.add(formField("Geschlecht", null, FormFieldType.CHECKBOX_FORM_FIELD, true));
+
+    results = new ArrayList<>(rows);
+    for (int i = 0; i < rows; ++i)
+    {
+      Map<String, String> values = SyntheticData.dataset(i);
+      SimulationResults simRes = new SimulationResults();
+      simRes.setFormFieldValues(new HashMap<>(values));
+      HashMap<String, Boolean> groups = new HashMap<>();
+      groups.put("Frau", "w".equals(values.get("Geschlecht")));
+      groups.put("Herr", "m".equals(values.get("Geschlecht")));
+      simRes.setGroupsVisibilityState(groups);
+      simRes.setFormFieldContent(fields.get(0), values.get("Anrede"));
+      simRes.setFormFieldContent(fields.get(1), values.get("Nachname").toUpperCase());
+      simRes.setFormFieldContent(fields.get(2),
+        values.get("Strasse") + ", " + values.get("PLZ") + " " + values.get("Ort"));
+      simRes.setFormFieldContent(fields.get(3),
+        "w".equals(values.get("Geschlecht")) ? "TRUE" : "FALSE");
+      results.add(simRes);
+    }
+    dataSource = new CountingDataSource();
+  }
+
+  @Benchmark
+  public int process()
+  {
+    dataSource.size = 0;
+    for (SimulationResults simRes : results)
+      dataSource.processSimulationResults(simRes);
+    return dataSource.size;
+  }
+
+  /**
+   * Liefert ein Formularfeld, das nur die von
+   * {@link OOoBasedMailMerge#getSpecialColumnNameForFormField(FormField)}
+   * benötigten Angaben liefert.
+   */
+  private static FormField formField(final String id, final String trafo,
+      final FormFieldType type, final boolean singleParameterTrafo)
+  {
+    InvocationHandler handler = (proxy, method, args) -> {
+      switch (method.getName())
+      {
+        case "getId":
+          return id;
+        case "getTrafoName":
+          return trafo;
+        case "getType":
+          return type;
+        case "singleParameterTrafo":
+          return singleParameterTrafo;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "FormField " + id + "/" + trafo;
+        default:
+          Class<?> ret = method.getReturnType();
+          if (ret == boolean.class)
+            return false;
+          if (ret == int.class || ret == short.class)
+            return 0;
+          return null;
+      }
+    };
+    return (FormField) Proxy.newProxyInstance(FormField.class.getClassLoader(),
+      new Class<?>[] { FormField.class }, handler);
+  }
+
+  private static class CountingDataSource extends OOoDataSource
+  {
+    int size = 0;
+
+    private final DataSourceWriter writer = new DataSourceWriter()
+    {
+      @Override
+      public void addDataset(Map<String, String> ds)
+      {
+        ++size;
+      }
+
+      @Override
+      public void flushAndClose()
+      {}
+
+      @Override
+      public int getSize()
+      {
+        return size;
+      }
+    };
+
+    @Override
+    public XDocumentDataSource createXDocumentDatasource()
+    {
+      return null;
+    }
+
+    @Override
+    public DataSourceWriter getDataSourceWriter()
+    {
+      return writer;
+    }
+
+    @Override
+    public int getSize()
+    {
+      return size;
+    }
+
+    @Override
+    public void remove()
+    {}
+  }
+}
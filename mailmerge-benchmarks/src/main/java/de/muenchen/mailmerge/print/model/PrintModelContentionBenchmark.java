@@ -0,0 +1,185 @@
+package de.muenchen.mailmerge.print.model;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.star.text.XTextDocument;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.dialog.DialogLibrary;
+import de.muenchen.allg.itd51.wollmux.core.document.PersistentDataContainer;
+import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+import de.muenchen.mailmerge.benchmark.SyntheticData;
+import de.muenchen.mailmerge.document.TextDocumentController;
+import de.muenchen.mailmerge.fake.FakeOffice;
+
+/**
+ * Misst, wie sich die Druckfunktionen einer Aufrufkette beim Zugriff auf das
+ * gemeinsame {@link MasterPrintModel} gegenseitig ausbremsen. Drei Threads fragen
+ * wie die Stufen einer Aufrufkette pro Datensatz isCanceled() und mehrere
+ * Properties ab, ein vierter setzt wie mailMergeNewSetFormValue pro Datensatz
+ * eine Property neu.
+ *
+ * Die Gruppe "synchronizedStore" bildet zum Vergleich die frühere Umsetzung nach,
+ * die für jeden Zugriff auf ein boolean[] bzw. eine HashMap synchronisiert hat.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrintModelContentionBenchmark
+{
+  private static final String[] READ_PROPS = {
+    "MailMergeNew_Schema", "MailMergeNew_QueryResults", "MailMergeNew_Selection" };
+
+  private static final String WRITE_PROP = "MailMergeNew_DatasetExport";
+
+  private XPrintModel pmod;
+
+  private SynchronizedStore store;
+
+  private final Object value = new Object();
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    FakeOffice office = new FakeOffice(new FakeOffice.Latencies());
+    XTextDocument doc = office.createTextDocument(SyntheticData.COLUMNS,
+      Arrays.asList("Frau", "Herr"));
+    TextDocumentModel model = new TextDocumentModel(doc,
+      createPersistentDataContainer(), "benchmark", "fake");
+    TextDocumentController documentController = new TextDocumentController(model,
+      new FunctionLibrary(), new DialogLibrary());
+
+    pmod = PrintModels.createPrintModel(documentController, false);
+    store = new SynchronizedStore();
+    for (String name : READ_PROPS)
+    {
+      pmod.setPropertyValue(name, value);
+      store.setProperty(name, value);
+    }
+    pmod.setPropertyValue(WRITE_PROP, value);
+    store.setProperty(WRITE_PROP, value);
+  }
+
+  @Benchmark
+  @Group("printModel")
+  @GroupThreads(3)
+  public int printModelRead()
+  {
+    int found = pmod.isCanceled() ? 0 : 1;
+    for (String name : READ_PROPS)
+      if (pmod.getProp(name, null) != null)
+        ++found;
+    return found;
+  }
+
+  @Benchmark
+  @Group("printModel")
+  @GroupThreads(1)
+  public void printModelWrite() throws Exception
+  {
+    pmod.setPropertyValue(WRITE_PROP, new HashMap<String, String>());
+  }
+
+  @Benchmark
+  @Group("synchronizedStore")
+  @GroupThreads(3)
+  public int synchronizedStoreRead()
+  {
+    int found = store.isCanceled() ? 0 : 1;
+    for (String name : READ_PROPS)
+      if (store.getProperty(name) != null)
+        ++found;
+    return found;
+  }
+
+  @Benchmark
+  @Group("synchronizedStore")
+  @GroupThreads(1)
+  public void synchronizedStoreWrite()
+  {
+    store.setProperty(WRITE_PROP, new HashMap<String, String>());
+  }
+
+  /**
+   * Die frühere Umsetzung von Abbruch-Flag und Properties in MasterPrintModel.
+   */
+  private static class SynchronizedStore
+  {
+    private final HashMap<String, Object> props = new HashMap<>();
+
+    private final boolean[] isCanceled = new boolean[] { false };
+
+    boolean isCanceled()
+    {
+      synchronized (isCanceled)
+      {
+        return isCanceled[0];
+      }
+    }
+
+    void setProperty(String prop, Object o)
+    {
+      synchronized (props)
+      {
+        props.put(prop, o);
+      }
+    }
+
+    Object getProperty(String prop)
+    {
+      synchronized (props)
+      {
+        return props.get(prop);
+      }
+    }
+  }
+
+  /**
+   * Liefert einen PersistentDataContainer, der die Daten nur im Speicher hält.
+   */
+  private static PersistentDataContainer createPersistentDataContainer()
+  {
+    Map<Object, Object> data = new HashMap<>();
+    return (PersistentDataContainer) Proxy.newProxyInstance(
+      PersistentDataContainer.class.getClassLoader(),
+      new Class<?>[] { PersistentDataContainer.class }, (proxy, method, args) -> {
+        switch (method.getName())
+        {
+          case "getData":
+            return data.get(args[0]);
+          case "setData":
+            return data.put(args[0], args[1]);
+          case "removeData":
+            return data.remove(args[0]);
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          default:
+            return null;
+        }
+      });
+  }
+}
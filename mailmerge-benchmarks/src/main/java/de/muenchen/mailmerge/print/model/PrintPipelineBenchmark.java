@@ -0,0 +1,147 @@
+package de.muenchen.mailmerge.print.model;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.star.text.XTextDocument;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.db.QueryResultsWithSchema;
+import de.muenchen.allg.itd51.wollmux.core.dialog.DialogLibrary;
+import de.muenchen.allg.itd51.wollmux.core.document.PersistentDataContainer;
+import de.muenchen.allg.itd51.wollmux.core.document.TextDocumentModel;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+import de.muenchen.mailmerge.benchmark.SyntheticData;
+import de.muenchen.mailmerge.document.DocumentManager;
+import de.muenchen.mailmerge.document.TextDocumentController;
+import de.muenchen.mailmerge.fake.FakeOffice;
+import de.muenchen.mailmerge.fake.FakePrintFunctions;
+import de.muenchen.mailmerge.func.StandardPrint;
+import de.muenchen.mailmerge.print.PrintFunction;
+
+/**
+ * Lässt einen kompletten Seriendruck über {@link MasterPrintModel} und
+ * {@link SlavePrintModel} auf einem Dokument von {@link FakeOffice} laufen:
+ * mailMergeNewSetFormValue setzt für jeden Datensatz die Formularwerte und reicht
+ * an eine Druckfunktion weiter, die das Dokument über storeToURL() "speichert".
+ * Die Laufzeiten der UNO-Aufrufe werden über latencyMicros simuliert (ein
+ * storeToURL() dauert 100 mal so lange wie ein einfacher Aufruf).
+ *
+ * Mit den JMH-Profilern (z.B. -prof gc) lassen sich so Speicherverbrauch und
+ * Thread-Erzeugung des Seriendrucks ohne LibreOffice untersuchen. Da
+ * MasterPrintModel einen Fortschrittsbalken anzeigt, wird ein Display benötigt
+ * (z.B. über xvfb-run).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PrintPipelineBenchmark
+{
+  @Param({ "1000", "10000", "100000" })
+  public int rows;
+
+  @Param({ "0", "50" })
+  public long latencyMicros;
+
+  private FakeOffice office;
+
+  private TextDocumentController documentController;
+
+  private QueryResultsWithSchema data;
+
+  private List<Integer> selection;
+
+  private PrintFunction setFormValue;
+
+  private PrintFunction storeToURL;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception
+  {
+    FakeOffice.Latencies latencies = new FakeOffice.Latencies();
+    latencies.call = latencyMicros;
+    latencies.store = 100 * latencyMicros;
+    office = new FakeOffice(latencies);
+
+    XTextDocument doc = office.createTextDocument(SyntheticData.COLUMNS,
+      Arrays.asList("Frau", "Herr"));
+    TextDocumentModel model = new TextDocumentModel(doc,
+      createPersistentDataContainer(), "benchmark", "fake");
+    documentController = new TextDocumentController(model, new FunctionLibrary(),
+      new DialogLibrary());
+    DocumentManager.getDocumentManager().addTextDocument(doc, documentController);
+
+    data = SyntheticData.queryResults(rows);
+    selection = new ArrayList<>(rows);
+    for (int i = 0; i < rows; ++i)
+      selection.add(i);
+
+    setFormValue = FakePrintFunctions.create(StandardPrint.class,
+      "mailMergeNewSetFormValue", 75);
+    storeToURL = FakePrintFunctions.create(FakePrintFunctions.class, "storeToURL",
+      200);
+  }
+
+  @Benchmark
+  public int mailMerge() throws Exception
+  {
+    office.reset();
+    XPrintModel pmod = PrintModels.createPrintModel(documentController, false);
+    InternalPrintModel internal = (InternalPrintModel) pmod;
+    internal.useInternalPrintFunction(setFormValue);
+    internal.useInternalPrintFunction(storeToURL);
+    pmod.setPropertyValue("MailMergeNew_Schema", data.getSchema());
+    pmod.setPropertyValue("MailMergeNew_QueryResults", data);
+    pmod.setPropertyValue("MailMergeNew_Selection", selection);
+    pmod.printWithProps();
+    return office.getStores();
+  }
+
+  /**
+   * Liefert einen PersistentDataContainer, der die Daten nur im Speicher hält.
+   */
+  private static PersistentDataContainer createPersistentDataContainer()
+  {
+    Map<Object, Object> data = new HashMap<>();
+    return (PersistentDataContainer) Proxy.newProxyInstance(
+      PersistentDataContainer.class.getClassLoader(),
+      new Class<?>[] { PersistentDataContainer.class }, (proxy, method, args) -> {
+        switch (method.getName())
+        {
+          case "getData":
+            return data.get(args[0]);
+          case "setData":
+            return data.put(args[0], args[1]);
+          case "removeData":
+            return data.remove(args[0]);
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          case "equals":
+            return proxy == args[0];
+          default:
+            return null;
+        }
+      });
+  }
+}
@@ -0,0 +1,608 @@
+package de.muenchen.mailmerge;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.swing.JTextArea;
+import javax.swing.JTextField;
+
+import org.apache.log4j.Level;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.XPropertySet;
+import com.sun.star.bridge.UnoUrlResolver;
+import com.sun.star.bridge.XUnoUrlResolver;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.container.XSet;
+import com.sun.star.frame.XComponentLoader;
+import com.sun.star.lang.XComponent;
+import com.sun.star.sheet.XSpreadsheetDocument;
+import com.sun.star.text.XTextDocument;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.uno.XComponentContext;
+
+import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.afid.UnoProps;
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.dialog.TextComponentTags;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.allg.itd51.wollmux.core.util.LogConfig;
+import de.muenchen.mailmerge.comp.MailMergeComponent;
+import de.muenchen.mailmerge.dialog.mailmerge.DatasetSelectionType;
+import de.muenchen.mailmerge.dialog.mailmerge.MailMergeControllerImpl;
+import de.muenchen.mailmerge.dialog.mailmerge.MailMergeParams;
+import de.muenchen.mailmerge.dialog.mailmerge.gui.IndexSelection;
+import de.muenchen.mailmerge.dialog.mailmerge.gui.SubmitArgument;
+import de.muenchen.mailmerge.document.DocumentManager;
+import de.muenchen.mailmerge.document.TextDocumentController;
+import de.muenchen.mailmerge.document.commands.DocumentCommandInterpreter;
+import de.muenchen.mailmerge.email.EMailSender;
+
+/**
+ * Führt einen Seriendruck ohne Benutzeroberfläche aus, z.B. für nächtliche
+ * Serienbriefläufe auf einem Server mit LibreOffice im headless-Modus. Wie bei
+ * {@link DebugExternalMailMerge} läuft die Komponente in der lokalen JVM und
+ * verbindet sich mit einem externen Office-Prozess; es werden dieselben
+ * Druckfunktionen wie im Seriendruck-Dialog verwendet. Meldungen, die sonst in
+ * Dialogen erscheinen, werden nur protokolliert.
+ *
+ * Aufruf (alle Optionen in der Form --name=wert):
+ *
+ * <pre>
+ * java -cp ... de.muenchen.mailmerge.BatchMailMerge --vorlage=brief.odt
+ *   --datenquelle=adressen.csv --ausgabe=pdf-einzeln --ziel=/srv/briefe
+ * </pre>
+ *
+ * Verlangt der Mailserver eine Anmeldung (AUTH_USER_PATTERN), so wird das
+ * Passwort aus der Umgebungsvariablen {@link #SMTP_PASSWORD_ENV} gelesen.
+ *
+ * Am Ende werden die Anzahl der Datensätze und der Durchsatz ausgegeben; der
+ * Exit-Code ist einer der EXIT_*-Werte dieser Klasse.
+ */
+public class BatchMailMerge
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchMailMerge.class);
+
+  /**
+   * Der Seriendruck wurde vollständig ausgeführt.
+   */
+  public static final int EXIT_OK = 0;
+
+  /**
+   * Die Optionen sind unvollständig oder fehlerhaft.
+   */
+  public static final int EXIT_USAGE = 1;
+
+  /**
+   * Office, Vorlage oder Datenquelle konnten nicht geöffnet werden.
+   */
+  public static final int EXIT_INPUT = 2;
+
+  /**
+   * Der Seriendruck konnte nicht gestartet werden, wurde abgebrochen oder das
+   * Ergebnis konnte nicht gespeichert werden.
+   */
+  public static final int EXIT_PRINT = 3;
+
+  /**
+   * Der Seriendruck wurde ausgeführt, aber einzelne E-Mails konnten nicht
+   * verschickt werden.
+   */
+  public static final int EXIT_EMAIL = 4;
+
+  /**
+   * Optionen, mit denen LibreOffice gestartet wird, wenn keine Verbindung mit
+   * --office angegeben ist.
+   */
+  private static final String[] OFFICE_OPTIONS = { "--headless", "--invisible",
+    "--nologo", "--nodefault", "--norestore", "--nolockcheck" };
+
+  /**
+   * Importoptionen für CSV-Dateien: Komma als Trenner, Anführungszeichen als
+   * Textbegrenzer, UTF-8, ab Zeile 1.
+   */
+  private static final String CSV_FILTER_OPTIONS = "44,34,76,1";
+
+  private static final String CSV_FILTER = "Text - txt - csv (StarCalc)";
+
+  private static final String DB_PREFIX = "db:";
+
+  /**
+   * Umgebungsvariable mit dem Passwort für den Mailserver. Das Passwort wird
+   * nicht als Option übergeben, damit es nicht in der Prozessliste erscheint.
+   */
+  public static final String SMTP_PASSWORD_ENV = "MAILMERGE_SMTP_PASSWORT";
+
+  private static final String SET_FORM_VALUE_FUNCTION = "MailMergeNewSetFormValue";
+
+  private static final String PROP_OUTPUT_DOCUMENT = "PrintIntoFile_OutputDocument";
+
+  private static final List<String> OPTIONS = Arrays.asList("vorlage", "datenquelle",
+    "tabelle", "csv-optionen", "auswahl", "ausgabe", "ziel", "dateiname",
+    "email-von", "email-an", "email-betreff", "email-text", "email-benutzer", "office",
+    "debug");
+
+  /**
+   * Die Ausgabearten mit den Druckfunktionen, die sie zusätzlich zu
+   * {@link BatchMailMerge#SET_FORM_VALUE_FUNCTION} verwenden.
+   */
+  private enum Output
+  {
+    ODT("odt", "PrintIntoFile", true),
+
+    PDF("pdf", "PrintIntoFile", false),
+
+    ODT_EINZELN("odt-einzeln", "MailMergeNewToSingleODT", true),
+
+    PDF_EINZELN("pdf-einzeln", "MailMergeNewToSinglePDF", false),
+
+    ODT_EMAIL("odt-email", "MailMergeNewToODTEMail", true),
+
+    PDF_EMAIL("pdf-email", "MailMergeNewToPDFEMail", false);
+
+    private final String option;
+
+    private final String printFunction;
+
+    private final boolean isODT;
+
+    Output(String option, String printFunction, boolean isODT)
+    {
+      this.option = option;
+      this.printFunction = printFunction;
+      this.isODT = isODT;
+    }
+
+    boolean isSingleDocument()
+    {
+      return this == ODT || this == PDF;
+    }
+
+    boolean isEMail()
+    {
+      return this == ODT_EMAIL || this == PDF_EMAIL;
+    }
+
+    static Output get(String option)
+    {
+      for (Output o : values())
+        if (o.option.equals(option))
+          return o;
+      return null;
+    }
+  }
+
+  private BatchMailMerge()
+  {}
+
+  public static void main(String[] args)
+  {
+    System.exit(run(args));
+  }
+
+  /**
+   * Führt den mit args beschriebenen Seriendruck aus und liefert den Exit-Code.
+   */
+  public static int run(String[] args)
+  {
+    Map<String, String> opts = parseOptions(args);
+    if (opts == null)
+      return usage(null);
+    for (String required : new String[] { "vorlage", "datenquelle", "ausgabe" })
+      if (!opts.containsKey(required))
+        return usage(L.m("Option --%1 fehlt", required));
+
+    Output output = Output.get(opts.get("ausgabe"));
+    if (output == null)
+      return usage(L.m("Unbekannte Ausgabe '%1'", opts.get("ausgabe")));
+    if (!output.isEMail() && !opts.containsKey("ziel"))
+      return usage(L.m("Option --%1 fehlt", "ziel"));
+    if (output.isEMail() && (!opts.containsKey("email-von") || !opts.containsKey("email-an")))
+      return usage(L.m("Für den E-Mail-Versand sind --email-von und --email-an nötig"));
+
+    IndexSelection indexSelection = new IndexSelection();
+    DatasetSelectionType selectionType =
+      parseSelection(opts.getOrDefault("auswahl", "alle"), indexSelection);
+    if (selectionType == null)
+      return usage(L.m("Ungültige Auswahl '%1'", opts.get("auswahl")));
+
+    // Ohne Display werden keine Dialoge und keine Fortschrittsleiste angezeigt.
+    System.setProperty("java.awt.headless", "true");
+    LogConfig.init(System.out, opts.containsKey("debug") ? Level.DEBUG : Level.INFO);
+    LogConfig.setIgnoreInit(true);
+
+    boolean ownOffice = !opts.containsKey("office");
+    try
+    {
+      XComponentContext ctx =
+        ownOffice ? Bootstrap.bootstrap(OFFICE_OPTIONS) : connect(opts.get("office"));
+      UNO.init(ctx.getServiceManager());
+      XSet set = UnoRuntime.queryInterface(XSet.class, ctx.getServiceManager());
+      set.insert(MailMergeComponent.__getComponentFactory(MailMergeComponent.class.getName()));
+      new MailMergeComponent(ctx);
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("Keine Verbindung zu LibreOffice"), e);
+      return EXIT_INPUT;
+    }
+
+    try
+    {
+      return run(opts, output, selectionType, indexSelection);
+    }
+    finally
+    {
+      if (ownOffice)
+      {
+        try
+        {
+          UNO.desktop.terminate();
+        }
+        catch (Exception e)
+        {
+          LOGGER.debug("", e);
+        }
+      }
+    }
+  }
+
+  private static int run(Map<String, String> opts, Output output,
+      DatasetSelectionType selectionType, IndexSelection indexSelection)
+  {
+    if (output.isEMail() && EMailSender.isAuthenticationRequired())
+    {
+      String password = System.getenv(SMTP_PASSWORD_ENV);
+      if (password == null)
+        return usage(L.m(
+          "Der Mailserver verlangt eine Anmeldung, die Umgebungsvariable %1 mit dem Passwort fehlt",
+          SMTP_PASSWORD_ENV));
+      EMailSender.setHeadlessCredentials(opts.get("email-benutzer"), password);
+    }
+
+    XTextDocument doc;
+    try
+    {
+      doc = UNO.XTextDocument(UNO.loadComponentFromURL(toURL(opts.get("vorlage")),
+        false, false, true));
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("Vorlage '%1' kann nicht geöffnet werden", opts.get("vorlage")), e);
+      return EXIT_INPUT;
+    }
+    if (doc == null)
+    {
+      LOGGER.error(L.m("Vorlage '%1' ist kein Textdokument", opts.get("vorlage")));
+      return EXIT_INPUT;
+    }
+
+    DocumentManager docManager = DocumentManager.getDocumentManager();
+    if (docManager.getInfo(doc) == null)
+      docManager.addTextDocument(doc);
+    TextDocumentController documentController =
+      DocumentManager.getTextDocumentController(doc);
+    // wie beim Öffnen des Seriendruck-Dialogs die Formularfelder der Vorlage
+    // einlesen
+    DocumentCommandInterpreter dci = new DocumentCommandInterpreter(documentController);
+    dci.scanGlobalDocumentCommands();
+    dci.scanInsertFormValueCommands();
+    MailMergeControllerImpl controller = new MailMergeControllerImpl(documentController);
+    XComponent calcDoc = null;
+    try
+    {
+      String source = opts.get("datenquelle");
+      boolean hasDatasource;
+      if (source.startsWith(DB_PREFIX))
+      {
+        hasDatasource = controller.getDatasource().setOOoDatasource(
+          source.substring(DB_PREFIX.length()), opts.get("tabelle"));
+      }
+      else
+      {
+        calcDoc = loadSpreadsheet(source, opts.get("csv-optionen"));
+        hasDatasource = calcDoc != null && controller.getDatasource().setCalcDatasource(
+          UNO.XSpreadsheetDocument(calcDoc), opts.get("tabelle"));
+      }
+      if (!hasDatasource)
+      {
+        LOGGER.error(L.m("Datenquelle '%1' kann nicht verwendet werden", source));
+        return EXIT_INPUT;
+      }
+
+      int datasets = controller.getDatasource().getNumberOfDatasets();
+      if (getLastSelected(selectionType, indexSelection) > datasets)
+        return usage(L.m("Die Auswahl '%1' geht über die %2 Datensätze der Datenquelle hinaus",
+          opts.get("auswahl"), datasets));
+
+      Map<SubmitArgument, Object> args;
+      try
+      {
+        args = createArguments(opts, output, controller, indexSelection);
+      }
+      catch (IOException e)
+      {
+        LOGGER.error("", e);
+        return EXIT_INPUT;
+      }
+
+      long startTime = System.currentTimeMillis();
+      XPrintModel pmod = controller.runMailMerge(
+        Arrays.asList(SET_FORM_VALUE_FUNCTION, output.printFunction), false,
+        selectionType, args);
+      if (pmod == null)
+        return EXIT_PRINT;
+
+      int exitCode = EXIT_OK;
+      if (output.isSingleDocument() && !storeOutputDocument(pmod, output, opts.get("ziel")))
+        exitCode = EXIT_PRINT;
+      long duration = Math.max(1, System.currentTimeMillis() - startTime);
+      int count = MailMergeControllerImpl.mailMergeNewGetSelectionSize(pmod);
+      LOGGER.info(L.m("%1 Datensätze in %2 s verarbeitet (%3 Datensätze/s)", count,
+        duration / 1000.0, Math.round(count * 10000.0 / duration) / 10.0));
+
+      if (pmod.isCanceled())
+      {
+        LOGGER.error(L.m("Der Seriendruck wurde abgebrochen"));
+        return EXIT_PRINT;
+      }
+      List<String> failures = MailMergeControllerImpl.getEMailFailures(pmod);
+      if (exitCode == EXIT_OK && !failures.isEmpty())
+      {
+        LOGGER.error(L.m("%1 E-Mail(s) konnten nicht verschickt werden", failures.size()));
+        exitCode = EXIT_EMAIL;
+      }
+      return exitCode;
+    }
+    finally
+    {
+      controller.close();
+      close(calcDoc);
+      close(doc);
+    }
+  }
+
+  /**
+   * Liest die Optionen der Form --name=wert bzw. --name aus args. Liefert null, wenn
+   * eine Option unbekannt ist.
+   */
+  private static Map<String, String> parseOptions(String[] args)
+  {
+    Map<String, String> opts = new HashMap<>();
+    for (String arg : args)
+    {
+      if (!arg.startsWith("--"))
+        return null;
+      int eq = arg.indexOf('=');
+      String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+      if (!OPTIONS.contains(name))
+        return null;
+      opts.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+    }
+    return opts;
+  }
+
+  /**
+   * Wertet die Auswahl "alle", "von-bis" oder "n,m,..." aus (der erste Datensatz
+   * hat die Nummer 1) und liefert null, wenn sie ungültig ist. Einzelne Nummern
+   * werden sortiert und doppelte entfernt, da der Seriendruck
+   * (SelectedDatasets) die Datensätze aufsteigend erwartet.
+   */
+  private static DatasetSelectionType parseSelection(String selection,
+      IndexSelection indexSelection)
+  {
+    try
+    {
+      if ("alle".equals(selection))
+        return DatasetSelectionType.ALL;
+
+      int dash = selection.indexOf('-');
+      if (dash > 0)
+      {
+        int start = Integer.parseInt(selection.substring(0, dash).trim());
+        int end = Integer.parseInt(selection.substring(dash + 1).trim());
+        if (start < 1 || end < start)
+          return null;
+        indexSelection.setRangeStart(start);
+        indexSelection.setRangeEnd(end);
+        return DatasetSelectionType.RANGE;
+      }
+
+      TreeSet<Integer> numbers = new TreeSet<>();
+      for (String index : selection.split(","))
+        numbers.add(Integer.parseInt(index.trim()));
+      if (numbers.first() < 1)
+        return null;
+      // selectDatasets() erwartet die einzelnen Indizes ab 0
+      List<Integer> indexes = new ArrayList<>();
+      for (int number : numbers)
+        indexes.add(number - 1);
+      indexSelection.setSelectedIndexes(indexes);
+      return DatasetSelectionType.INDIVIDUAL;
+    }
+    catch (NumberFormatException e)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Liefert die Nummer (ab 1) des letzten ausgewählten Datensatzes oder 0 bei
+   * der Auswahl "alle".
+   */
+  private static int getLastSelected(DatasetSelectionType selectionType,
+      IndexSelection indexSelection)
+  {
+    switch (selectionType)
+    {
+      case RANGE:
+        return indexSelection.getRangeEnd();
+      case INDIVIDUAL:
+        List<Integer> indexes = indexSelection.getSelectedIndexes();
+        return indexes.get(indexes.size() - 1) + 1;
+      default:
+        return 0;
+    }
+  }
+
+  private static Map<SubmitArgument, Object> createArguments(Map<String, String> opts,
+      Output output, MailMergeControllerImpl controller, IndexSelection indexSelection)
+      throws IOException
+  {
+    Map<SubmitArgument, Object> args = new EnumMap<>(SubmitArgument.class);
+    args.put(SubmitArgument.indexSelection, indexSelection);
+    if (output.isEMail())
+    {
+      args.put(SubmitArgument.emailFrom, opts.get("email-von"));
+      args.put(SubmitArgument.emailToFieldName, opts.get("email-an"));
+      if (opts.containsKey("email-betreff"))
+        args.put(SubmitArgument.emailSubject, opts.get("email-betreff"));
+      String text = "";
+      if (opts.containsKey("email-text"))
+        text = new String(Files.readAllBytes(new File(opts.get("email-text")).toPath()),
+          StandardCharsets.UTF_8);
+      args.put(SubmitArgument.emailText, new TextComponentTags(new JTextArea(text)));
+    }
+    if (!output.isSingleDocument())
+    {
+      String pattern = opts.getOrDefault("dateiname", controller.getDefaultFilename()
+        + "_<<" + MailMergeParams.TAG_DATENSATZNUMMER + ">>");
+      args.put(SubmitArgument.filenameTemplate, new TextComponentTags(new JTextField(pattern)));
+    }
+    if (!output.isEMail() && !output.isSingleDocument())
+    {
+      File dir = new File(opts.get("ziel"));
+      if (!dir.isDirectory() && !dir.mkdirs())
+        throw new IOException(L.m("Verzeichnis '%1' kann nicht angelegt werden", dir));
+      args.put(SubmitArgument.targetDirectory, dir.getAbsolutePath());
+    }
+    return args;
+  }
+
+  /**
+   * Öffnet die Tabelle bzw. CSV-Datei file unsichtbar in Calc.
+   */
+  private static XComponent loadSpreadsheet(String file, String csvOptions)
+  {
+    try
+    {
+      UnoProps props = new UnoProps();
+      props.setPropertyValue("Hidden", Boolean.TRUE);
+      if (file.toLowerCase().endsWith(".csv"))
+      {
+        props.setPropertyValue("FilterName", CSV_FILTER);
+        props.setPropertyValue("FilterOptions",
+          csvOptions != null ? csvOptions : CSV_FILTER_OPTIONS);
+      }
+      XComponentLoader loader =
+        UnoRuntime.queryInterface(XComponentLoader.class, UNO.desktop);
+      XComponent calcDoc =
+        loader.loadComponentFromURL(toURL(file), "_blank", 0, props.getProps());
+      if (UnoRuntime.queryInterface(XSpreadsheetDocument.class, calcDoc) == null)
+      {
+        close(calcDoc);
+        return null;
+      }
+      return calcDoc;
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("Datenquelle '%1' kann nicht geöffnet werden", file), e);
+      return null;
+    }
+  }
+
+  /**
+   * Speichert das von PrintIntoFile erzeugte Gesamtdokument des Seriendrucks pmod
+   * als file und schließt es.
+   */
+  private static boolean storeOutputDocument(XPrintModel pmod, Output output,
+      String file)
+  {
+    XTextDocument outputDoc =
+      UNO.XTextDocument(pmod.getProp(PROP_OUTPUT_DOCUMENT, null));
+    if (outputDoc == null)
+    {
+      LOGGER.error(L.m("Der Seriendruck hat kein Dokument erzeugt"));
+      return false;
+    }
+    try
+    {
+      UnoProps props = new UnoProps();
+      props.setPropertyValue("Overwrite", Boolean.TRUE);
+      props.setPropertyValue("FilterName", output.isODT ? "writer8" : "writer_pdf_Export");
+      UNO.XStorable(outputDoc).storeToURL(toURL(file), props.getProps());
+      return true;
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("Das Ergebnis kann nicht als '%1' gespeichert werden", file), e);
+      return false;
+    }
+    finally
+    {
+      close(outputDoc);
+    }
+  }
+
+  private static String toURL(String file) throws IOException
+  {
+    return UNO.getParsedUNOUrl(new File(file).getAbsoluteFile().toURI().toURL()
+      .toExternalForm()).Complete;
+  }
+
+  private static void close(Object doc)
+  {
+    if (doc == null)
+      return;
+    try
+    {
+      UNO.XCloseable(doc).close(true);
+    }
+    catch (Exception e)
+    {
+      LOGGER.debug("", e);
+    }
+  }
+
+  /**
+   * Verbindet sich mit dem über unoUrl erreichbaren Office, das z.B. mit
+   * soffice --headless --accept="socket,host=localhost,port=2002;urp;" gestartet
+   * wurde.
+   */
+  private static XComponentContext connect(String unoUrl) throws Exception
+  {
+    XComponentContext localContext = Bootstrap.createInitialComponentContext(null);
+    XUnoUrlResolver resolver = UnoUrlResolver.create(localContext);
+    Object serviceManager =
+      resolver.resolve("uno:" + unoUrl + ";StarOffice.ServiceManager");
+    XPropertySet props = UnoRuntime.queryInterface(XPropertySet.class, serviceManager);
+    return UnoRuntime.queryInterface(XComponentContext.class,
+      props.getPropertyValue("DefaultContext"));
+  }
+
+  private static int usage(String error)
+  {
+    if (error != null)
+      System.err.println(error);
+    System.err.println(L.m("Aufruf: BatchMailMerge --vorlage=<Datei> "
+      + "--datenquelle=<Datei.csv|Datei.ods|db:Name> [--tabelle=<Name>] "
+      + "[--csv-optionen=<Importoptionen>] [--auswahl=alle|<von>-<bis>|<n>,<m>,...] "
+      + "--ausgabe=odt|pdf|odt-einzeln|pdf-einzeln|odt-email|pdf-email "
+      + "[--ziel=<Datei oder Verzeichnis>] [--dateiname=<Muster>] "
+      + "[--email-von=<Adresse>] [--email-an=<Spalte>] [--email-betreff=<Text>] "
+      + "[--email-text=<Datei>] [--email-benutzer=<Name>] [--office=<UNO-Verbindung>] "
+      + "[--debug]"));
+    return EXIT_USAGE;
+  }
+}
@@ -0,0 +1,143 @@
+package de.muenchen.mailmerge;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Entscheidet, wann der Seriendruck den GarbageCollector der JavaVM explizit
+ * anstößt, und liefert Zahlen zu Heap und Garbage Collection für das Log.
+ *
+ * Früher wurde nach jedem Datensatz des Seriendrucks in ein Gesamtdokument und
+ * bei vielen Events System.gc() aufgerufen, um sporadische Abstürze in der Kette
+ * JVM->UNO-Proxies->OOo zu vermeiden. Da sich mehrere Benutzer eine JavaVM
+ * teilen können, kostet jede dieser vollständigen Collections alle Benutzer
+ * Zeit. Deshalb geschieht das jetzt nur noch, wenn es in
+ * {@link MailMergeSettings#SECTION} konfiguriert ist:
+ *
+ * <pre>
+ * SeriendruckEinstellungen(
+ *   GC_DATENSATZ_INTERVALL "100"  # höchstens alle 100 Datensätze
+ *   GC_JE_AUFTRAG "on"            # nach jedem Druckauftrag/Event
+ * )
+ * </pre>
+ *
+ * Ohne diese Schlüssel wird nie explizit aufgeräumt. Über
+ * {@link #getStatistics()} und {@link Statistics#since(Statistics)} lässt sich im
+ * Log prüfen, wie sich Heap und Garbage Collection dabei entwickeln.
+ */
+public class GarbageCollection
+{
+  /**
+   * Schlüssel für die Anzahl der Datensätze, nach denen höchstens einmal
+   * aufgeräumt wird. Bei 0 (Default) wird nach Datensätzen nie aufgeräumt.
+   */
+  static final String RECORD_INTERVAL_KEY = "GC_DATENSATZ_INTERVALL";
+
+  /**
+   * Schlüssel, der festlegt, ob nach jedem Druckauftrag bzw. Event aufgeräumt
+   * wird (Default: nein).
+   */
+  static final String PER_JOB_KEY = "GC_JE_AUFTRAG";
+
+  private static final AtomicInteger records = new AtomicInteger();
+
+  private static final AtomicLong explicitCollections = new AtomicLong();
+
+  private GarbageCollection()
+  {}
+
+  /**
+   * Muss nach jedem verarbeiteten Datensatz aufgerufen werden und räumt auf,
+   * wenn seit dem letzten Aufräumen {@link #RECORD_INTERVAL_KEY} Datensätze
+   * verarbeitet wurden.
+   */
+  public static void afterRecord()
+  {
+    int interval = MailMergeSettings.getInt(RECORD_INTERVAL_KEY, 0);
+    if (interval > 0 && records.incrementAndGet() % interval == 0)
+      collect();
+  }
+
+  /**
+   * Muss nach einem Druckauftrag oder einem Event, das viel mit UNO-Objekten
+   * arbeitet, aufgerufen werden und räumt auf, wenn {@link #PER_JOB_KEY} gesetzt
+   * ist.
+   */
+  public static void afterJob()
+  {
+    if (MailMergeSettings.getBoolean(PER_JOB_KEY, false))
+      collect();
+  }
+
+  private static void collect()
+  {
+    explicitCollections.incrementAndGet();
+    System.gc();
+  }
+
+  /**
+   * Liefert den aktuellen Stand von Heap und Garbage Collection.
+   */
+  public static Statistics getStatistics()
+  {
+    long count = 0;
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+    {
+      // -1, wenn der Collector den Wert nicht liefert
+      count += Math.max(0, gc.getCollectionCount());
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    return new Statistics(heap.getUsed(), heap.getMax(), count, time,
+      explicitCollections.get());
+  }
+
+  /**
+   * Stand von Heap und Garbage Collection zu einem Zeitpunkt.
+   */
+  public static class Statistics
+  {
+    private final long heapUsed;
+
+    private final long heapMax;
+
+    private final long collections;
+
+    private final long collectionTime;
+
+    private final long explicit;
+
+    Statistics(long heapUsed, long heapMax, long collections,
+        long collectionTime, long explicit)
+    {
+      this.heapUsed = heapUsed;
+      this.heapMax = heapMax;
+      this.collections = collections;
+      this.collectionTime = collectionTime;
+      this.explicit = explicit;
+    }
+
+    /**
+     * Beschreibt den aktuellen Heap sowie die Collections seit start für das Log.
+     */
+    public String since(Statistics start)
+    {
+      return L.m(
+        "Heap: %1 MB belegt (vorher %2 MB, maximal %3 MB), Garbage Collection: %4 Läufe in %5 ms, davon %6 explizit",
+        toMB(heapUsed), toMB(start.heapUsed), heapMax < 0 ? "?" : toMB(heapMax),
+        collections - start.collections, collectionTime - start.collectionTime,
+        explicit - start.explicit);
+    }
+
+    private static long toMB(long bytes)
+    {
+      return bytes / (1024 * 1024);
+    }
+  }
+}
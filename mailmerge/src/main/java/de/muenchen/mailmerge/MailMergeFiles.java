@@ -62,6 +62,7 @@
  */
 package de.muenchen.mailmerge;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.net.MalformedURLException;
@@ -630,6 +631,12 @@ public class MailMergeFiles
           return;
       }
 
+      if (GraphicsEnvironment.isHeadless())
+      {
+        LOGGER.error(SLOW_SERVER_MESSAGE);
+        return;
+      }
+
       SwingUtilities.invokeLater(() -> 
       {
           LOGGER.error(SLOW_SERVER_MESSAGE);
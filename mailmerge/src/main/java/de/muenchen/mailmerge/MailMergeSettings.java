@@ -0,0 +1,108 @@
+/*
+ * Dateiname: MailMergeSettings.java
+ * Projekt  : WollMux
+ * Funktion : Zugriff auf den Abschnitt SeriendruckEinstellungen der wollmux.conf
+ *
+ * Copyright (c) 2008-2015 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ */
+package de.muenchen.mailmerge;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
+import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Liefert die Einstellungen für den Seriendruck aus dem (letzten) Abschnitt
+ * SeriendruckEinstellungen der wollmux.conf, z.B.
+ *
+ * <pre>
+ * SeriendruckEinstellungen(
+ *   DRUCKFUNKTIONEN_THREADS "2"
+ * )
+ * </pre>
+ *
+ * Fehlt der Abschnitt oder ein Schlüssel, so wird der übergebene Defaultwert
+ * verwendet.
+ */
+public class MailMergeSettings
+{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MailMergeSettings.class);
+
+  /**
+   * Name des Abschnitts in der wollmux.conf.
+   */
+  public static final String SECTION = "SeriendruckEinstellungen";
+
+  private MailMergeSettings()
+  {}
+
+  /**
+   * Liefert den Wert des Schlüssels key oder defaultValue, wenn der Schlüssel
+   * nicht gesetzt ist.
+   */
+  public static String getString(String key, String defaultValue)
+  {
+    ConfigThingy conf = MailMergeFiles.getWollmuxConf();
+    if (conf == null)
+      return defaultValue;
+    try
+    {
+      return conf.query(SECTION).getLastChild().getString(key, defaultValue);
+    }
+    catch (NodeNotFoundException e)
+    {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Liefert den Wert des Schlüssels key als Zahl oder defaultValue, wenn der
+   * Schlüssel nicht gesetzt oder keine gültige Zahl ist.
+   */
+  public static int getInt(String key, int defaultValue)
+  {
+    String value = getString(key, null);
+    if (value == null || value.trim().isEmpty())
+      return defaultValue;
+    try
+    {
+      return Integer.parseInt(value.trim());
+    }
+    catch (NumberFormatException e)
+    {
+      LOGGER.error(L.m("Ungültiger Wert '%1' für %2/%3. Verwende Voreinstellung %4.",
+        value, SECTION, key, defaultValue));
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Liefert den Wert des Schlüssels key als Wahrheitswert ("true"/"on" bzw.
+   * "false"/"off") oder defaultValue, wenn der Schlüssel nicht gesetzt ist.
+   */
+  public static boolean getBoolean(String key, boolean defaultValue)
+  {
+    String value = getString(key, null);
+    if (value == null || value.trim().isEmpty())
+      return defaultValue;
+    value = value.trim();
+    return "true".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value);
+  }
+}
@@ -1,5 +1,7 @@
 package de.muenchen.mailmerge;
 
+import java.awt.GraphicsEnvironment;
+
 import javax.swing.JDialog;
 import javax.swing.JOptionPane;
 
@@ -91,6 +93,14 @@ public class ModalDialogs
       java.lang.String sMessage, int margin, int messageType, int optionType)
   {
     boolean ret = false;
+    // ohne Display (z.B. BatchMailMerge) nur protokollieren; Fragen gelten als
+    // nicht bestätigt.
+    if (GraphicsEnvironment.isHeadless())
+    {
+      LOGGER.warn("{}: {}", sTitle, sMessage);
+      return ret;
+    }
+
     try
     {
       // zu lange Strings ab margin Zeichen umbrechen:
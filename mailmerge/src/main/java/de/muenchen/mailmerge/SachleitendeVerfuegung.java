@@ -1000,6 +1000,49 @@ public class SachleitendeVerfuegung
     }
   }
 
+  /**
+   * Liefert den Namen der Absatzformatvorlage von paragraph oder "", wenn er
+   * nicht bestimmt werden kann.
+   */
+  private static String getParaStyleName(XTextRange paragraph)
+  {
+    try
+    {
+      return AnyConverter.toString(UNO.getProperty(paragraph, "ParaStyleName"));
+    }
+    catch (IllegalArgumentException e)
+    {
+      return "";
+    }
+  }
+
+  /**
+   * Liefert true, wenn die Absatzformatvorlage paraStyleName einen Verfügungspunkt
+   * (auch mit Zuleitung) oder eine Zuleitungszeile auszeichnet.
+   */
+  private static boolean isSLVParaStyle(String paraStyleName)
+  {
+    return paraStyleName.startsWith(ParaStyleNameVerfuegungspunkt)
+      || paraStyleName.startsWith(ParaStyleNameVerfuegungspunktMitZuleitung)
+      || paraStyleName.startsWith(ParaStyleNameZuleitungszeile);
+  }
+
+  /**
+   * Liefert true, wenn das Dokument doc mindestens eine Absatzformatvorlage im
+   * Sinne von {@link #isSLVParaStyle(String)} enthält oder das nicht bestimmt
+   * werden kann.
+   */
+  private static boolean hasSLVParaStyles(XTextDocument doc)
+  {
+    XNameContainer styles = getStyleContainer(doc, PARAGRAPH_STYLES);
+    if (styles == null)
+      return true;
+    for (String name : styles.getElementNames())
+      if (isSLVParaStyle(name))
+        return true;
+    return false;
+  }
+
   /**
    * Sorgt ohne Verlust von sichtbaren Formatierungseigenschaften dafür, dass alle
    * Formatvorlagen des Dokuments doc, die in Sachleitenden Verfügungen eine
@@ -1013,26 +1056,20 @@ public class SachleitendeVerfuegung
       return;
 
     HashMap<String, String> mapOldNameToNewName = new HashMap<>();
-    XParagraphCursor cursor =
-      UNO.XParagraphCursor(doc.getText().createTextCursorByRange(
+    XParagraphCursor cursor = null;
+    // Gibt es die Formatvorlagen im Dokument nicht, so kann sie auch kein Absatz
+    // verwenden und die Absätze müssen nicht einzeln geprüft werden.
+    if (hasSLVParaStyles(doc))
+      cursor = UNO.XParagraphCursor(doc.getText().createTextCursorByRange(
         doc.getText().getStart()));
     if (cursor != null)
       do
       {
         cursor.gotoEndOfParagraph(true);
 
-        if (isVerfuegungspunkt(cursor) || isZuleitungszeile(cursor)
-          || isVerfuegungspunktMitZuleitung(cursor))
+        String oldName = getParaStyleName(cursor);
+        if (isSLVParaStyle(oldName))
         {
-          String oldName = "";
-          try
-          {
-            oldName =
-              AnyConverter.toString(UNO.getProperty(cursor, "ParaStyleName"));
-          }
-          catch (IllegalArgumentException e)
-          {}
-
           // Einmalig Style NO<number>_<oldName> erzeugen, der von <oldName> erbt.
           String newName = mapOldNameToNewName.get(oldName);
           XStyle newStyle = null;
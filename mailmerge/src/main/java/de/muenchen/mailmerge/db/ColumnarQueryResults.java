@@ -0,0 +1,282 @@
+package de.muenchen.mailmerge.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
+import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
+import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
+import de.muenchen.allg.itd51.wollmux.core.db.QueryResultsWithSchema;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
+/**
+ * Hält die Datensätze einer Seriendruckdatenquelle spaltenweise im Speicher.
+ * Jede Spalte speichert ihre Werte zunächst als Verweise in ein Wörterbuch der
+ * verschiedenen Werte der Spalte, so dass häufig wiederkehrende Werte (z.B. Ort,
+ * Referat, Anrede) nur einmal im Speicher liegen. Spalten mit überwiegend
+ * verschiedenen Werten werden auf ein einfaches String-Array umgestellt.
+ *
+ * Zugriffe über Spaltennamen ({@link Dataset#get(String)}) bleiben möglich. Wer
+ * viele Datensätze liest, sollte die Spaltennamen aber einmalig mit
+ * {@link #getColumnHandle(String)} auflösen und dann über
+ * {@link #get(int, int)} zugreifen.
+ *
+ * Die Datensätze werden mit {@link #addRow(String[])} hinzugefügt; danach darf
+ * das Objekt nicht mehr verändert werden und kann von mehreren Threads gelesen
+ * werden.
+ */
+public class ColumnarQueryResults extends QueryResultsWithSchema
+{
+  /**
+   * Ab dieser Anzahl verschiedener Werte wird geprüft, ob sich das Wörterbuch
+   * einer Spalte noch lohnt.
+   */
+  private static final int MIN_DICTIONARY_CHECK = 1024;
+
+  private final Table table;
+
+  /**
+   * Erzeugt leere QueryResults mit den Spalten columnNames. Die Reihenfolge der
+   * Spalten bestimmt die Reihenfolge der Werte in {@link #addRow(String[])}.
+   */
+  public ColumnarQueryResults(List<String> columnNames)
+  {
+    this(new Table(columnNames));
+  }
+
+  private ColumnarQueryResults(Table table)
+  {
+    super(table, new HashSet<>(Arrays.asList(table.columnNames)));
+    this.table = table;
+  }
+
+  /**
+   * Übernimmt alle Datensätze aus res mit den Spalten aus schema in neue
+   * ColumnarQueryResults. Fehlt einem Datensatz eine Spalte, so wird der leere
+   * String eingetragen.
+   */
+  public static ColumnarQueryResults copyOf(QueryResults res,
+      Iterable<String> schema)
+  {
+    List<String> columns = new ArrayList<>();
+    for (String column : schema)
+      columns.add(column);
+    ColumnarQueryResults results = new ColumnarQueryResults(columns);
+    String[] row = new String[columns.size()];
+    for (Dataset ds : res)
+    {
+      for (int i = 0; i < row.length; ++i)
+      {
+        try
+        {
+          row[i] = ds.get(columns.get(i));
+        }
+        catch (ColumnNotFoundException e)
+        {
+          row[i] = "";
+        }
+      }
+      results.addRow(row);
+    }
+    return results;
+  }
+
+  /**
+   * Hängt einen Datensatz an, dessen Werte in der Reihenfolge der Spalten aus dem
+   * Konstruktor in values stehen. values wird nicht übernommen und kann vom
+   * Aufrufer wiederverwendet werden.
+   */
+  public void addRow(String[] values)
+  {
+    table.addRow(values);
+  }
+
+  /**
+   * Liefert die Nummer der Spalte columnName für {@link #get(int, int)} oder -1,
+   * wenn es keine solche Spalte gibt.
+   */
+  public int getColumnHandle(String columnName)
+  {
+    Integer idx = table.columnIndex.get(columnName);
+    return idx == null ? -1 : idx;
+  }
+
+  /**
+   * Liefert den Wert der Spalte mit der Nummer handle (siehe
+   * {@link #getColumnHandle(String)}) im row-ten Datensatz (der erste Datensatz
+   * hat den Index 0).
+   */
+  public String get(int row, int handle)
+  {
+    return table.columns[handle].get(row);
+  }
+
+  /**
+   * Liefert den row-ten Datensatz (der erste Datensatz hat den Index 0).
+   */
+  public Dataset getDataset(int row)
+  {
+    if (row < 0 || row >= table.size)
+      throw new IndexOutOfBoundsException(L.m("Illegale Datensatznummer: %1", row));
+    return new Row(table, row);
+  }
+
+  private static class Table implements QueryResults
+  {
+    final String[] columnNames;
+
+    final Map<String, Integer> columnIndex = new HashMap<>();
+
+    final Column[] columns;
+
+    int size = 0;
+
+    Table(List<String> columnNames)
+    {
+      this.columnNames = columnNames.toArray(new String[columnNames.size()]);
+      columns = new Column[this.columnNames.length];
+      for (int i = 0; i < columns.length; ++i)
+      {
+        columnIndex.put(this.columnNames[i], i);
+        columns[i] = new Column();
+      }
+    }
+
+    void addRow(String[] values)
+    {
+      for (int i = 0; i < columns.length; ++i)
+        columns[i].add(size, values[i]);
+      ++size;
+    }
+
+    @Override
+    public int size()
+    {
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+      return size == 0;
+    }
+
+    @Override
+    public Iterator<Dataset> iterator()
+    {
+      return new Iterator<Dataset>()
+      {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext()
+        {
+          return next < size;
+        }
+
+        @Override
+        public Dataset next()
+        {
+          if (next >= size)
+            throw new NoSuchElementException();
+          return new Row(Table.this, next++);
+        }
+      };
+    }
+  }
+
+  /**
+   * Eine Spalte. Solange sich das Wörterbuch lohnt, enthält codes für jeden
+   * Datensatz den Index seines Werts in dictionary, ansonsten stehen die Werte
+   * direkt in plain.
+   */
+  private static class Column
+  {
+    List<String> dictionary = new ArrayList<>();
+
+    Map<String, Integer> codeOf = new HashMap<>();
+
+    int[] codes = new int[16];
+
+    String[] plain = null;
+
+    void add(int row, String value)
+    {
+      if (plain != null)
+      {
+        if (row >= plain.length)
+          plain = Arrays.copyOf(plain, plain.length * 2);
+        plain[row] = value;
+        return;
+      }
+
+      Integer code = codeOf.get(value);
+      if (code == null)
+      {
+        code = dictionary.size();
+        dictionary.add(value);
+        codeOf.put(value, code);
+      }
+      if (row >= codes.length)
+        codes = Arrays.copyOf(codes, codes.length * 2);
+      codes[row] = code;
+
+      // Bei überwiegend verschiedenen Werten spart das Wörterbuch nichts.
+      if (dictionary.size() >= MIN_DICTIONARY_CHECK
+        && dictionary.size() * 2 > row + 1)
+        toPlain(row + 1);
+    }
+
+    private void toPlain(int size)
+    {
+      plain = new String[codes.length];
+      for (int i = 0; i < size; ++i)
+        plain[i] = dictionary.get(codes[i]);
+      dictionary = null;
+      codeOf = null;
+      codes = null;
+    }
+
+    String get(int row)
+    {
+      if (plain != null)
+        return plain[row];
+      return dictionary.get(codes[row]);
+    }
+  }
+
+  private static class Row implements Dataset
+  {
+    private final Table table;
+
+    private final int row;
+
+    Row(Table table, int row)
+    {
+      this.table = table;
+      this.row = row;
+    }
+
+    @Override
+    public String get(String columnName) throws ColumnNotFoundException
+    {
+      Integer idx = table.columnIndex.get(columnName);
+      if (idx == null)
+        throw new ColumnNotFoundException(L.m("Spalte %1 existiert nicht!",
+          columnName));
+      return table.columns[idx].get(row);
+    }
+
+    @Override
+    public String getKey()
+    {
+      return Integer.toString(row);
+    }
+  }
+}
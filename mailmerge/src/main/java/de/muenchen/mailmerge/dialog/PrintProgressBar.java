@@ -34,9 +34,11 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
@@ -44,6 +46,7 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -61,6 +64,12 @@ import de.muenchen.allg.itd51.wollmux.core.util.L;
  * Druckfunktionen beteiligt sind, von denen die eine 2 Versionen und die andere
  * 5 Versionen erstellen wird.
  *
+ * Da die Druckfunktionen ihren Fortschritt pro Datensatz melden, merkt sich
+ * {@link #setValue(Object, int)} nur den neuen Wert. Die Anzeige wird vom
+ * Swing-EDT höchstens alle {@link #REFRESH_INTERVAL} Millisekunden neu
+ * aufgebaut; Änderungen der registrierten Druckfunktionen und das Erreichen des
+ * Maximalwerts werden sofort angezeigt.
+ *
  * @author Christoph Lutz (D-III-ITD-5.1)
  */
 public class PrintProgressBar
@@ -68,12 +77,18 @@ public class PrintProgressBar
 
   private static final Logger LOGGER = LoggerFactory.getLogger(PrintProgressBar.class);
 
+  /**
+   * Abstand in Millisekunden, in dem geänderte Fortschrittswerte angezeigt
+   * werden.
+   */
+  private static final int REFRESH_INTERVAL = 100;
+
   /**
    * Enthält eine Zuordnung eines Schlüssels, der eine Komfortdruckfunktion
    * repräsentiert, auf den Maximalwert von dieser Komfortdruckfunktion zu
    * erwartender Versionen.
    */
-  private HashMap<Object, Integer> maxValues;
+  private ConcurrentHashMap<Object, Integer> maxValues;
 
   /**
    * Enthält eine Zuordnung eines Schlüssels, der eine Komfortdruckfunktion
@@ -81,15 +96,27 @@ public class PrintProgressBar
    * Komfortdruckfunktion. Für den Bearbeitungsstatus gilt: 0 <= currentValue <=
    * maxValue.
    */
-  private HashMap<Object, Integer> currentValues;
+  private ConcurrentHashMap<Object, AtomicInteger> currentValues;
 
   /**
    * Enthält die Schlüssel der gerade aktiven Komfortdruckfunktionen in zeitlich
    * gesehen umgekehrter Registrierungsreihenfolge. D.h. ein maxValue, der zu
    * einem späteren Zeitpunkt mittels setMaxValue(key, maxValue) registriert
-   * wird, wird immer am Anfang der LinkedList eingefügt.
+   * wird, wird immer am Anfang der Liste eingefügt.
+   */
+  private List<Object> order;
+
+  /**
+   * Ist true, wenn sich seit dem letzten Aufbau der Anzeige ein Fortschrittswert
+   * geändert hat.
+   */
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  /**
+   * Baut die Anzeige alle {@link #REFRESH_INTERVAL} Millisekunden neu auf, wenn
+   * sich etwas geändert hat.
    */
-  private LinkedList<Object> order;
+  private Timer refreshTimer;
 
   /**
    * Enthält den JFrame in dem die Fortschrittsanzeige dargestellt wird.
@@ -133,9 +160,9 @@ public class PrintProgressBar
    */
   public PrintProgressBar(final String title, ActionListener abortListener)
   {
-    this.order = new LinkedList<>();
-    this.maxValues = new HashMap<>();
-    this.currentValues = new HashMap<>();
+    this.order = new CopyOnWriteArrayList<>();
+    this.maxValues = new ConcurrentHashMap<>();
+    this.currentValues = new ConcurrentHashMap<>();
     this.abortListener = abortListener;
     try
     {
@@ -184,10 +211,16 @@ public class PrintProgressBar
     panel.add(cancelButton);
 
     myFrame.add(panel);
-    refresh();
+    refreshNow();
     myFrame.pack();
     myFrame.setVisible(true);
     myFrame.setAlwaysOnTop(true);
+
+    refreshTimer = new Timer(REFRESH_INTERVAL, e -> {
+      if (dirty.get())
+        refreshNow();
+    });
+    refreshTimer.start();
   }
 
   /**
@@ -216,6 +249,8 @@ public class PrintProgressBar
   {
     if (myFrame == null)
       return;
+    if (refreshTimer != null)
+      refreshTimer.stop();
     myFrame.removeWindowListener(oehrchen);
     myFrame.getContentPane().remove(0);
     myFrame.setJMenuBar(null);
@@ -265,7 +300,7 @@ public class PrintProgressBar
    *
    * @author Christoph Lutz (D-III-ITD-5.1)
    */
-  public void setMaxValue(Object key, int maxValue)
+  public synchronized void setMaxValue(Object key, int maxValue)
   {
     if (key == null)
       return;
@@ -273,23 +308,16 @@ public class PrintProgressBar
     if (maxValue == 0)
     {
       // Zähler für key löschen, wenn maxValue==0
+      order.remove(key);
       maxValues.remove(key);
       currentValues.remove(key);
-      for (Iterator<Object> iter = order.iterator(); iter.hasNext();)
-      {
-        Object k = iter.next();
-        if (k != null && k.equals(key))
-          iter.remove();
-      }
     } else
     {
       // neuen maxWert setzen, Reihenfolge festhalten und currentValue
       // initialisieren
-      if (!maxValues.containsKey(key))
-        order.addFirst(key);
-      maxValues.put(key, maxValue);
-      if (!currentValues.containsKey(key))
-        currentValues.put(key, 0);
+      currentValues.putIfAbsent(key, new AtomicInteger());
+      if (maxValues.put(key, maxValue) == null)
+        order.add(0, key);
     }
 
     refresh();
@@ -297,7 +325,9 @@ public class PrintProgressBar
 
   /**
    * Informiert die PrintProgressBar über den Fortschritt value einer
-   * Druckfunktion, die durch key repräsentiert wird.
+   * Druckfunktion, die durch key repräsentiert wird. Angezeigt wird der Wert
+   * spätestens nach {@link #REFRESH_INTERVAL} Millisekunden, der Maximalwert
+   * sofort.
    *
    * @param key
    *          repräsentiert eine Druckfunktion, die über den neuen Fortschritt
@@ -314,15 +344,20 @@ public class PrintProgressBar
     if (key == null)
       return;
     Integer max = maxValues.get(key);
-    if (max == null)
+    AtomicInteger current = currentValues.get(key);
+    if (max == null || current == null)
       return;
     if (value > max)
       value = max;
     if (value < 0)
       value = 0;
 
-    currentValues.put(key, value);
-    refresh();
+    if (current.getAndSet(value) == value)
+      return;
+    if (value == max)
+      refresh();
+    else
+      dirty.set(true);
   }
 
   /**
@@ -349,7 +384,24 @@ public class PrintProgressBar
   }
 
   /**
-   * Baut die Ansicht der PrintProgressBar neu auf. Eine der Hauptaufgaben von
+   * Sorgt dafür, dass die Ansicht der PrintProgressBar sofort (und nicht erst
+   * nach {@link #REFRESH_INTERVAL} Millisekunden) über den Swing-EDT neu
+   * aufgebaut wird.
+   */
+  private void refresh()
+  {
+    dirty.set(true);
+    if (myFrame == null)
+      return;
+    SwingUtilities.invokeLater(() -> {
+      if (dirty.get())
+        refreshNow();
+    });
+  }
+
+  /**
+   * Baut die Ansicht der PrintProgressBar neu auf und muss im Swing-EDT
+   * aufgerufen werden. Eine der Hauptaufgaben von
    * refresh ist es dabei, den status-String (z.B. "1 von 4 Schritten" oder bei
    * mehr als einer registrierten Druckfunktion "3 von 10 (=2x5) Schritten")
    * zusammen zu setzen und die Gesamtzahl zu erwartender Versionen und den
@@ -363,8 +415,9 @@ public class PrintProgressBar
    *
    * @author Christoph Lutz (D-III-ITD-5.1)
    */
-  private void refresh()
+  private void refreshNow()
   {
+    dirty.set(false);
     int allMax = 1;
     int allCurrent = 0;
     StringBuilder fromMaxString = new StringBuilder();
@@ -375,47 +428,30 @@ public class PrintProgressBar
 
     for (Object key : order)
     {
-      allCurrent += currentValues.get(key) * allMax;
+      Integer max = maxValues.get(key);
+      AtomicInteger current = currentValues.get(key);
+      // key wird gerade von setMaxValue(...) deregistriert
+      if (max == null || current == null)
+        continue;
+      allCurrent += current.get() * allMax;
       if (first)
         first = false;
       else if (showfms)
         fromMaxString.append("x");
       if (showfms)
-        fromMaxString.append(maxValues.get(key));
-      allMax *= maxValues.get(key);
+        fromMaxString.append(max);
+      allMax *= max;
     }
     if (showfms)
       fromMaxString.append(")");
 
-    refresh(allCurrent, allMax, fromMaxString.toString());
-  }
-
-  /**
-   * Enthält die Teile von refresh, die über den Swing-EDT aufgerufen werden.
-   *
-   * @param allCurrent
-   *          gesamtzahl aller zu erwartenden Versionen
-   * @param allMax
-   *          gesamtzahl aller bereits gedruckten Versionen
-   * @param fromMaxString
-   *          Darstellung abhängig von der Anzahl registrierter Druckfunktionen
-   *          entweder "" oder "(=2x5)"
-   *
-   * @author Christoph Lutz (D-III-ITD-5.1)
-   */
-  private void refresh(final int allCurrent, final int allMax, final String fromMaxString)
-  {
-    if (myFrame == null)
-      return;
-    SwingUtilities.invokeLater(() -> {
-      if (myFrame != null)
-      {
-        pb.setMaximum(allMax);
-        pb.setValue(allCurrent);
-        statusLabel.setText(L.m(" %1 von %2%3 Schritten", allCurrent, allMax, fromMaxString));
-        myFrame.pack();
-      }
-    });
+    if (myFrame != null)
+    {
+      pb.setMaximum(allMax);
+      pb.setValue(allCurrent);
+      statusLabel.setText(L.m(" %1 von %2%3 Schritten", allCurrent, allMax, fromMaxString));
+      myFrame.pack();
+    }
   }
 
   /**
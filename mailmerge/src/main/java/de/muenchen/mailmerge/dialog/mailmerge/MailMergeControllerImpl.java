@@ -1,10 +1,13 @@
 package de.muenchen.mailmerge.dialog.mailmerge;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -19,19 +22,24 @@ import com.sun.star.lang.NoSuchMethodException;
 import com.sun.star.text.XTextDocument;
 
 import de.muenchen.allg.itd51.wollmux.XPrintModel;
-import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResultsWithSchema;
 import de.muenchen.allg.itd51.wollmux.core.dialog.TextComponentTags;
 import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults.SimulationResultsProcessor;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.GarbageCollection;
 import de.muenchen.mailmerge.ModalDialogs;
 import de.muenchen.mailmerge.dialog.mailmerge.gui.IndexSelection;
 import de.muenchen.mailmerge.dialog.mailmerge.gui.SubmitArgument;
 import de.muenchen.mailmerge.document.DocumentManager;
+import de.muenchen.mailmerge.document.OfflineSimulation;
+import de.muenchen.mailmerge.document.SimulationBaseline;
 import de.muenchen.mailmerge.document.TextDocumentController;
+import de.muenchen.mailmerge.document.TrafoCache;
+import de.muenchen.mailmerge.email.EMailSendQueue;
 import de.muenchen.mailmerge.email.EMailSender;
+import de.muenchen.mailmerge.print.PrintIntoFile;
 import de.muenchen.mailmerge.print.model.PrintModels;
 
 public class MailMergeControllerImpl implements MailMergeController
@@ -94,6 +102,30 @@ public class MailMergeControllerImpl implements MailMergeController
    */
   private static final String PROP_MAILMERGENEW_SELECTION = "MailMergeNew_Selection";
 
+  /**
+   * ID der Property, in der die für den gesamten Seriendruck gemeinsam genutzte
+   * {@link EMailSendQueue} gespeichert wird.
+   */
+  private static final String PROP_EMAIL_QUEUE = "MailMergeNew_EMailQueue";
+
+  /**
+   * ID der Property, in der die {@link ParallelSingleFileExport.Output} gespeichert
+   * wird, wenn die Einzeldokumente parallel erzeugt werden sollen.
+   */
+  private static final String PROP_PARALLEL_OUTPUT = "MailMergeNew_ParallelOutput";
+
+  /**
+   * Property von pmod, in der {@link #finishEMailQueue(XPrintModel)} die Meldungen zu
+   * den E-Mails ablegt, die nicht verschickt werden konnten.
+   */
+  private static final String PROP_EMAIL_FAILURES = "MailMergeNew_EMailFailures";
+
+  /**
+   * Maximale Anzahl der Empfänger, die in der Meldung über fehlgeschlagene
+   * E-Mails einzeln aufgeführt werden.
+   */
+  private static final int MAX_REPORTED_MAIL_FAILURES = 20;
+
   private static final String TEMP_MAIL_DIR_PREFIX = "wollmuxmail";
 
   private static final String MAIL_ERROR_MESSAGE_TITLE =
@@ -149,49 +181,61 @@ public class MailMergeControllerImpl implements MailMergeController
     return documentController.getModel().doc;
   }
 
+  /**
+   * Liefert die Datenquelle dieses Seriendrucks, z.B. um sie ohne Dialog
+   * auszuwählen.
+   */
+  public MailMergeDatasource getDatasource()
+  {
+    return ds;
+  }
+
   @Override
   public void doMailMerge(List<String> usePrintFunctions, boolean ignoreDocPrintFuncs,
       DatasetSelectionType datasetSelectionType, Map<SubmitArgument, Object> args)
+  {
+    XPrintModel pmod = createPrintModel(usePrintFunctions, ignoreDocPrintFuncs,
+      datasetSelectionType, args);
+    if (pmod != null)
+      doPrint(pmod);
+  }
+
+  /**
+   * Führt den Seriendruck wie
+   * {@link #doMailMerge(List, boolean, DatasetSelectionType, Map)} aus, aber im
+   * aufrufenden Thread, und kehrt erst zurück, wenn alle Druckfunktionen
+   * abgeschlossen und alle E-Mails verschickt sind.
+   *
+   * @return das XPrintModel des Seriendrucks, an dem z.B. abgefragt werden kann,
+   *         ob er abgebrochen wurde, oder null, wenn der Seriendruck nicht
+   *         gestartet werden konnte.
+   */
+  public XPrintModel runMailMerge(List<String> usePrintFunctions,
+      boolean ignoreDocPrintFuncs, DatasetSelectionType datasetSelectionType,
+      Map<SubmitArgument, Object> args)
+  {
+    XPrintModel pmod = createPrintModel(usePrintFunctions, ignoreDocPrintFuncs,
+      datasetSelectionType, args);
+    if (pmod != null)
+      print(pmod);
+    return pmod;
+  }
+
+  /**
+   * Erzeugt das XPrintModel für einen Seriendruck mit den Druckfunktionen
+   * usePrintFunctions über die mit datasetSelectionType gewählten Datensätze.
+   *
+   * @return das XPrintModel oder null, wenn ein Fehler aufgetreten ist.
+   */
+  private XPrintModel createPrintModel(List<String> usePrintFunctions,
+      boolean ignoreDocPrintFuncs, DatasetSelectionType datasetSelectionType,
+      Map<SubmitArgument, Object> args)
   {
     documentController.collectNonWollMuxFormFields();
     QueryResultsWithSchema data = ds.getData();
 
-    List<Integer> selected = new ArrayList<>();
-    switch (datasetSelectionType)
-    {
-      case ALL:
-        for (int i = 0; i < data.size(); ++i)
-        {
-          selected.add(i);
-        }
-        break;
-      case INDIVIDUAL:
-        IndexSelection indexSelection =
-          (IndexSelection) args.get(SubmitArgument.indexSelection);
-        selected.addAll(indexSelection.getSelectedIndexes());
-        break;
-      case RANGE:
-        indexSelection = (IndexSelection) args.get(SubmitArgument.indexSelection);
-        if (indexSelection.getRangeStart() < 1)
-          indexSelection.setRangeStart(1);
-        if (indexSelection.getRangeEnd() < 1)
-          indexSelection.setRangeEnd(data.size());
-        if (indexSelection.getRangeEnd() > data.size())
-          indexSelection.setRangeEnd(data.size());
-        if (indexSelection.getRangeStart() > data.size())
-          indexSelection.setRangeStart(data.size());
-        if (indexSelection.getRangeStart() > indexSelection.getRangeEnd())
-        {
-          int t = indexSelection.getRangeStart();
-          indexSelection.setRangeStart(indexSelection.getRangeEnd());
-          indexSelection.setRangeEnd(t);
-        }
-        for (int i = indexSelection.getRangeStart(); i <= indexSelection.getRangeEnd(); ++i)
-         {
-          selected.add(i - 1); // wir zählen ab 0, anders als rangeStart/End
-        }
-        break;
-    }
+    List<Integer> selected = selectDatasets(datasetSelectionType, data.size(),
+      (IndexSelection) args.get(SubmitArgument.indexSelection));
 
     // PrintModel erzeugen und Parameter setzen:
     final XPrintModel pmod = PrintModels.createPrintModel(documentController, !ignoreDocPrintFuncs);
@@ -224,11 +268,20 @@ public class MailMergeControllerImpl implements MailMergeController
       o = args.get(SubmitArgument.emailText);
       if (o != null)
         pmod.setPropertyValue(PROP_EMAIL_MESSAGE_TEXTTAGS, o);
+
+      boolean hasDocPrintFuncs = !ignoreDocPrintFuncs
+        && !documentController.getModel().getPrintFunctions().isEmpty();
+      o = ParallelSingleFileExport.getOutput(usePrintFunctions, hasDocPrintFuncs);
+      if (o != null)
+        pmod.setPropertyValue(PROP_PARALLEL_OUTPUT, o);
+
+      // doPrint() ruft am Ende PrintIntoFile.finish() auf
+      pmod.setPropertyValue(PrintIntoFile.PROP_BATCHING, Boolean.TRUE);
     }
     catch (Exception x)
     {
       LOGGER.error("", x);
-      return;
+      return null;
     }
 
     // Benötigte Druckfunktionen zu pmod hinzufügen:
@@ -248,10 +301,55 @@ public class MailMergeControllerImpl implements MailMergeController
           "Eine notwendige Druckfunktion ist nicht definiert. Bitte wenden Sie sich an Ihre Systemadministration damit Ihre Konfiguration entsprechend erweitert bzw. aktualisiert werden kann.\n\n%1",
           e));
       pmod.cancel();
-      return;
+      return null;
     }
 
-    doPrint(pmod);
+    return pmod;
+  }
+
+  /**
+   * Liefert die Indizes (0 ist der erste Datensatz) der Datensätze, die bei
+   * datasetSelectionType aus insgesamt size Datensätzen gedruckt werden sollen.
+   * Bei {@link DatasetSelectionType#RANGE} wird der Bereich in indexSelection
+   * dabei auf gültige Werte korrigiert.
+   */
+  static List<Integer> selectDatasets(DatasetSelectionType datasetSelectionType,
+      int size, IndexSelection indexSelection)
+  {
+    List<Integer> selected = new ArrayList<>();
+    switch (datasetSelectionType)
+    {
+      case ALL:
+        for (int i = 0; i < size; ++i)
+        {
+          selected.add(i);
+        }
+        break;
+      case INDIVIDUAL:
+        selected.addAll(indexSelection.getSelectedIndexes());
+        break;
+      case RANGE:
+        if (indexSelection.getRangeStart() < 1)
+          indexSelection.setRangeStart(1);
+        if (indexSelection.getRangeEnd() < 1)
+          indexSelection.setRangeEnd(size);
+        if (indexSelection.getRangeEnd() > size)
+          indexSelection.setRangeEnd(size);
+        if (indexSelection.getRangeStart() > size)
+          indexSelection.setRangeStart(size);
+        if (indexSelection.getRangeStart() > indexSelection.getRangeEnd())
+        {
+          int t = indexSelection.getRangeStart();
+          indexSelection.setRangeStart(indexSelection.getRangeEnd());
+          indexSelection.setRangeEnd(t);
+        }
+        for (int i = indexSelection.getRangeStart(); i <= indexSelection.getRangeEnd(); ++i)
+        {
+          selected.add(i - 1); // wir zählen ab 0, anders als rangeStart/End
+        }
+        break;
+    }
+    return selected;
   }
 
   private void doPrint(final XPrintModel pmod)
@@ -262,19 +360,35 @@ public class MailMergeControllerImpl implements MailMergeController
       @Override
       public void run()
       {
-        long startTime = System.currentTimeMillis();
-
-        documentController.clearFormFields();
-        documentController.setFormFieldsPreviewMode(true);
-        pmod.printWithProps();
-        documentController.setFormFieldsPreviewMode(false);
-
-        long duration = (System.currentTimeMillis() - startTime) / 1000;
-        LOGGER.debug(L.m("MailMerge finished after %1 seconds", duration));
+        print(pmod);
       }
     }.start();
   }
 
+  private void print(XPrintModel pmod)
+  {
+    long startTime = System.currentTimeMillis();
+    GarbageCollection.Statistics startStatistics = GarbageCollection.getStatistics();
+
+    documentController.clearFormFields();
+    documentController.setFormFieldsPreviewMode(true);
+    try
+    {
+      pmod.printWithProps();
+    }
+    finally
+    {
+      PrintIntoFile.finish(pmod);
+      finishEMailQueue(pmod);
+    }
+    documentController.setFormFieldsPreviewMode(false);
+    GarbageCollection.afterJob();
+
+    long duration = (System.currentTimeMillis() - startTime) / 1000;
+    LOGGER.debug(L.m("MailMerge finished after %1 seconds", duration));
+    LOGGER.debug(GarbageCollection.getStatistics().since(startStatistics));
+  }
+
   /**
    * Nimmt filePattern, ersetzt darin befindliche Tags durch entsprechende
    * Spaltenwerte aus ds und setzt daraus einen Dateipfad mit Elternverzeichnis
@@ -295,6 +409,34 @@ public class MailMergeControllerImpl implements MailMergeController
    */
   static String createOutputPathFromPattern(TextComponentTags filePattern,
       XPrintModel pmod)
+  {
+    return createOutputPathFromPattern(filePattern, getDatasetExport(pmod),
+      getDatasetNumberDigits(pmod));
+  }
+
+  /**
+   * Wie {@link #createOutputPathFromPattern(TextComponentTags, XPrintModel)}, aber
+   * mit den Werten datasetValues des aktuellen Datensatzes und der Länge digits,
+   * auf die #DS und #SB mit 0ern aufgefüllt werden.
+   */
+  static String createOutputPathFromPattern(TextComponentTags filePattern,
+      Map<String, String> datasetValues, int digits)
+  {
+    HashMap<String, String> dataset = new HashMap<>(datasetValues);
+
+    // Zähler für #DS und #SB mit gleicher Länge erzeugen (ggf. mit 0en auffüllen)
+    MailMergeNew.fillWithLeading0(dataset, MailMergeParams.TAG_DATENSATZNUMMER, digits);
+    MailMergeNew.fillWithLeading0(dataset, MailMergeParams.TAG_SERIENBRIEFNUMMER, digits);
+
+    String fileName = filePattern.getContent(dataset);
+    return MailMergeNew.simplifyFilename(fileName);
+  }
+
+  /**
+   * Liefert die Anzahl der Stellen der Gesamtzahl aller Datensätze in pmod, auf die
+   * #DS und #SB in Dateinamen aufgefüllt werden.
+   */
+  static int getDatasetNumberDigits(XPrintModel pmod)
   {
     int digits = 4;
     try
@@ -304,18 +446,17 @@ public class MailMergeControllerImpl implements MailMergeController
     }
     catch (Exception e)
     {}
+    return digits;
+  }
 
-    @SuppressWarnings("unchecked")
-    HashMap<String, String> dataset =
-      new HashMap<>((HashMap<String, String>) pmod.getProp(PROP_DATASET_EXPORT,
-        new HashMap<String, String>()));
-
-    // Zähler für #DS und #SB mit gleicher Länge erzeugen (ggf. mit 0en auffüllen)
-    MailMergeNew.fillWithLeading0(dataset, MailMergeParams.TAG_DATENSATZNUMMER, digits);
-    MailMergeNew.fillWithLeading0(dataset, MailMergeParams.TAG_SERIENBRIEFNUMMER, digits);
-
-    String fileName = filePattern.getContent(dataset);
-    return MailMergeNew.simplifyFilename(fileName);
+  /**
+   * Liefert eine Kopie der Werte des aktuellen Datensatzes in pmod.
+   */
+  @SuppressWarnings("unchecked")
+  private static HashMap<String, String> getDatasetExport(XPrintModel pmod)
+  {
+    return new HashMap<>((HashMap<String, String>) pmod.getProp(
+      PROP_DATASET_EXPORT, new HashMap<String, String>()));
   }
 
   /**
@@ -325,6 +466,53 @@ public class MailMergeControllerImpl implements MailMergeController
    * @author Ignaz Forster (D-III-ITD-D102)
    */
   public static void sendAsEmail(XPrintModel pmod, boolean isODT)
+  {
+    if (!prepareEMail(pmod))
+      return;
+
+    HashMap<String, String> ds = getDatasetExport(pmod);
+    String to = getEMailRecipient(pmod, ds);
+    if (to == null)
+      return;
+
+    File attachmentDir;
+    try
+    {
+      attachmentDir = createAttachmentDir(getOutputDir(pmod));
+    }
+    catch (IOException e)
+    {
+      LOGGER.error("", e);
+      ModalDialogs.showInfoModal(MAIL_ERROR_MESSAGE_TITLE, L.m(
+        "Das temporäre Verzeichnis %1 konnte nicht angelegt werden.",
+        TEMP_MAIL_DIR_PREFIX));
+      pmod.cancel();
+      return;
+    }
+    sendAsEmail(pmod, ds, to, saveToFile(pmod.getTextDocument(), ds,
+      attachmentDir, (TextComponentTags) pmod.getProp(PROP_FILEPATTERN, null),
+      getDatasetNumberDigits(pmod), isODT));
+  }
+
+  /**
+   * Legt in outputDir ein neues Verzeichnis für den Anhang einer einzelnen E-Mail
+   * an. Der Anhang behält so seinen Namen aus dem Dateinamensmuster, wird aber
+   * nicht vom Anhang eines späteren Datensatzes mit gleichem Namen überschrieben,
+   * solange die E-Mail noch in der {@link EMailSendQueue} wartet.
+   *
+   * @see EMailSendQueue#deleteAttachment(File)
+   */
+  static File createAttachmentDir(File outputDir) throws IOException
+  {
+    return Files.createTempDirectory(outputDir.toPath(), TEMP_MAIL_DIR_PREFIX).toFile();
+  }
+
+  /**
+   * Legt bei Bedarf das temporäre Verzeichnis für die Anhänge an und prüft die
+   * Absenderadresse. Liefert false, wenn der Seriendruck pmod deshalb
+   * abgebrochen wurde.
+   */
+  static boolean prepareEMail(XPrintModel pmod)
   {
     String targetDir = (String) pmod.getProp(PROP_TARGETDIR, null);
     File tmpOutDir = null;
@@ -355,7 +543,7 @@ public class MailMergeControllerImpl implements MailMergeController
         "Das temporäre Verzeichnis %1 konnte nicht angelegt werden.",
         TEMP_MAIL_DIR_PREFIX));
       pmod.cancel();
-      return;
+      return false;
     }
 
     String from = pmod.getProp(PROP_EMAIL_FROM, "").toString();
@@ -364,16 +552,26 @@ public class MailMergeControllerImpl implements MailMergeController
       ModalDialogs.showInfoModal(MAIL_ERROR_MESSAGE_TITLE, L.m(
         "Die Absenderadresse '%1' ist ungültig.", from));
       pmod.cancel();
-      return;
+      return false;
     }
+    return true;
+  }
 
+  /**
+   * Liefert die Empfängeradresse aus dem Datensatz ds. Ist sie ungültig, so wird
+   * der Benutzer gefragt, ob der Datensatz übersprungen oder der Seriendruck pmod
+   * abgebrochen werden soll, und null zurückgeliefert.
+   */
+  static String getEMailRecipient(XPrintModel pmod, HashMap<String, String> ds)
+  {
     String fieldName = pmod.getProp(PROP_EMAIL_TO_FIELD_NAME, "").toString();
-    @SuppressWarnings("unchecked")
-    HashMap<String, String> ds =
-      new HashMap<>((HashMap<String, String>) pmod.getProp(
-        PROP_DATASET_EXPORT, new HashMap<String, String>()));
     String to = ds.get(fieldName);
     PrintModels.setStage(pmod, L.m("Sende an %1", to));
+    if (!MailMergeNew.isMailAddress(to) && GraphicsEnvironment.isHeadless())
+    {
+      LOGGER.warn(L.m("Die Empfängeradresse '%1' ist ungültig! Datensatz wird übersprungen.", to));
+      return null;
+    }
     if (!MailMergeNew.isMailAddress(to))
     {
       int res =
@@ -384,9 +582,21 @@ public class MailMergeControllerImpl implements MailMergeController
             to), MAIL_ERROR_MESSAGE_TITLE, JOptionPane.OK_CANCEL_OPTION);
       if (res == JOptionPane.CANCEL_OPTION)
         pmod.cancel();
-      return;
+      return null;
     }
+    return to;
+  }
 
+  /**
+   * Stellt die E-Mail an to mit dem Anhang attachment und Betreff und Text aus
+   * pmod bzw. ds in die Warteschlange des Seriendrucks pmod. Der Anhang muss in
+   * einem eigenen Verzeichnis liegen (siehe {@link #createAttachmentDir(File)})
+   * und wird nach dem Versand bzw. im Fehlerfall samt Verzeichnis gelöscht.
+   */
+  static void sendAsEmail(XPrintModel pmod, HashMap<String, String> ds, String to,
+      File attachment)
+  {
+    String from = pmod.getProp(PROP_EMAIL_FROM, "").toString();
     String subject =
       pmod.getProp(PROP_EMAIL_SUBJECT, L.m("<kein Betreff>")).toString();
 
@@ -396,14 +606,20 @@ public class MailMergeControllerImpl implements MailMergeController
     if (messageTags != null)
       message = messageTags.getContent(ds);
 
-    File attachment = null;
     try
     {
-      attachment = saveToFile(pmod, isODT);
       EMailSender mail = new EMailSender();
       mail.createNewMultipartMail(from, to, subject, message);
       mail.addAttachment(attachment);
-      mail.sendMessage();
+      EMailSendQueue queue = (EMailSendQueue) pmod.getProp(PROP_EMAIL_QUEUE, null);
+      if (queue == null)
+      {
+        queue = new EMailSendQueue(mail.openConnection());
+        pmod.setPropertyValue(PROP_EMAIL_QUEUE, queue);
+      }
+      // Die Warteschlange übernimmt den Anhang und löscht ihn nach dem Versand.
+      queue.enqueue(mail, to, attachment);
+      attachment = null;
     }
     catch (ConfigurationErrorException e)
     {
@@ -430,11 +646,71 @@ public class MailMergeControllerImpl implements MailMergeController
     }
     finally
     {
-      if (attachment != null)
-        attachment.delete();
+      EMailSendQueue.deleteAttachment(attachment);
     }
   }
 
+  /**
+   * Wartet, bis die von {@link #sendAsEmail(XPrintModel, boolean)} für den
+   * Seriendruck pmod angelegte Warteschlange alle E-Mails verschickt hat, schließt
+   * die Verbindung zum Mailserver und meldet die E-Mails, die nicht verschickt
+   * werden konnten, gesammelt in einem Dialog. Wurde der Versand wegen einer
+   * gescheiterten Anmeldung oder Verbindung abgebrochen, so wird auch pmod
+   * abgebrochen.
+   */
+  private static void finishEMailQueue(XPrintModel pmod)
+  {
+    EMailSendQueue queue = (EMailSendQueue) pmod.getProp(PROP_EMAIL_QUEUE, null);
+    if (queue == null)
+      return;
+    try
+    {
+      pmod.setPropertyValue(PROP_EMAIL_QUEUE, null);
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("darf nicht vorkommen"), e);
+    }
+
+    List<String> failures = queue.finish(pmod.isCanceled());
+    if (queue.getAbortCause() != null)
+    {
+      // wie beim direkten Versand: Anmeldung oder Verbindung gescheitert
+      LOGGER.error(L.m("Der E-Mail-Versand wurde abgebrochen."), queue.getAbortCause());
+      pmod.cancel();
+    }
+    if (failures.isEmpty())
+      return;
+    try
+    {
+      pmod.setPropertyValue(PROP_EMAIL_FAILURES, failures);
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("darf nicht vorkommen"), e);
+    }
+
+    StringBuilder buf = new StringBuilder();
+    for (String failure : failures.subList(0,
+      Math.min(failures.size(), MAX_REPORTED_MAIL_FAILURES)))
+      buf.append("\n").append(failure);
+    if (failures.size() > MAX_REPORTED_MAIL_FAILURES)
+      buf.append("\n...");
+    ModalDialogs.showInfoModal(MAIL_ERROR_MESSAGE_TITLE, L.m(
+      "%1 E-Mail(s) konnten nicht verschickt werden:%2", failures.size(), buf));
+  }
+
+  /**
+   * Liefert die Meldungen zu den E-Mails, die im abgeschlossenen Seriendruck pmod
+   * nicht verschickt werden konnten.
+   */
+  @SuppressWarnings("unchecked")
+  public static List<String> getEMailFailures(XPrintModel pmod)
+  {
+    return (List<String>) pmod.getProp(PROP_EMAIL_FAILURES,
+      Collections.<String> emptyList());
+  }
+
   /**
    * Speichert das übergebene Dokument in eine ODF-Datei. Die WollMux-Daten bleiben
    * dabei erhalten.
@@ -444,17 +720,42 @@ public class MailMergeControllerImpl implements MailMergeController
    */
   public static File saveToFile(XPrintModel pmod, boolean isODT)
   {
-    XTextDocument textDocument = pmod.getTextDocument();
+    return saveToFile(pmod.getTextDocument(), getDatasetExport(pmod),
+      getOutputDir(pmod), (TextComponentTags) pmod.getProp(PROP_FILEPATTERN, null),
+      getDatasetNumberDigits(pmod), isODT);
+  }
 
-    File outputDir =
-      new File(pmod.getProp(PROP_TARGETDIR,
-        System.getProperty("user.home") + "/Seriendruck").toString());
+  /**
+   * Speichert textDocument mit den Werten dataset des aktuellen Datensatzes im
+   * Verzeichnis outputDir unter dem Namen aus filePattern (darf null sein) und
+   * liefert die Datei zurück. Liest nichts aus dem XPrintModel und kann daher
+   * auch aus anderen Threads aufgerufen werden.
+   *
+   * @see #createOutputPathFromPattern(TextComponentTags, Map, int)
+   */
+  static File saveToFile(XTextDocument textDocument,
+      Map<String, String> dataset, File outputDir,
+      TextComponentTags filePattern, int digits, boolean isODT)
+  {
+    File file = new File(outputDir,
+      getOutputFileName(dataset, filePattern, digits, isODT));
+
+    MailMergeNew.saveOutputFile(file, textDocument);
+
+    return file;
+  }
 
+  /**
+   * Liefert den Dateinamen, unter dem das Dokument zum Datensatz dataset nach dem
+   * Muster filePattern (darf null sein) gespeichert wird, inklusive der Endung
+   * .odt bzw. .pdf.
+   */
+  static String getOutputFileName(Map<String, String> dataset,
+      TextComponentTags filePattern, int digits, boolean isODT)
+  {
     String filename;
-    TextComponentTags filePattern =
-      (TextComponentTags) pmod.getProp(PROP_FILEPATTERN, null);
     if (filePattern != null)
-      filename = MailMergeControllerImpl.createOutputPathFromPattern(filePattern, pmod);
+      filename = createOutputPathFromPattern(filePattern, dataset, digits);
     else
       filename = L.m("Dokument.odt");
 
@@ -467,12 +768,16 @@ public class MailMergeControllerImpl implements MailMergeController
       else
         filename = filename + ".pdf";
     }
+    return filename;
+  }
 
-    File file = new File(outputDir, filename);
-
-    MailMergeNew.saveOutputFile(file, textDocument);
-
-    return file;
+  /**
+   * Liefert das Zielverzeichnis für die Einzeldokumente des Seriendrucks pmod.
+   */
+  static File getOutputDir(XPrintModel pmod)
+  {
+    return new File(pmod.getProp(PROP_TARGETDIR,
+      System.getProperty("user.home") + "/Seriendruck").toString());
   }
 
   /**
@@ -538,62 +843,96 @@ public class MailMergeControllerImpl implements MailMergeController
     if (selection.isEmpty())
       return;
 
-    Iterator<Dataset> iter = data.iterator();
-    Iterator<Integer> selIter = selection.iterator();
-    int selectedIdx = selIter.next();
+    SelectedDatasets datasets = new SelectedDatasets(data, schema, selection);
+
+    ParallelSingleFileExport.Output parallelOutput =
+      (ParallelSingleFileExport.Output) pmod.getProp(PROP_PARALLEL_OUTPUT, null);
+    if (simProc == null && parallelOutput != null)
+    {
+      if (parallelOutput.isEMail() && !prepareEMail(pmod))
+        return;
+      new ParallelSingleFileExport(pmod, parallelOutput, getOutputDir(pmod),
+        (TextComponentTags) pmod.getProp(PROP_FILEPATTERN, null),
+        getDatasetNumberDigits(pmod)).run(datasets, selection.size());
+      return;
+    }
 
     pmod.setPrintProgressMaxValue((short) selection.size());
 
-    int index = -1;
+    // Ergebnisse der TRAFOs über alle Datensätze wiederverwenden, falls
+    // konfiguriert.
+    TrafoCache trafoCache = documentController.startJobTrafoCache();
+    try
+    {
+      setFormValues(pmod, simProc, documentController, datasets);
+    }
+    finally
+    {
+      if (trafoCache != null)
+      {
+        documentController.stopJobTrafoCache();
+        LOGGER.debug(trafoCache.getStatistics());
+      }
+    }
+  }
+
+  /**
+   * Setzt nacheinander die Werte aller Datensätze aus datasets im Dokument von
+   * documentController und druckt bzw. simuliert sie wie in
+   * {@link #mailMergeNewSetFormValue(XPrintModel, SimulationResultsProcessor)}
+   * beschrieben.
+   */
+  private static void setFormValues(XPrintModel pmod,
+      SimulationResultsProcessor simProc, TextDocumentController documentController,
+      SelectedDatasets datasets) throws Exception
+  {
+    // Die Inhalte der Formularfelder nur einmal auslesen, wenn simProc mit den
+    // Änderungen pro Datensatz auskommt. Ohne Formularbeschreibung lassen sich die
+    // Datensätze dann sogar ganz ohne das Dokument simulieren.
+    SimulationBaseline baseline = null;
+    if (simProc instanceof SimulationBaseline.Processor)
+    {
+      OfflineSimulation offline = documentController.createOfflineSimulation();
+      if (offline != null)
+      {
+        new ParallelSimulation(pmod, offline, (SimulationBaseline.Processor) simProc)
+            .run(datasets);
+        return;
+      }
+      baseline = documentController.createSimulationBaseline();
+    }
+
     int serienbriefNummer = 1;
-    while (iter.hasNext() && selectedIdx >= 0)
+    while (datasets.hasNext())
     {
       if (pmod.isCanceled())
         return;
 
-      Dataset ds = iter.next();
-      if (++index < selectedIdx)
-        continue;
-
-      int datensatzNummer = index + 1; // same as datensatzNummer = selectedIdx+1;
-
-      if (selIter.hasNext())
-        selectedIdx = selIter.next();
-      else
-        selectedIdx = -1;
-
-      if (simProc != null)
+      if (baseline != null)
+        documentController.startSimulation(baseline);
+      else if (simProc != null)
         documentController.startSimulation();
 
-      HashMap<String, String> dataSetExport = new HashMap<>();
+      // Alle Werte des Datensatzes gemeinsam setzen, damit abhängige Felder und
+      // Sichtbarkeiten nur einmal pro Datensatz aktualisiert werden.
+      Map<String, String> formValues = datasets.next();
+      HashMap<String, String> dataSetExport = new HashMap<>(formValues);
       try
       {
         pmod.setPropertyValue(PROP_DATASET_EXPORT, dataSetExport);
       }
       catch (Exception x)
       {}
-
-      for(String spalte : schema)
-      {
-        String value = ds.get(spalte);
-        // Wert zuerst entsetzen um sicher eine Änderung hervorzurufen.
-        // Denn ansonsten werden die Sichtbarkeiten nicht richtig aktualisiert.
-        pmod.setFormValue(spalte, "");
-        pmod.setFormValue(spalte, value);
-        dataSetExport.put(spalte, value);
-      }
-      pmod.setFormValue(MailMergeParams.TAG_DATENSATZNUMMER, "" + datensatzNummer);
-      dataSetExport.put(MailMergeParams.TAG_DATENSATZNUMMER, "" + datensatzNummer);
-      pmod.setFormValue(MailMergeParams.TAG_SERIENBRIEFNUMMER, ""
-        + serienbriefNummer);
-      dataSetExport.put(MailMergeParams.TAG_SERIENBRIEFNUMMER, ""
-        + serienbriefNummer);
+      PrintModels.setFormValues(pmod, formValues);
 
       // Weiterreichen des Drucks an die nächste Druckfunktion. Dies findet nicht
       // statt, wenn simProc != null ist, da die Verarbeitung in diesem Fall über
       // simProc durchgeführt wird.
       if (simProc == null)
         pmod.printWithProps();
+      else if (baseline != null)
+        ((SimulationBaseline.Processor) simProc)
+            .processSimulationResults(documentController.stopSimulation(), baseline);
       else
         simProc.processSimulationResults(documentController.stopSimulation());
 
@@ -40,7 +40,6 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +61,7 @@ import org.slf4j.LoggerFactory;
 
 import com.sun.star.awt.XTopWindow;
 import com.sun.star.beans.XPropertySet;
+import com.sun.star.container.XIndexAccess;
 import com.sun.star.container.XNameAccess;
 import com.sun.star.document.XEventListener;
 import com.sun.star.frame.XFrame;
@@ -74,22 +74,27 @@ import com.sun.star.sdbc.XConnection;
 import com.sun.star.sdbc.XDataSource;
 import com.sun.star.sdbc.XRow;
 import com.sun.star.sdbc.XRowSet;
+import com.sun.star.sheet.XCellFormatRangesSupplier;
+import com.sun.star.sheet.XCellRangeAddressable;
+import com.sun.star.sheet.XCellRangeData;
 import com.sun.star.sheet.XCellRangesQuery;
 import com.sun.star.sheet.XSheetCellRanges;
 import com.sun.star.sheet.XSpreadsheetDocument;
 import com.sun.star.sheet.XSpreadsheets;
 import com.sun.star.table.CellRangeAddress;
 import com.sun.star.table.XCellRange;
+import com.sun.star.text.XTextRange;
 import com.sun.star.ui.dialogs.XFilePicker;
+import com.sun.star.uno.AnyConverter;
 import com.sun.star.uno.UnoRuntime;
 import com.sun.star.util.CloseVetoException;
 import com.sun.star.util.XCloseListener;
 import com.sun.star.util.XModifiable;
+import com.sun.star.util.XNumberFormatsSupplier;
+import com.sun.star.util.XNumberFormatter;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoCollection;
-import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
-import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
 import de.muenchen.allg.itd51.wollmux.core.db.Datasource;
 import de.muenchen.allg.itd51.wollmux.core.db.OOoDatasource;
 import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
@@ -100,6 +105,7 @@ import de.muenchen.allg.itd51.wollmux.core.exceptions.UnavailableException;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
 import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.db.ColumnarQueryResults;
 import de.muenchen.mailmerge.document.TextDocumentController;
 
 /**
@@ -146,6 +152,19 @@ public class MailMergeDatasource
    */
   private static final long MAILMERGE_LOGIN_TIMEOUT = 5000;
 
+  /**
+   * Nach dieser Zeit in ms wird der Zwischenspeicher mit den Datensätzen einer
+   * OOo-Datenquelle neu eingelesen, damit zwischenzeitliche Änderungen in der
+   * Datenbank sichtbar werden.
+   */
+  private static final long MAILMERGE_DB_CACHE_MAX_AGE = 60000;
+
+  /**
+   * Maximale Anzahl an Zeilen, die beim Auslesen einer Calc-Tabelle mit einem
+   * einzigen UNO-Aufruf gelesen werden.
+   */
+  private static final int CALC_BULK_READ_ROWS = 5000;
+
   /**
    * Ein String der möglichst nie in einem vom Benutzer eingegebenen Felder-Anpassen
    * Feld auftauchen sollte. Wird als Platzhalter für das Einfügen der Zeilennummer
@@ -191,6 +210,25 @@ public class MailMergeDatasource
    */
   private Datasource oooDatasource = null;
 
+  /**
+   * Falls {@link #sourceType} == {@link #SOURCE_DB}, so enthält dieses Objekt die
+   * zuletzt aus {@link #dbRowsSource} gelesenen Datensätze, ansonsten null. Der
+   * Zwischenspeicher wird von {@link #getDbRows(Datasource)} befüllt und verworfen,
+   * sobald sich Datenquelle oder Tabelle ändern oder er älter als
+   * {@link #MAILMERGE_DB_CACHE_MAX_AGE} ist.
+   */
+  private ColumnarQueryResults dbRows = null;
+
+  /**
+   * Die {@link Datasource}, aus der {@link #dbRows} gelesen wurde.
+   */
+  private Datasource dbRowsSource = null;
+
+  /**
+   * Zeitpunkt, zu dem {@link #dbRows} gelesen wurde.
+   */
+  private long dbRowsTime = 0;
+
   /**
    * Speichert den Namen der Tabelle bzw, des Tabellenblattes, die als Quelle der
    * Serienbriefdaten ausgewählt wurde. Ist niemals null, kann aber der leere String
@@ -575,6 +613,57 @@ public class MailMergeDatasource
   public void dispose()
   {
     removeListeners(calcDoc);
+    invalidateDbRows();
+  }
+
+  /**
+   * Wählt ohne Dialog das Tabellendokument newCalcDoc mit dem Tabellenblatt table
+   * als Datenquelle aus. Ist table null, so wird wie bei der Auswahl über den
+   * Dialog das erste nicht-leere Tabellenblatt verwendet.
+   *
+   * @return true, wenn die Datenquelle ausgewählt werden konnte.
+   */
+  public boolean setCalcDatasource(XSpreadsheetDocument newCalcDoc, String table)
+  {
+    getCalcDoc(newCalcDoc);
+    if (sourceType != SOURCE_CALC || calcDoc != newCalcDoc)
+      return false;
+    return selectTableByName(table);
+  }
+
+  /**
+   * Wählt ohne Dialog die registrierte Datenquelle name mit der Tabelle oder
+   * Abfrage table als Datenquelle aus. Ist table null, so wird die erste Tabelle
+   * verwendet.
+   *
+   * @return true, wenn die Datenquelle ausgewählt werden konnte.
+   */
+  public boolean setOOoDatasource(String name, String table)
+  {
+    getOOoDatasource(name);
+    if (sourceType != SOURCE_DB || !name.equals(oooDatasourceName))
+      return false;
+    return selectTableByName(table);
+  }
+
+  /**
+   * Setzt die Tabelle table der aktuellen Datenquelle oder, falls table null ist,
+   * deren erste Tabelle.
+   *
+   * @return false, wenn es die Tabelle nicht gibt.
+   */
+  private boolean selectTableByName(String table)
+  {
+    List<String> names = getTableNames();
+    if (table == null && !names.isEmpty())
+      table = names.get(0);
+    if (table == null || !names.contains(table))
+    {
+      LOGGER.error(L.m("Tabelle '%1' ist in der Datenquelle nicht vorhanden", table));
+      return false;
+    }
+    setTable(table);
+    return true;
   }
 
   /**
@@ -707,6 +796,16 @@ public class MailMergeDatasource
     if (sourceType != SOURCE_DB)
       return 0;
 
+    try
+    {
+      return getDbRows(getOOoDatasource()).size();
+    }
+    catch (Exception x)
+    {
+      LOGGER.debug(L.m("Kann Datensätze der Datenquelle \"%1\" nicht zwischenspeichern. Zähle über SQL.",
+        oooDatasourceName), x);
+    }
+
     XRowSet results = null;
     XConnection conn = null;
     try
@@ -867,13 +966,11 @@ public class MailMergeDatasource
          * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte als
          * Tabellenspaltennamen interpretieren.
          */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
+        SortedSet<Integer> firstRow = new TreeSet<>();
+        firstRow.add(rowIndexes.first());
+        for (String columnName : getCellStrings(sheetCellRange,
+          new CellFormatter(calcDoc), columnIndexes, firstRow)[0])
         {
-          int x = iter.next().intValue();
-          String columnName =
-            UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
           if (columnName.length() > 0)
           {
             columnNames.add(columnName);
@@ -904,46 +1001,22 @@ public class MailMergeDatasource
    */
   private List<String> getDbValuesForDataset(Datasource oooDatasource, int rowIndex)
   {
-    /*
-     * Die folgende Implementierung ist nicht schön. Sie hat die folgenden Probleme
-     *
-     * o Liest jedes Mal erneut die ganze Tabelle aus => langsam, übermäßige Garbage
-     * Produktion
-     *
-     * o Kann kein Ergebnis zurückliefern, wenn das Auslesen der gesamten Tabelle
-     * nicht innerhalb des Timeouts möglich ist => Vorschau broken bei langsamen
-     * Datenquellen
-     *
-     * Der große Vorteil dieser Implementierung ist ihre Einfachheit.
-     */
-
     List<String> list = getDbColumnNames(oooDatasource);
     try
     {
       if (rowIndex < 1)
         throw new IllegalArgumentException(L.m("Illegale Datensatznummer: %1",
           rowIndex));
-      QueryResults res = oooDatasource.getContents(MAILMERGE_GETCONTENTS_TIMEOUT);
-      for (Dataset ds : res)
+      ColumnarQueryResults rows = getDbRows(oooDatasource);
+      if (rowIndex <= rows.size())
       {
-        if (--rowIndex == 0)
+        // Avoid needless obj creation by overwriting col names with return values
+        for (int i = 0; i < list.size(); ++i)
         {
-          // Avoid needless obj creation by overwriting col names with return values
-          for (int i = 0; i < list.size(); ++i)
-          {
-            String str;
-            try
-            {
-              str = ds.get(list.get(i));
-            }
-            catch (ColumnNotFoundException x)
-            {
-              str = "";
-            }
-            list.set(i, str);
-          }
-          return list;
+          int column = rows.getColumnHandle(list.get(i));
+          list.set(i, column < 0 ? "" : rows.get(rowIndex - 1, column));
         }
+        return list;
       }
 
       // Avoid needless object creation by overwriting col names with return values
@@ -958,6 +1031,43 @@ public class MailMergeDatasource
     }
   }
 
+  /**
+   * Liefert die Datensätze der Tabelle aus oooDatasource aus dem Zwischenspeicher
+   * {@link #dbRows} zurück und liest sie dafür bei Bedarf (beim ersten Zugriff,
+   * nach einem Wechsel von Datenquelle oder Tabelle oder wenn der Zwischenspeicher
+   * älter als {@link #MAILMERGE_DB_CACHE_MAX_AGE} ist) einmal komplett aus. Damit
+   * muss beim Blättern in der Vorschau nicht jedes Mal die ganze Tabelle gelesen
+   * werden. Die Datensätze werden spaltenweise in {@link ColumnarQueryResults}
+   * abgelegt.
+   *
+   * @throws Exception
+   *           falls die Daten nicht innerhalb von
+   *           {@link #MAILMERGE_GETCONTENTS_TIMEOUT} gelesen werden können.
+   */
+  private synchronized ColumnarQueryResults getDbRows(Datasource oooDatasource)
+      throws Exception
+  {
+    if (dbRows == null || dbRowsSource != oooDatasource
+      || System.currentTimeMillis() - dbRowsTime > MAILMERGE_DB_CACHE_MAX_AGE)
+    {
+      invalidateDbRows();
+      QueryResults res = oooDatasource.getContents(MAILMERGE_GETCONTENTS_TIMEOUT);
+      dbRows = ColumnarQueryResults.copyOf(res, oooDatasource.getSchema());
+      dbRowsSource = oooDatasource;
+      dbRowsTime = System.currentTimeMillis();
+    }
+    return dbRows;
+  }
+
+  /**
+   * Verwirft den Zwischenspeicher {@link #dbRows}.
+   */
+  private synchronized void invalidateDbRows()
+  {
+    dbRows = null;
+    dbRowsSource = null;
+  }
+
   /**
    * Liefert die sichtbaren Inhalte (als Strings) der Zellen aus der rowIndex-ten
    * sichtbaren nicht-leeren Zeile (wobei die erste solche Zeile, diejenige die die
@@ -1013,21 +1123,20 @@ public class MailMergeDatasource
          * Tabellenspaltenname identifiziert, so lies den zugehörigen Wert aus der
          * rowIndex-ten Zeile aus.
          */
-        int ymin = rowIndexes.first().intValue();
-        Iterator<Integer> iter = columnIndexes.iterator();
-        while (iter.hasNext())
+        SortedSet<Integer> rows = new TreeSet<>();
+        rows.add(rowIndexes.first());
+        if (yTargetRow >= 0)
+          rows.add(yTargetRow);
+        String[][] cells = getCellStrings(sheetCellRange, new CellFormatter(calcDoc),
+          columnIndexes, rows);
+        String[] columnNames = cells[0];
+        String[] targetRow = cells[cells.length - 1];
+        for (int i = 0; i < columnNames.length; ++i)
         {
-          int x = iter.next().intValue();
-          String columnName =
-            UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
-          if (columnName.length() > 0)
+          if (columnNames[i].length() > 0)
           {
             if (yTargetRow >= 0)
-            {
-              String columnValue =
-                UNO.XTextRange(sheetCellRange.getCellByPosition(x, yTargetRow)).getString();
-              columnValues.add(columnValue);
-            }
+              columnValues.add(targetRow[i]);
             else
               columnValues.add("");
           }
@@ -1052,9 +1161,7 @@ public class MailMergeDatasource
   private QueryResultsWithSchema getDbData(Datasource oooDatasource)
       throws Exception
   {
-    Set<String> schema = oooDatasource.getSchema();
-    QueryResults res = oooDatasource.getContents(MAILMERGE_GETCONTENTS_TIMEOUT);
-    return new QueryResultsWithSchema(res, schema);
+    return getDbRows(oooDatasource);
   }
 
   /**
@@ -1066,9 +1173,7 @@ public class MailMergeDatasource
   private QueryResultsWithSchema getData(XSpreadsheetDocument calcDoc,
       String tableName)
   {
-    Set<String> schema = new HashSet<>();
-    QueryResults res = getVisibleCalcData(calcDoc, tableName, schema);
-    return new QueryResultsWithSchema(res, schema);
+    return getVisibleCalcData(calcDoc, tableName);
   }
 
   /**
@@ -1393,6 +1498,7 @@ public class MailMergeDatasource
     else
       tableName = name;
     oooDatasource = null;
+    invalidateDbRows();
     storeDatasourceSettings();
   }
 
@@ -1646,6 +1752,7 @@ public class MailMergeDatasource
     sourceType = SOURCE_CALC;
     oooDatasourceName = null;
     oooDatasource = null;
+    invalidateDbRows();
     removeListeners(calcDoc); // falls altes calcDoc vorhanden, dort
     // deregistrieren.
     calcDoc = newCalcDoc;
@@ -1719,6 +1826,7 @@ public class MailMergeDatasource
 
     oooDatasourceName = newDsName;
     oooDatasource = null;
+    invalidateDbRows();
     storeDatasourceSettings();
   }
 
@@ -2063,14 +2171,14 @@ public class MailMergeDatasource
   /**
    * Liefert die sichtbaren Zellen des Arbeitsblattes mit Namen sheetName aus dem
    * Calc Dokument doc. Die erste sichtbare Zeile der Calc-Tabelle wird herangezogen
-   * als Spaltennamen. Diese Spaltennamen werden zu schema hinzugefügt.
+   * als Spaltennamen und bildet das Schema der gelieferten QueryResults.
    *
    * @author Matthias Benkmann (D-III-ITD 5.1) TESTED
    */
-  private static QueryResults getVisibleCalcData(XSpreadsheetDocument doc,
-      String sheetName, Set<String> schema)
+  private static ColumnarQueryResults getVisibleCalcData(XSpreadsheetDocument doc,
+      String sheetName)
   {
-    MailMergeDatasource.CalcCellQueryResults results = new CalcCellQueryResults();
+    ColumnarQueryResults results = null;
 
     try
     {
@@ -2090,55 +2198,41 @@ public class MailMergeDatasource
 
             /*
              * Erste sichtbare Zeile durchscannen und alle nicht-leeren Zelleninhalte
-             * als Tabellenspaltennamen interpretieren. Ein Mapping in
-             * mapColumnNameToIndex wird erzeugt, wobei NICHT auf den Index in der
-             * Calc-Tabelle gemappt wird, sondern auf den Index im später für jeden
-             * Datensatz existierenden String[]-Array.
+             * als Tabellenspaltennamen interpretieren. Die Reihenfolge der
+             * Spaltennamen entspricht der Reihenfolge der Werte in den später für
+             * jeden Datensatz gelesenen String[]-Arrays.
              */
             int ymin = rowIndexes.first().intValue();
-            Map<String, Integer> mapColumnNameToIndex =
-              new HashMap<>();
-            int idx = 0;
+            SortedSet<Integer> firstRow = new TreeSet<>();
+            firstRow.add(ymin);
+            CellFormatter cellFormatter = new CellFormatter(doc);
+            String[] columnNames =
+              getCellStrings(sheetCellRange, cellFormatter, columnIndexes, firstRow)[0];
+            List<String> schema = new ArrayList<>();
+            int pos = 0;
             Iterator<Integer> iter = columnIndexes.iterator();
             while (iter.hasNext())
             {
-              int x = iter.next().intValue();
-              String columnName =
-                UNO.XTextRange(sheetCellRange.getCellByPosition(x, ymin)).getString();
+              iter.next();
+              String columnName = columnNames[pos++];
               if (columnName.length() > 0)
-              {
-                mapColumnNameToIndex.put(columnName, Integer.valueOf(idx));
                 schema.add(columnName);
-                ++idx;
-              }
               else
                 iter.remove(); // Spalten mit leerem Spaltennamen werden nicht
               // benötigt.
             }
 
-            results.setColumnNameToIndexMap(mapColumnNameToIndex);
+            results = new ColumnarQueryResults(schema);
 
             /*
-             * Datensätze erzeugen
+             * Datensätze erzeugen; die erste Zeile enthält die Tabellennamen, keinen
+             * Datensatz.
              */
-            Iterator<Integer> rowIndexIter = rowIndexes.iterator();
-            rowIndexIter.next(); // erste Zeile enthält die Tabellennamen, keinen
-            // Datensatz
-            while (rowIndexIter.hasNext())
+            if (!columnIndexes.isEmpty())
             {
-              int y = rowIndexIter.next().intValue();
-              String[] data = new String[columnIndexes.size()];
-              Iterator<Integer> columnIndexIter = columnIndexes.iterator();
-              idx = 0;
-              while (columnIndexIter.hasNext())
-              {
-                int x = columnIndexIter.next().intValue();
-                String value =
-                  UNO.XTextRange(sheetCellRange.getCellByPosition(x, y)).getString();
-                data[idx++] = value;
-              }
-
-              results.addDataset(data);
+              for (String[] data : getCellStrings(sheetCellRange, cellFormatter,
+                columnIndexes, rowIndexes.tailSet(ymin + 1)))
+                results.addRow(data);
             }
           }
         }
@@ -2149,6 +2243,8 @@ public class MailMergeDatasource
       LOGGER.error("", x);
     }
 
+    if (results == null)
+      results = new ColumnarQueryResults(Collections.<String> emptyList());
     return results;
   }
 
@@ -2192,70 +2288,231 @@ public class MailMergeDatasource
     }
   }
 
-  private static class CalcCellQueryResults implements QueryResults
+  /**
+   * Liefert die sichtbaren Inhalte der Zellen aus den Zeilen rowIndexes und den
+   * Spalten columnIndexes von sheetCellRange, wobei result[i][k] der Inhalt der
+   * Zelle aus der i-ten Zeile von rowIndexes und der k-ten Spalte von columnIndexes
+   * ist. Jeder zusammenhängende Block aus Zeilen und Spalten wird (in Stücken zu
+   * höchstens {@link #CALC_BULK_READ_ROWS} Zeilen) mit einem einzigen Aufruf von
+   * {@link XCellRangeData#getDataArray()} gelesen, statt jede Zelle einzeln über die
+   * UNO-Brücke anzufragen. Zahlen und Datumswerte formatiert cellFormatter wie
+   * {@link XTextRange#getString()} der Zelle; nur wenn das nicht möglich ist,
+   * werden sie einzeln über getString() nachgelesen.
+   *
+   * @throws com.sun.star.lang.IndexOutOfBoundsException
+   *           wenn ein Index außerhalb des Tabellenblatts liegt.
+   */
+  private static String[][] getCellStrings(XCellRange sheetCellRange,
+      CellFormatter cellFormatter, SortedSet<Integer> columnIndexes,
+      SortedSet<Integer> rowIndexes)
+      throws com.sun.star.lang.IndexOutOfBoundsException
+  {
+    int[] xs = toIntArray(columnIndexes);
+    int[] ys = toIntArray(rowIndexes);
+    String[][] result = new String[ys.length][xs.length];
+
+    for (int rowStart = 0; rowStart < ys.length;)
+    {
+      int rowEnd = endOfRun(ys, rowStart, CALC_BULK_READ_ROWS);
+      for (int colStart = 0; colStart < xs.length;)
+      {
+        int colEnd = endOfRun(xs, colStart, Integer.MAX_VALUE);
+        XCellRange block =
+          sheetCellRange.getCellRangeByPosition(xs[colStart], ys[rowStart],
+            xs[colEnd], ys[rowEnd]);
+        Object[][] values =
+          UnoRuntime.queryInterface(XCellRangeData.class, block).getDataArray();
+        int[][] formats = null;
+        for (int i = rowStart; i <= rowEnd; ++i)
+        {
+          for (int k = colStart; k <= colEnd; ++k)
+          {
+            Object value = values[i - rowStart][k - colStart];
+            if (value instanceof String)
+            {
+              result[i][k] = (String) value;
+              continue;
+            }
+
+            if (formats == null && value instanceof Double)
+              formats = cellFormatter.getNumberFormats(block, rowEnd - rowStart + 1,
+                colEnd - colStart + 1);
+            String text = null;
+            if (formats != null && value instanceof Double)
+              text = cellFormatter.format(formats[i - rowStart][k - colStart],
+                ((Double) value).doubleValue());
+            if (text == null)
+              text =
+                UNO.XTextRange(sheetCellRange.getCellByPosition(xs[k], ys[i])).getString();
+            result[i][k] = text;
+          }
+        }
+        colStart = colEnd + 1;
+      }
+      rowStart = rowEnd + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Formatiert die Zahlen- und Datumswerte aus {@link XCellRangeData#getDataArray()}
+   * wie {@link XTextRange#getString()} der jeweiligen Zelle, ohne jede Zelle
+   * einzeln anzufragen. Die Zahlenformate eines Blocks werden mit einem Aufruf von
+   * {@link XCellFormatRangesSupplier#getCellFormatRanges()} gelesen. Ganze Zahlen
+   * in einem Format, das sie unverändert darstellt (z.B. "Standard" bei
+   * Postleitzahlen oder Hausnummern), werden lokal formatiert, alle anderen Werte
+   * über einen NumberFormatter des Dokuments, wobei jedes Paar aus Format und Wert
+   * nur einmal angefragt wird.
+   */
+  private static class CellFormatter
   {
     /**
-     * Bildet einen Spaltennamen auf den Index in dem zu dem Datensatz gehörenden
-     * String[]-Array ab.
+     * Größter Betrag, bis zu dem ganze Zahlen lokal formatiert werden.
      */
-    private Map<String, Integer> mapColumnNameToIndex;
+    private static final double MAX_PLAIN_INTEGER = 999999999999.0;
 
-    private List<Dataset> datasets = new ArrayList<>();
+    private final XSpreadsheetDocument doc;
 
-    @Override
-    public int size()
-    {
-      return datasets.size();
-    }
+    private XNumberFormatter formatter;
 
-    @Override
-    public Iterator<Dataset> iterator()
-    {
-      return datasets.iterator();
-    }
+    private boolean initialized = false;
 
-    @Override
-    public boolean isEmpty()
-    {
-      return datasets.isEmpty();
-    }
+    private final Map<Integer, Boolean> plainIntegerFormats = new HashMap<>();
 
-    public void setColumnNameToIndexMap(Map<String, Integer> mapColumnNameToIndex)
+    private final Map<Integer, Map<Double, String>> formatted = new HashMap<>();
+
+    CellFormatter(XSpreadsheetDocument doc)
     {
-      this.mapColumnNameToIndex = mapColumnNameToIndex;
+      this.doc = doc;
     }
 
-    public void addDataset(String[] data)
+    /**
+     * Liefert die Zahlenformate der Zellen von block (formats[y][x] für die Zelle
+     * in Zeile y und Spalte x des Blocks) oder null, wenn sie nicht gelesen werden
+     * können.
+     */
+    int[][] getNumberFormats(XCellRange block, int rows, int columns)
     {
-      datasets.add(new MyDataset(data));
+      if (getFormatter() == null)
+        return null;
+      try
+      {
+        CellRangeAddress blockAddress = UnoRuntime.queryInterface(
+          XCellRangeAddressable.class, block).getRangeAddress();
+        XIndexAccess ranges = UnoRuntime.queryInterface(
+          XCellFormatRangesSupplier.class, block).getCellFormatRanges();
+        int[][] formats = new int[rows][columns];
+        for (int i = 0; i < ranges.getCount(); ++i)
+        {
+          Object range = ranges.getByIndex(i);
+          CellRangeAddress addr = UnoRuntime.queryInterface(
+            XCellRangeAddressable.class, range).getRangeAddress();
+          int format = AnyConverter.toInt(UNO.getProperty(range, "NumberFormat"));
+          for (int y = addr.StartRow; y <= addr.EndRow; ++y)
+            for (int x = addr.StartColumn; x <= addr.EndColumn; ++x)
+              formats[y - blockAddress.StartRow][x - blockAddress.StartColumn] = format;
+        }
+        return formats;
+      }
+      catch (Exception x)
+      {
+        LOGGER.debug("", x);
+        return null;
+      }
     }
 
-    private class MyDataset implements Dataset
+    /**
+     * Liefert value im Zahlenformat format oder null, wenn der Wert nicht
+     * formatiert werden kann.
+     */
+    String format(int format, double value)
     {
-      private String[] data;
-
-      public MyDataset(String[] data)
+      try
       {
-        this.data = data;
+        if (value == Math.rint(value) && Math.abs(value) <= MAX_PLAIN_INTEGER
+          && isPlainIntegerFormat(format))
+          return Long.toString((long) value);
+
+        Map<Double, String> values =
+          formatted.computeIfAbsent(format, f -> new HashMap<>());
+        String text = values.get(value);
+        if (text == null)
+        {
+          text = formatter.convertNumberToString(format, value);
+          values.put(value, text);
+        }
+        return text;
       }
-
-      @Override
-      public String get(String columnName) throws ColumnNotFoundException
+      catch (Exception x)
       {
-        Number idx = mapColumnNameToIndex.get(columnName);
-        if (idx == null)
-          throw new ColumnNotFoundException(L.m("Spalte %1 existiert nicht!",
-            columnName));
-        return data[idx.intValue()];
+        LOGGER.debug("", x);
+        return null;
       }
+    }
 
-      @Override
-      public String getKey()
+    /**
+     * Liefert true, wenn format ganze Zahlen ohne Tausendertrenner, führende Nullen,
+     * Einheiten o.ä. darstellt.
+     */
+    private boolean isPlainIntegerFormat(int format)
+    {
+      Boolean plain = plainIntegerFormats.get(format);
+      if (plain == null)
       {
-        return "key";
+        plain = Boolean.valueOf(
+          "999999999999".equals(formatter.convertNumberToString(format, MAX_PLAIN_INTEGER))
+            && "-42".equals(formatter.convertNumberToString(format, -42)));
+        plainIntegerFormats.put(format, plain);
       }
+      return plain.booleanValue();
+    }
 
+    private XNumberFormatter getFormatter()
+    {
+      if (!initialized)
+      {
+        initialized = true;
+        try
+        {
+          XNumberFormatsSupplier formats =
+            UnoRuntime.queryInterface(XNumberFormatsSupplier.class, doc);
+          XNumberFormatter f = UnoRuntime.queryInterface(XNumberFormatter.class,
+            UNO.createUNOService("com.sun.star.util.NumberFormatter"));
+          if (formats != null && f != null)
+          {
+            f.attachNumberFormatsSupplier(formats);
+            formatter = f;
+          }
+        }
+        catch (Exception x)
+        {
+          LOGGER.debug("", x);
+        }
+      }
+      return formatter;
     }
+  }
 
+  /**
+   * Liefert den Index des letzten Elements der bei start beginnenden Folge
+   * aufeinanderfolgender Werte in indexes, wobei die Folge höchstens maxLength
+   * Elemente lang ist.
+   */
+  private static int endOfRun(int[] indexes, int start, int maxLength)
+  {
+    int end = start;
+    while (end + 1 < indexes.length && indexes[end + 1] == indexes[end] + 1
+      && end + 1 - start < maxLength)
+      ++end;
+    return end;
+  }
+
+  private static int[] toIntArray(SortedSet<Integer> indexes)
+  {
+    int[] result = new int[indexes.size()];
+    int i = 0;
+    for (int index : indexes)
+      result[i++] = index;
+    return result;
   }
 }
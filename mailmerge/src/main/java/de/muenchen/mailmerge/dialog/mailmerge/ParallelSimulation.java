@@ -0,0 +1,115 @@
+package de.muenchen.mailmerge.dialog.mailmerge;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
+import de.muenchen.mailmerge.MailMergeSettings;
+import de.muenchen.mailmerge.document.OfflineSimulation;
+import de.muenchen.mailmerge.document.SimulationBaseline;
+
+/**
+ * Berechnet beim Seriendruck über den OOo-Seriendruck die Simulationsläufe aller
+ * Datensätze mit einer {@link OfflineSimulation}, also ohne Formularwerte im
+ * Hauptdokument zu setzen. Die Berechnung übernehmen {@link #THREADS_KEY}
+ * Threads; die Ergebnisse werden dem {@link SimulationBaseline.Processor} vom
+ * Thread des Seriendrucks in der Reihenfolge der Datensätze übergeben, so dass
+ * die Datenquelle dieselben Zeilen wie bei der Simulation im Dokument erhält.
+ */
+class ParallelSimulation
+{
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der Threads,
+   * die die Simulationsläufe berechnen. Bei 1 (Default) rechnet der Thread des
+   * Seriendrucks selbst. Mehr Threads sollten nur konfiguriert werden, wenn die
+   * TRAFOs der Dokumente gleichzeitig ausgewertet werden dürfen.
+   */
+  static final String THREADS_KEY = "SIMULATION_THREADS";
+
+  private static final int DEFAULT_THREADS = 1;
+
+  private final XPrintModel pmod;
+
+  private final OfflineSimulation simulation;
+
+  private final SimulationBaseline.Processor simProc;
+
+  ParallelSimulation(XPrintModel pmod, OfflineSimulation simulation,
+      SimulationBaseline.Processor simProc)
+  {
+    this.pmod = pmod;
+    this.simulation = simulation;
+    this.simProc = simProc;
+  }
+
+  /**
+   * Simuliert alle Datensätze aus datasets und zeigt den Fortschritt in pmod an.
+   * Kehrt zurück, wenn alle Ergebnisse verarbeitet sind oder der Seriendruck
+   * abgebrochen wurde.
+   *
+   * @throws Exception
+   *           wenn ein Datensatz nicht gelesen oder nicht berechnet werden
+   *           konnte.
+   */
+  void run(SelectedDatasets datasets) throws Exception
+  {
+    int threads = Math.max(1, MailMergeSettings.getInt(THREADS_KEY, DEFAULT_THREADS));
+    if (threads == 1)
+    {
+      int done = 0;
+      while (datasets.hasNext() && !pmod.isCanceled())
+      {
+        process(simulation.simulate(datasets.next()));
+        pmod.setPrintProgressValue((short) ++done);
+      }
+      return;
+    }
+
+    final AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "ParallelSimulation-" + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    try
+    {
+      Deque<Future<SimulationResults>> pending = new ArrayDeque<>();
+      int done = 0;
+      while (!pmod.isCanceled() && (datasets.hasNext() || !pending.isEmpty()))
+      {
+        if (datasets.hasNext() && pending.size() < 2 * threads)
+        {
+          Map<String, String> values = datasets.next();
+          pending.add(workers.submit(() -> simulation.simulate(values)));
+          continue;
+        }
+
+        try
+        {
+          process(pending.poll().get());
+        }
+        catch (ExecutionException e)
+        {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        pmod.setPrintProgressValue((short) ++done);
+      }
+    }
+    finally
+    {
+      workers.shutdownNow();
+    }
+  }
+
+  private void process(SimulationResults simRes)
+  {
+    simProc.processSimulationResults(simRes, simulation.getBaseline());
+  }
+}
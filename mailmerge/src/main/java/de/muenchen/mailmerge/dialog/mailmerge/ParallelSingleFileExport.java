@@ -0,0 +1,391 @@
+package de.muenchen.mailmerge.dialog.mailmerge;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.lang.XComponent;
+import com.sun.star.text.XTextDocument;
+import com.sun.star.util.CloseVetoException;
+
+import de.muenchen.allg.afid.UNO;
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.allg.itd51.wollmux.core.dialog.TextComponentTags;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.MailMergeSettings;
+import de.muenchen.mailmerge.document.DocumentManager;
+import de.muenchen.mailmerge.document.TextDocumentController;
+import de.muenchen.mailmerge.document.commands.DocumentCommandInterpreter;
+import de.muenchen.mailmerge.email.EMailSendQueue;
+import de.muenchen.mailmerge.event.handlers.OnSetFormValues;
+import de.muenchen.mailmerge.print.model.PrintModels;
+
+/**
+ * Erzeugt beim Seriendruck in Einzeldokumente (ODT- bzw. PDF-Dateien oder
+ * E-Mails) die Dokumente der einzelnen Datensätze parallel. Dazu wird das
+ * Hauptdokument einmal in eine temporäre Datei gespeichert, aus der
+ * {@link #THREADS_KEY} unsichtbare Kopien geladen werden. Jeder Thread setzt die
+ * Formularwerte der Datensätze, die er sich aus {@link SelectedDatasets} holt, in
+ * seiner eigenen Kopie und speichert sie. #DS und #SB werden dabei wie beim
+ * sequentiellen Seriendruck aus der Auswahl bestimmt, so dass Dateinamen und
+ * Inhalte gleich bleiben; nur die Reihenfolge, in der die Dateien entstehen,
+ * kann sich ändern. Ergibt das Dateinamensmuster für mehrere Datensätze
+ * denselben Namen (z.B. ohne #DS), so bekommen die Dateien eine laufende Nummer
+ * angehängt, damit die Threads nicht gleichzeitig in dieselbe Datei schreiben.
+ *
+ * E-Mails werden weiterhin vom Thread des Seriendrucks verschickt, damit
+ * Rückfragen (z.B. bei ungültigen Empfängeradressen) wie gewohnt erscheinen.
+ *
+ * Der Modus wird nur verwendet, wenn außer mailMergeNewSetFormValue genau eine
+ * der Druckfunktionen aus {@link Output} und keine Druckfunktionen des Dokuments
+ * beteiligt sind (siehe {@link #getOutput(List, boolean)}). Die Ausgabe
+ * übernimmt dann diese Klasse, die Druckfunktion selbst wird nicht aufgerufen.
+ */
+class ParallelSingleFileExport
+{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParallelSingleFileExport.class);
+
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der unsichtbaren
+   * Kopien des Hauptdokuments. Bei 1 (Default) werden die Einzeldokumente wie
+   * bisher nacheinander im Hauptdokument erzeugt.
+   */
+  static final String THREADS_KEY = "EINZELDOKUMENTE_THREADS";
+
+  private static final int DEFAULT_THREADS = 1;
+
+  private static final String SET_FORM_VALUE_FUNCTION = "MailMergeNewSetFormValue";
+
+  private static final String TEMPLATE_PREFIX = "WollMuxMailMergeParallel";
+
+  /**
+   * Markiert, dass ein Thread keine weiteren Datensätze bearbeitet.
+   */
+  private static final Result FINISHED = new Result(null, null);
+
+  /**
+   * Die Druckfunktionen für Einzeldokumente, die parallel ausgeführt werden
+   * können.
+   */
+  enum Output
+  {
+    SINGLE_ODT("MailMergeNewToSingleODT", true, false),
+
+    SINGLE_PDF("MailMergeNewToSinglePDF", false, false),
+
+    ODT_EMAIL("MailMergeNewToODTEMail", true, true),
+
+    PDF_EMAIL("MailMergeNewToPDFEMail", false, true);
+
+    private final String printFunction;
+
+    private final boolean isODT;
+
+    private final boolean isEMail;
+
+    Output(String printFunction, boolean isODT, boolean isEMail)
+    {
+      this.printFunction = printFunction;
+      this.isODT = isODT;
+      this.isEMail = isEMail;
+    }
+
+    boolean isODT()
+    {
+      return isODT;
+    }
+
+    boolean isEMail()
+    {
+      return isEMail;
+    }
+  }
+
+  private static class Result
+  {
+    final HashMap<String, String> dataset;
+
+    final File file;
+
+    Result(HashMap<String, String> dataset, File file)
+    {
+      this.dataset = dataset;
+      this.file = file;
+    }
+  }
+
+  private final XPrintModel pmod;
+
+  private final Output output;
+
+  private final File outputDir;
+
+  private final TextComponentTags filePattern;
+
+  private final int digits;
+
+  private volatile boolean failed = false;
+
+  /**
+   * Die Namen der Dateien, die bereits von einem Thread in {@link #outputDir}
+   * geschrieben werden.
+   */
+  private final Set<String> claimedFileNames = new HashSet<>();
+
+  /**
+   * @param pmod
+   *          der Seriendruck, dessen Hauptdokument kopiert wird.
+   * @param output
+   *          die zu erzeugende Ausgabe.
+   * @param outputDir
+   *          das Zielverzeichnis der Einzeldokumente.
+   * @param filePattern
+   *          das Muster für die Dateinamen oder null.
+   * @param digits
+   *          die Länge, auf die #DS und #SB in Dateinamen aufgefüllt werden.
+   */
+  ParallelSingleFileExport(XPrintModel pmod, Output output, File outputDir,
+      TextComponentTags filePattern, int digits)
+  {
+    this.pmod = pmod;
+    this.output = output;
+    this.outputDir = outputDir;
+    this.filePattern = filePattern;
+    this.digits = digits;
+  }
+
+  /**
+   * Liefert die Ausgabe, die bei den Druckfunktionen printFunctions parallel
+   * erzeugt werden kann, oder null, wenn der Seriendruck nacheinander im
+   * Hauptdokument laufen muss. Das ist der Fall, wenn der parallele Modus nicht
+   * konfiguriert ist, das Dokument eigene Druckfunktionen hat
+   * (hasDocPrintFunctions) oder weitere Druckfunktionen beteiligt sind.
+   */
+  static Output getOutput(List<String> printFunctions,
+      boolean hasDocPrintFunctions)
+  {
+    if (hasDocPrintFunctions || getThreads() < 2)
+      return null;
+
+    Output result = null;
+    for (String name : printFunctions)
+    {
+      if (SET_FORM_VALUE_FUNCTION.equals(name))
+        continue;
+
+      Output found = null;
+      for (Output o : Output.values())
+      {
+        if (o.printFunction.equals(name))
+          found = o;
+      }
+      if (found == null || result != null)
+        return null;
+      result = found;
+    }
+    return result;
+  }
+
+  private static int getThreads()
+  {
+    return Math.max(1, MailMergeSettings.getInt(THREADS_KEY, DEFAULT_THREADS));
+  }
+
+  /**
+   * Erzeugt die Einzeldokumente zu allen Datensätzen aus datasets (insgesamt
+   * höchstens count) und zeigt den Fortschritt in pmod an. Kehrt zurück, wenn alle
+   * Dokumente erzeugt und alle Kopien geschlossen sind.
+   *
+   * @throws Exception
+   *           wenn ein Datensatz nicht gelesen oder das Hauptdokument nicht
+   *           kopiert werden konnte.
+   */
+  void run(SelectedDatasets datasets, int count) throws Exception
+  {
+    int threads = Math.min(getThreads(), count);
+    PrintModels.setStage(pmod, L.m("Erzeuge %1 Kopien des Hauptdokuments", threads));
+
+    File template = File.createTempFile(TEMPLATE_PREFIX, ".odt");
+    List<XComponent> copies = new ArrayList<>();
+    ExecutorService workers = null;
+    try
+    {
+      String url = UNO.getParsedUNOUrl(template.toURI().toString()).Complete;
+      UNO.XStorable(pmod.getTextDocument()).storeToURL(url, new PropertyValue[] {});
+      for (int i = 0; i < threads; ++i)
+        copies.add(UNO.loadComponentFromURL(url, false, false, true));
+
+      pmod.setPrintProgressMaxValue((short) count);
+      BlockingQueue<Result> results = new ArrayBlockingQueue<>(2 * threads);
+      final AtomicInteger threadCount = new AtomicInteger();
+      workers = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(r, "ParallelSingleFileExport-" + threadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      });
+      List<Future<Void>> futures = new ArrayList<>();
+      for (XComponent copy : copies)
+        futures.add(workers.submit(() -> work(copy, datasets, results)));
+
+      int finished = 0;
+      int done = 0;
+      while (finished < threads)
+      {
+        Result result = results.take();
+        if (result == FINISHED)
+        {
+          ++finished;
+          continue;
+        }
+
+        if (output.isEMail())
+          send(result);
+        pmod.setPrintProgressValue((short) ++done);
+      }
+
+      for (Future<Void> f : futures)
+      {
+        try
+        {
+          f.get();
+        }
+        catch (ExecutionException e)
+        {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    }
+    finally
+    {
+      if (workers != null)
+        workers.shutdownNow();
+      for (XComponent copy : copies)
+        close(copy);
+      template.delete();
+    }
+  }
+
+  /**
+   * Holt sich Datensätze aus datasets, bis keine mehr übrig sind, setzt deren
+   * Werte in der Kopie copy und legt die gespeicherten Dateien in results ab.
+   */
+  private Void work(XComponent copy, SelectedDatasets datasets,
+      BlockingQueue<Result> results) throws Exception
+  {
+    try
+    {
+      XTextDocument doc = UNO.XTextDocument(copy);
+      DocumentManager docManager = DocumentManager.getDocumentManager();
+      if (docManager.getInfo(copy) == null)
+        docManager.addTextDocument(doc);
+      TextDocumentController documentController =
+        DocumentManager.getTextDocumentController(doc);
+      // Die Kopie wurde nicht wie das Hauptdokument vom Seriendruckdialog
+      // bearbeitet, daher müssen ihre Formularfelder erst eingelesen werden.
+      DocumentCommandInterpreter dci = new DocumentCommandInterpreter(documentController);
+      dci.scanGlobalDocumentCommands();
+      dci.scanInsertFormValueCommands();
+      documentController.collectNonWollMuxFormFields();
+      documentController.setFormFieldsPreviewMode(true);
+
+      while (!pmod.isCanceled() && !failed)
+      {
+        Map<String, String> values;
+        synchronized (datasets)
+        {
+          if (!datasets.hasNext())
+            break;
+          values = datasets.next();
+        }
+
+        OnSetFormValues.setFormValues(documentController, values);
+        HashMap<String, String> dataset = new HashMap<>(values);
+        String name = MailMergeControllerImpl.getOutputFileName(dataset,
+          filePattern, digits, output.isODT());
+        File file;
+        if (output.isEMail())
+          file = new File(MailMergeControllerImpl.createAttachmentDir(outputDir), name);
+        else
+          file = new File(outputDir, claimFileName(name));
+        MailMergeNew.saveOutputFile(file, doc);
+        results.put(new Result(dataset, file));
+      }
+      return null;
+    }
+    catch (Exception e)
+    {
+      failed = true;
+      throw e;
+    }
+    finally
+    {
+      results.put(FINISHED);
+    }
+  }
+
+  /**
+   * Liefert name zurück, wenn noch kein anderer Datensatz diesen Dateinamen
+   * verwendet, sonst name mit angehängter laufender Nummer (z.B. Brief_2.odt).
+   */
+  private String claimFileName(String name)
+  {
+    int dot = name.lastIndexOf('.');
+    String base = name.substring(0, dot);
+    String extension = name.substring(dot);
+    synchronized (claimedFileNames)
+    {
+      String result = name;
+      for (int i = 2; !claimedFileNames.add(result); ++i)
+        result = base + "_" + i + extension;
+      return result;
+    }
+  }
+
+  /**
+   * Verschickt die Datei aus result als E-Mail oder löscht sie, wenn der
+   * Seriendruck abgebrochen wurde oder die Empfängeradresse ungültig ist.
+   */
+  private void send(Result result)
+  {
+    String to = null;
+    if (!pmod.isCanceled())
+      to = MailMergeControllerImpl.getEMailRecipient(pmod, result.dataset);
+    if (to == null)
+    {
+      EMailSendQueue.deleteAttachment(result.file);
+      return;
+    }
+    MailMergeControllerImpl.sendAsEmail(pmod, result.dataset, to, result.file);
+  }
+
+  private static void close(XComponent copy)
+  {
+    DocumentManager.getDocumentManager().remove(copy);
+    if (UNO.XCloseable(copy) == null)
+      return;
+    try
+    {
+      UNO.XCloseable(copy).close(true);
+    }
+    catch (CloseVetoException e)
+    {
+      LOGGER.error(L.m("Kopie des Hauptdokuments konnte nicht geschlossen werden."), e);
+    }
+  }
+}
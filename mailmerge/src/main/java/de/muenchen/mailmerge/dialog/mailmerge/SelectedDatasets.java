@@ -0,0 +1,135 @@
+package de.muenchen.mailmerge.dialog.mailmerge;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import de.muenchen.allg.itd51.wollmux.core.db.ColumnNotFoundException;
+import de.muenchen.allg.itd51.wollmux.core.db.Dataset;
+import de.muenchen.allg.itd51.wollmux.core.db.QueryResults;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.db.ColumnarQueryResults;
+
+/**
+ * Liefert nacheinander die Werte der ausgewählten Datensätze, so wie sie beim
+ * Seriendruck in die Formularfelder gesetzt werden: die Werte aller Spalten aus
+ * dem Schema sowie {@link MailMergeParams#TAG_DATENSATZNUMMER} (Position des
+ * Datensatzes in der Datenquelle) und {@link MailMergeParams#TAG_SERIENBRIEFNUMMER}
+ * (Position des Datensatzes in der Auswahl), beide beginnend mit 1.
+ *
+ * Die Nummern hängen damit nur von der Auswahl ab und nicht davon, welches
+ * Dokument den Datensatz später verarbeitet.
+ */
+class SelectedDatasets
+{
+  private final ColumnarQueryResults columnar;
+
+  private final String[] columns;
+
+  private final int[] handles;
+
+  private final Iterator<Dataset> iter;
+
+  private final Iterator<Integer> selIter;
+
+  private int selectedIdx;
+
+  private int index = -1;
+
+  private int serienbriefNummer = 0;
+
+  /**
+   * Der nächste zu liefernde Datensatz oder null, wenn er noch nicht gesucht
+   * wurde.
+   */
+  private Dataset pending = null;
+
+  /**
+   * @param data
+   *          die Datensätze der Datenquelle.
+   * @param schema
+   *          die Spalten, deren Werte geliefert werden.
+   * @param selection
+   *          die Indizes der ausgewählten Datensätze in aufsteigender Reihenfolge
+   *          (0 ist der erste Datensatz). Darf nicht leer sein.
+   * @throws ColumnNotFoundException
+   *           wenn data spaltenweise vorliegt und eine Spalte aus schema nicht
+   *           enthält.
+   */
+  SelectedDatasets(QueryResults data, Collection<String> schema,
+      List<Integer> selection) throws ColumnNotFoundException
+  {
+    columns = schema.toArray(new String[schema.size()]);
+    handles = new int[columns.length];
+
+    // Bei spaltenweise gehaltenen Daten die Spaltennamen nur einmal auflösen.
+    if (data instanceof ColumnarQueryResults)
+    {
+      columnar = (ColumnarQueryResults) data;
+      for (int i = 0; i < columns.length; ++i)
+      {
+        handles[i] = columnar.getColumnHandle(columns[i]);
+        if (handles[i] < 0)
+          throw new ColumnNotFoundException(L.m("Spalte %1 existiert nicht!",
+            columns[i]));
+      }
+    }
+    else
+      columnar = null;
+
+    iter = data.iterator();
+    selIter = selection.iterator();
+    selectedIdx = selIter.next();
+  }
+
+  /**
+   * Liefert true, wenn es noch einen ausgewählten Datensatz gibt.
+   */
+  boolean hasNext()
+  {
+    while (pending == null && selectedIdx >= 0 && iter.hasNext())
+    {
+      Dataset ds = iter.next();
+      if (++index < selectedIdx)
+        continue;
+
+      pending = ds;
+      if (selIter.hasNext())
+        selectedIdx = selIter.next();
+      else
+        selectedIdx = -1;
+    }
+    return pending != null;
+  }
+
+  /**
+   * Liefert die Werte des nächsten ausgewählten Datensatzes in der Reihenfolge
+   * des Schemas, gefolgt von den beiden Nummern.
+   *
+   * @throws ColumnNotFoundException
+   *           wenn dem Datensatz eine Spalte des Schemas fehlt.
+   * @throws NoSuchElementException
+   *           wenn es keinen weiteren Datensatz gibt.
+   */
+  Map<String, String> next() throws ColumnNotFoundException
+  {
+    if (!hasNext())
+      throw new NoSuchElementException();
+
+    Dataset ds = pending;
+    pending = null;
+    int datensatzNummer = index + 1; // same as datensatzNummer = selectedIdx+1;
+    ++serienbriefNummer;
+
+    Map<String, String> values = new LinkedHashMap<>();
+    for (int i = 0; i < columns.length; ++i)
+      values.put(columns[i], columnar != null ? columnar.get(index, handles[i])
+          : ds.get(columns[i]));
+    values.put(MailMergeParams.TAG_DATENSATZNUMMER, "" + datensatzNummer);
+    values.put(MailMergeParams.TAG_SERIENBRIEFNUMMER, "" + serienbriefNummer);
+    return values;
+  }
+}
@@ -101,6 +101,20 @@ public class DocumentManager
     info.put(new HashableComponent(compo), new TextDocumentInfo(compo));
   }
 
+  /**
+   * Fügt compo den gemanageten Objekten hinzu und verwendet dafür den bereits
+   * erzeugten documentController, statt ihn beim ersten Zugriff aus compo zu
+   * erzeugen. Damit können z.B. Dokumente ohne laufendes LibreOffice verwendet
+   * werden, deren TextDocumentModel nicht über die WollMux-Konfiguration angelegt
+   * werden soll.
+   */
+  public synchronized void addTextDocument(XTextDocument compo,
+      TextDocumentController documentController)
+  {
+    info.put(new HashableComponent(compo), new TextDocumentInfo(compo,
+      documentController));
+  }
+
   /**
    * Fügt compo den gemanageten Objekten hinzu, ohne weitere Informationen zu
    * hinterlegen. compo ist also ein Objekt, an dem für den WollMux nur interessant
@@ -346,6 +360,13 @@ public class DocumentManager
       this.doc = doc;
     }
 
+    public TextDocumentInfo(XTextDocument doc,
+        TextDocumentController documentController)
+    {
+      this.doc = doc;
+      this.documentController = documentController;
+    }
+
     /**
      * Auf die Methoden getTextDocumentController() und hasTextDocumentModel() wird
      * möglicherweise aus verschiedenen Threads zugegriffen (WollMux Event Queue und
@@ -0,0 +1,139 @@
+package de.muenchen.mailmerge.document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+
+/**
+ * Berechnet das Ergebnis eines Simulationslaufs (siehe
+ * {@link TextDocumentController#startSimulation(SimulationBaseline)}) für einen
+ * Datensatz, ohne das Dokument, sein TextDocumentController oder die Event-Queue
+ * zu verwenden. Alle dafür benötigten Informationen (Formularfelder je ID,
+ * TRAFOs, Vorschaumodus und die {@link SimulationBaseline}) werden beim Erzeugen
+ * mit {@link TextDocumentController#createOfflineSimulation()} einmal
+ * ausgelesen.
+ *
+ * Die Berechnung entspricht {@link TextDocumentController#addFormFieldValues(Map)}
+ * im Simulationsmodus und ist daher nur für Dokumente ohne Formularbeschreibung
+ * möglich; bei diesen ändern sich die Sichtbarkeiten während des Seriendrucks
+ * nicht. Da nur noch die TRAFOs ausgewertet werden, kann {@link #simulate(Map)}
+ * für verschiedene Datensätze gleichzeitig aufgerufen werden.
+ */
+public class OfflineSimulation
+{
+  private final FunctionLibrary funcLib;
+
+  /**
+   * Der TrafoCache des Seriendrucks oder null, wenn die Ergebnisse der TRAFOs nur
+   * innerhalb eines Datensatzes wiederverwendet werden.
+   */
+  private final TrafoCache trafoCache;
+
+  private final boolean previewMode;
+
+  private final SimulationBaseline baseline;
+
+  private final Map<String, List<FormField>> idToFormFields;
+
+  private final Map<String, List<FormField>> idToTextFieldFormFields;
+
+  OfflineSimulation(FunctionLibrary funcLib, TrafoCache trafoCache, boolean previewMode,
+      SimulationBaseline baseline, Map<String, List<FormField>> idToFormFields,
+      Map<String, List<FormField>> idToTextFieldFormFields)
+  {
+    this.funcLib = funcLib;
+    this.trafoCache = trafoCache;
+    this.previewMode = previewMode;
+    this.baseline = baseline;
+    this.idToFormFields = copy(idToFormFields);
+    this.idToTextFieldFormFields = copy(idToTextFieldFormFields);
+  }
+
+  private static Map<String, List<FormField>> copy(Map<String, List<FormField>> map)
+  {
+    Map<String, List<FormField>> result = new HashMap<>();
+    for (Map.Entry<String, List<FormField>> entry : map.entrySet())
+      result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+    return result;
+  }
+
+  /**
+   * Liefert die SimulationBaseline, zu der {@link #simulate(Map)} die Änderungen
+   * berechnet.
+   */
+  public SimulationBaseline getBaseline()
+  {
+    return baseline;
+  }
+
+  /**
+   * Liefert das Ergebnis des Simulationslaufs, in dem die Formularwerte values
+   * gesetzt werden. Es enthält wie bei
+   * {@link TextDocumentController#startSimulation(SimulationBaseline)} nur die
+   * Inhalte der Formularfelder, die von values abhängen.
+   */
+  public SimulationResults simulate(Map<String, String> values)
+  {
+    SimulationResults simRes = new SimulationResults();
+    simRes.setFormFieldValues(baseline.getFormFieldValues());
+    simRes.setGroupsVisibilityState(baseline.getGroupsVisibilityState());
+    for (Map.Entry<String, String> entry : values.entrySet())
+      simRes.setFormFieldValue(entry.getKey(), entry.getValue());
+    Map<String, String> knownValues = simRes.getFormFieldValues();
+
+    TrafoCache cache = trafoCache != null ? trafoCache : new TrafoCache(funcLib, 0);
+    Map<FormField, String> textFields = new LinkedHashMap<>();
+    for (String fieldId : values.keySet())
+    {
+      String value;
+      if (previewMode)
+      {
+        value = knownValues.get(fieldId);
+        if (value == null)
+          value = "";
+      }
+      else
+        value = "<" + fieldId + ">";
+
+      List<FormField> fields = idToFormFields.get(fieldId);
+      if (fields != null)
+        for (FormField field : fields)
+          simRes.setFormFieldContent(field,
+            transform(field, value, null, cache));
+
+      fields = idToTextFieldFormFields.get(fieldId);
+      if (fields != null)
+        for (FormField field : fields)
+          if (!textFields.containsKey(field))
+            textFields.put(field, value);
+    }
+
+    for (Map.Entry<FormField, String> entry : textFields.entrySet())
+      simRes.setFormFieldContent(entry.getKey(),
+        transform(entry.getKey(), entry.getValue(), knownValues, cache));
+    return simRes;
+  }
+
+  /**
+   * Wertet die TRAFO von field wie TextDocumentController.setFormField(...) aus:
+   * Ist knownValues==null, so wird value für alle Parameter übergeben, sonst
+   * werden die Parameter aus knownValues bestimmt.
+   */
+  private String transform(FormField field, String value,
+      Map<String, String> knownValues, TrafoCache cache)
+  {
+    String trafoName = field.getTrafoName();
+    if (trafoName == null || !previewMode)
+      return value;
+    if (knownValues == null)
+      return cache.transform(trafoName, value);
+    else
+      return cache.transform(trafoName, knownValues);
+  }
+}
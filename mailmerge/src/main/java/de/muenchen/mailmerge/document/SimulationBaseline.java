@@ -0,0 +1,81 @@
+package de.muenchen.mailmerge.document;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
+import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults.SimulationResultsProcessor;
+
+/**
+ * Stand der Formularwerte, Sichtbarkeiten und Inhalte aller Formularfelder eines
+ * Dokuments zu Beginn eines Seriendrucks im Simulationsmodus (siehe
+ * {@link TextDocumentController#createSimulationBaseline()}).
+ *
+ * Da sich das Dokument während der Simulation nicht ändert, genügt es, die Inhalte
+ * der Formularfelder einmal pro Druckauftrag auszulesen. Die mit
+ * {@link TextDocumentController#startSimulation(SimulationBaseline)} gestarteten
+ * Simulationsläufe der einzelnen Datensätze enthalten dann nur noch die Inhalte
+ * der Formularfelder, die im jeweiligen Datensatz gesetzt wurden; alle übrigen
+ * Inhalte stehen unverändert in der SimulationBaseline.
+ */
+public class SimulationBaseline
+{
+  private final Map<String, String> formFieldValues;
+
+  private final Map<String, Boolean> groupsVisibilityState;
+
+  private final Map<FormField, String> formFieldContents;
+
+  SimulationBaseline(Map<String, String> formFieldValues,
+      Map<String, Boolean> groupsVisibilityState,
+      Map<FormField, String> formFieldContents)
+  {
+    this.formFieldValues = Collections.unmodifiableMap(new HashMap<>(formFieldValues));
+    this.groupsVisibilityState =
+      Collections.unmodifiableMap(new HashMap<>(groupsVisibilityState));
+    this.formFieldContents = Collections.unmodifiableMap(formFieldContents);
+  }
+
+  /**
+   * Liefert die Formularwerte zu Beginn des Seriendrucks.
+   */
+  public Map<String, String> getFormFieldValues()
+  {
+    return formFieldValues;
+  }
+
+  /**
+   * Liefert die Sichtbarkeiten der Gruppen zu Beginn des Seriendrucks.
+   */
+  public Map<String, Boolean> getGroupsVisibilityState()
+  {
+    return groupsVisibilityState;
+  }
+
+  /**
+   * Liefert die Inhalte aller Formularfelder zu Beginn des Seriendrucks.
+   */
+  public Map<FormField, String> getFormFieldContents()
+  {
+    return formFieldContents;
+  }
+
+  /**
+   * Ein {@link SimulationResultsProcessor}, der die Ergebnisse der einzelnen
+   * Datensätze zusammen mit der SimulationBaseline verarbeiten kann und deshalb
+   * nur die im Datensatz geänderten Inhalte der Formularfelder benötigt.
+   */
+  public interface Processor extends SimulationResultsProcessor
+  {
+    /**
+     * Verarbeitet das Ergebnis simRes eines mit
+     * {@link TextDocumentController#startSimulation(SimulationBaseline)}
+     * gestarteten Simulationslaufs. Inhalte von Formularfeldern, die nicht in
+     * simRes enthalten sind, gelten wie in baseline.
+     */
+    public void processSimulationResults(SimulationResults simRes,
+        SimulationBaseline baseline);
+  }
+}
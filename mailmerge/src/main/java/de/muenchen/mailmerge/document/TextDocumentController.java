@@ -2,9 +2,11 @@ package de.muenchen.mailmerge.document;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -106,6 +108,13 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    */
   private boolean formFieldPreviewMode;
 
+  /**
+   * Zwischenspeicher für die Ergebnisse von TRAFOs, solange mehrere Formularfelder
+   * gemeinsam aktualisiert werden (z.B. alle Felder eines Datensatzes) oder ein
+   * Seriendruck läuft (siehe {@link #startJobTrafoCache()}). Sonst null.
+   */
+  private TrafoCache trafoCache = null;
+
   private DialogLibrary globalDialogs;
 
   private FunctionLibrary globalFunctions;
@@ -404,6 +413,22 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
     updateFormFields(id);
   }
 
+  /**
+   * Übernimmt alle Formularwerte aus values ins Model und ins Dokument. Anders als
+   * bei wiederholten Aufrufen von {@link #addFormFieldValue(String, String)} werden
+   * die persistenten Formularwerte nur einmal geschrieben und jedes betroffene
+   * Formularfeld nur einmal neu berechnet, auch wenn seine TRAFO von mehreren der
+   * geänderten IDs abhängt.
+   *
+   * @param values
+   *          Abbildung der Namen der Formularfelder auf ihre neuen Inhalte.
+   */
+  public synchronized void addFormFieldValues(Map<String, String> values)
+  {
+    setFormFieldValues(values);
+    updateFormFields(values.keySet());
+  }
+
   /**
    * Fügt an der Stelle r ein neues Textelement vom Typ css.text.TextField.InputUser
    * ein, und verknüpft das Feld so, dass die Trafo trafo verwendet wird, um den
@@ -739,11 +764,21 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    *         Fehlerstring zurückgeliefert.
    */
   public String getTransformedValue(String trafoName, String value)
+  {
+    return getTransformedValue(getFunctionLibrary(), trafoName, value);
+  }
+
+  /**
+   * Wie {@link #getTransformedValue(String, String)}, jedoch wird die
+   * Trafofunktion in funcLib gesucht.
+   */
+  static String getTransformedValue(FunctionLibrary funcLib, String trafoName,
+      String value)
   {
     String transformed = value;
     if (trafoName != null)
     {
-      Function func = getFunctionLibrary().get(trafoName);
+      Function func = funcLib.get(trafoName);
       if (func != null)
       {
         SimpleMap args = new SimpleMap();
@@ -781,7 +816,17 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   private String getTransformedValue(String trafoName,
       Map<String, String> mapIdToValues)
   {
-    Function func = getFunctionLibrary().get(trafoName);
+    return getTransformedValue(getFunctionLibrary(), trafoName, mapIdToValues);
+  }
+
+  /**
+   * Wie {@link #getTransformedValue(String, Map)}, jedoch wird die Trafofunktion in
+   * funcLib gesucht.
+   */
+  static String getTransformedValue(FunctionLibrary funcLib, String trafoName,
+      Map<String, String> mapIdToValues)
+  {
+    Function func = funcLib.get(trafoName);
     if (func != null)
     {
       SimpleMap args = new SimpleMap();
@@ -1239,6 +1284,64 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       model.setDocumentModified(true);
   }
 
+  /**
+   * Wie {@link #updateFormFields(String)} für alle IDs aus fieldIds, wobei jedes
+   * Formularfeld höchstens einmal gesetzt wird, auch wenn seine TRAFO von mehreren
+   * der IDs abhängt. TRAFOs, die mit den gleichen Parameterwerten bereits
+   * ausgewertet wurden, werden dabei nicht erneut ausgeführt.
+   */
+  private void updateFormFields(Collection<String> fieldIds)
+  {
+    if (fieldIds.isEmpty())
+      return;
+
+    boolean ownCache = startTrafoCache();
+    try
+    {
+      updateFormFieldsOnce(fieldIds);
+    }
+    finally
+    {
+      if (ownCache)
+        trafoCache = null;
+    }
+    if (simulationResult == null)
+      model.setDocumentModified(true);
+  }
+
+  /**
+   * Setzt alle von fieldIds abhängigen Formularfelder, jedes genau einmal.
+   */
+  private void updateFormFieldsOnce(Collection<String> fieldIds)
+  {
+    Map<FormField, String> textFields = new LinkedHashMap<>();
+    for (String fieldId : fieldIds)
+    {
+      String value;
+      if (formFieldPreviewMode)
+      {
+        value = model.getFormFieldValuesMap().get(fieldId);
+        if (simulationResult != null)
+          value = simulationResult.getFormFieldValues().get(fieldId);
+        if (value == null)
+          value = "";
+      }
+      else
+        value = "<" + fieldId + ">";
+
+      setFormFields(model.getIdToFormFields().get(fieldId), value,
+        formFieldPreviewMode, false);
+      List<FormField> fields = model.getIdToTextFieldFormFields().get(fieldId);
+      if (fields != null)
+        for (FormField field : fields)
+          if (!textFields.containsKey(field))
+            textFields.put(field, value);
+    }
+
+    for (Map.Entry<FormField, String> entry : textFields.entrySet())
+      setFormField(entry.getKey(), entry.getValue(), formFieldPreviewMode, true);
+  }
+
   /**
    * Blendet alle Sichtbarkeitselemente eines Dokuments (Dokumentkommandos oder
    * Bereiche mit Namensanhang 'GROUPS ...'), die einer bestimmten Gruppe groupId
@@ -1322,14 +1425,69 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    */
   private void updateAllFormFields()
   {
-    for (String fieldId : model.getAllFieldIDs())
+    Collection<String> fieldIds = model.getAllFieldIDs();
+    if (fieldIds.isEmpty())
+      return;
+
+    boolean ownCache = startTrafoCache();
+    try
     {
-      updateFormFields(fieldId);
+      updateFormFields(fieldIds);
+
+      String lastId = null;
+      for (String fieldId : fieldIds)
+        lastId = fieldId;
+      setFormFields(model.getStaticTextFieldFormFields(),
+        formFieldPreviewMode ? "" : "<" + lastId + ">", formFieldPreviewMode, true);
+    }
+    finally
+    {
+      if (ownCache)
+        trafoCache = null;
     }
   }
 
   /**
-   * Setzt den Inhalt aller Formularfelder mit ID fieldId auf value.
+   * Legt den Zwischenspeicher {@link #trafoCache} an, falls er nicht bereits
+   * existiert, und liefert true, wenn der Aufrufer ihn wieder entfernen muss.
+   */
+  private boolean startTrafoCache()
+  {
+    if (trafoCache != null)
+      return false;
+    trafoCache = new TrafoCache(getFunctionLibrary(), 0);
+    return true;
+  }
+
+  /**
+   * Legt für die Dauer eines Seriendrucks einen {@link TrafoCache} an, der die
+   * Ergebnisse von TRAFOs über alle Datensätze hinweg wiederverwendet, und
+   * liefert ihn zurück. Liefert null, wenn das nicht konfiguriert ist (siehe
+   * {@link TrafoCache#SIZE_KEY}) oder bereits ein Zwischenspeicher existiert.
+   * Ein angelegter TrafoCache muss mit {@link #stopJobTrafoCache()} wieder
+   * entfernt werden.
+   */
+  public synchronized TrafoCache startJobTrafoCache()
+  {
+    int size = TrafoCache.getJobSize();
+    if (size == 0 || trafoCache != null)
+      return null;
+    trafoCache = new TrafoCache(getFunctionLibrary(), size);
+    return trafoCache;
+  }
+
+  /**
+   * Entfernt den mit {@link #startJobTrafoCache()} angelegten TrafoCache.
+   */
+  public synchronized void stopJobTrafoCache()
+  {
+    trafoCache = null;
+  }
+
+  /**
+   * Setzt den Inhalt aller Formularfelder mit ID fieldId auf value. Die
+   * statischen Textfelder (TRAFOs ohne Parameter) hängen von keiner ID ab und
+   * werden daher nur in {@link #updateAllFormFields()} gesetzt.
    *
    * @param applyTrafo
    *          gibt an, ob eine evtl. vorhandene TRAFO-Funktion angewendet werden soll
@@ -1340,7 +1498,6 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
   {
     setFormFields(model.getIdToFormFields().get(fieldId), value, applyTrafo, false);
     setFormFields(model.getIdToTextFieldFormFields().get(fieldId), value, applyTrafo, true);
-    setFormFields(model.getStaticTextFieldFormFields(), value, applyTrafo, true);
   }
 
   /**
@@ -1370,29 +1527,59 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       model.updateLastTouchedByVersionInfo();
 
     for (FormField field : formFields)
-      try
-      {
-        String result;
-        String trafoName = field.getTrafoName();
-        if (trafoName != null && applyTrafo)
-        {
-          if (useKnownFormValues)
-            result = getTransformedValue(trafoName);
-          else
-            result = getTransformedValue(trafoName, value);
-        }
-        else
-          result = value;
+      setFormField(field, value, applyTrafo, useKnownFormValues);
+  }
 
-        if (simulationResult == null)
-          field.setValue(result);
-        else
-          simulationResult.setFormFieldContent(field, result);
-      }
-      catch (RuntimeException e)
-      {
-        // Absicherung gegen das manuelle Löschen von Dokumentinhalten.
-      }
+  /**
+   * Setzt den Inhalt des Formularfelds field wie in
+   * {@link #setFormFields(List, String, boolean, boolean)} beschrieben.
+   */
+  private void setFormField(FormField field, String value, boolean applyTrafo,
+      boolean useKnownFormValues)
+  {
+    try
+    {
+      String result;
+      String trafoName = field.getTrafoName();
+      if (trafoName != null && applyTrafo)
+        result = getCachedTransformedValue(trafoName, value, useKnownFormValues);
+      else
+        result = value;
+
+      if (simulationResult == null)
+        field.setValue(result);
+      else
+        simulationResult.setFormFieldContent(field, result);
+    }
+    catch (RuntimeException e)
+    {
+      // Absicherung gegen das manuelle Löschen von Dokumentinhalten.
+    }
+  }
+
+  /**
+   * Wertet die TRAFO trafoName wie {@link #getTransformedValue(String)} (bei
+   * useKnownFormValues==true) bzw. {@link #getTransformedValue(String, String)}
+   * aus. Existiert gerade ein {@link #trafoCache}, so wird das Ergebnis zu den
+   * aktuellen Parameterwerten zwischengespeichert und bei gleichen
+   * Parameterwerten wiederverwendet.
+   */
+  private String getCachedTransformedValue(String trafoName, String value,
+      boolean useKnownFormValues)
+  {
+    if (trafoCache == null)
+    {
+      if (useKnownFormValues)
+        return getTransformedValue(trafoName);
+      else
+        return getTransformedValue(trafoName, value);
+    }
+
+    if (useKnownFormValues)
+      return trafoCache.transform(trafoName, simulationResult == null
+          ? model.getFormFieldValuesMap() : simulationResult.getFormFieldValues());
+    else
+      return trafoCache.transform(trafoName, value);
   }
 
   /**
@@ -1429,12 +1616,37 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
    */
   public synchronized void startSimulation()
   {
+    SimulationBaseline baseline = createSimulationBaseline();
+    startSimulation(baseline);
+
+    // Aktuell gesetzte FormField-Inhalte simulationResults bekannt machen.
+    for (Map.Entry<FormField, String> entry : baseline.getFormFieldContents().entrySet())
+      simulationResult.setFormFieldContent(entry.getKey(), entry.getValue());
+  }
+
+  /**
+   * Startet den Simulationsmodus wie {@link #startSimulation()} ausgehend vom
+   * Stand baseline, wobei das Simulationsergebnis nur die Inhalte der Formularfelder
+   * enthält, die während der Simulation gesetzt wurden. Damit muss der Inhalt der
+   * Formularfelder nicht für jeden Datensatz neu aus dem Dokument gelesen werden.
+   */
+  public synchronized void startSimulation(SimulationBaseline baseline)
+  {
+    // SimulationResults legt eigene Kopien der Maps an, die Simulation verändert
+    // die baseline daher nicht.
     simulationResult = new SimulationResults();
-    simulationResult.setFormFieldValues(model.getFormFieldValuesMap());
-    simulationResult.setGroupsVisibilityState(model.getMapGroupIdToVisibilityState());
+    simulationResult.setFormFieldValues(baseline.getFormFieldValues());
+    simulationResult.setGroupsVisibilityState(baseline.getGroupsVisibilityState());
+  }
 
-    // Aktuell gesetzte FormField-Inhalte auslesen und simulationResults bekannt
-    // machen.
+  /**
+   * Liest die aktuell gesetzten Formularwerte, Sichtbarkeiten und Inhalte aller
+   * Formularfelder aus, um damit beliebig viele Simulationsläufe mit
+   * {@link #startSimulation(SimulationBaseline)} starten zu können. Die baseline
+   * ist nur so lange gültig, wie das Dokument selbst nicht verändert wird.
+   */
+  public synchronized SimulationBaseline createSimulationBaseline()
+  {
     HashSet<FormField> ffs = new HashSet<>();
     for (List<FormField> l : model.getIdToFormFields().values())
       for (FormField ff : l)
@@ -1443,8 +1655,37 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       for (FormField ff : l)
         ffs.add(ff);
     ffs.addAll(model.getStaticTextFieldFormFields());
+
+    Map<FormField, String> contents = new HashMap<>();
     for (FormField ff : ffs)
-      simulationResult.setFormFieldContent(ff, ff.getValue());
+      contents.put(ff, ff.getValue());
+    return new SimulationBaseline(model.getFormFieldValuesMap(),
+      model.getMapGroupIdToVisibilityState(), contents);
+  }
+
+  /**
+   * Liefert eine {@link OfflineSimulation}, mit der die Simulationsläufe der
+   * einzelnen Datensätze ohne dieses Dokument berechnet werden können, oder null,
+   * wenn das Dokument eine Formularbeschreibung besitzt. In diesem Fall werden
+   * abhängige Formularwerte und Sichtbarkeiten vom FormModel bestimmt und die
+   * Simulation muss wie bisher über {@link #startSimulation(SimulationBaseline)}
+   * erfolgen.
+   */
+  public synchronized OfflineSimulation createOfflineSimulation()
+  {
+    try
+    {
+      getFormDescription().get("Formular");
+      return null;
+    }
+    catch (NodeNotFoundException e)
+    {
+      // Werte werden wie in addFormFieldValues(...) direkt gesetzt
+    }
+
+    return new OfflineSimulation(getFunctionLibrary(), trafoCache, formFieldPreviewMode,
+      createSimulationBaseline(), model.getIdToFormFields(),
+      model.getIdToTextFieldFormFields());
   }
 
   /**
@@ -1613,6 +1854,29 @@ public class TextDocumentController implements FormValueChangedListener, Visibil
       simulationResult.setFormFieldValue(fieldId, value);
   }
 
+  /**
+   * Wie {@link #setFormFieldValue(String, String)} für alle Einträge aus values,
+   * wobei die persistenten Formularwerte nur einmal geschrieben werden.
+   */
+  public synchronized void setFormFieldValues(Map<String, String> values)
+  {
+    if (simulationResult == null)
+    {
+      model.updateLastTouchedByVersionInfo();
+      for (Map.Entry<String, String> entry : values.entrySet())
+      {
+        if (entry.getValue() == null)
+          model.getFormFieldValues().remove(entry.getKey());
+        else
+          model.getFormFieldValues().put(entry.getKey(), entry.getValue());
+      }
+      model.getPersistentData().setData(DataID.FORMULARWERTE, getFormFieldValuesString());
+    }
+    else
+      for (Map.Entry<String, String> entry : values.entrySet())
+        simulationResult.setFormFieldValue(entry.getKey(), entry.getValue());
+  }
+
   /**
    * Serialisiert die aktuellen Werte aller Fomularfelder.
    */
@@ -0,0 +1,180 @@
+package de.muenchen.mailmerge.document;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.muenchen.allg.itd51.wollmux.core.functions.Function;
+import de.muenchen.allg.itd51.wollmux.core.functions.FunctionLibrary;
+import de.muenchen.allg.itd51.wollmux.core.functions.Values.SimpleMap;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.MailMergeSettings;
+
+/**
+ * Zwischenspeicher für die Ergebnisse von TRAFOs. Jede TRAFO wird nur einmal in
+ * der Funktionsbibliothek gesucht; ihre Ergebnisse werden zu den Werten ihrer
+ * Parameter gespeichert und bei gleichen Werten wiederverwendet. Das lohnt sich
+ * vor allem beim Seriendruck, wo z.B. die TRAFOs für Anreden über alle
+ * Datensätze nur wenige verschiedene Parameterwerte sehen.
+ *
+ * Ein TrafoCache wird entweder für eine Aktualisierung mehrerer Formularfelder
+ * (unbegrenzt) oder für einen ganzen Seriendruck angelegt. Im zweiten Fall
+ * werden höchstens {@link #SIZE_KEY} Ergebnisse vorgehalten und die am längsten
+ * nicht verwendeten verworfen. Die Methoden dürfen von mehreren Threads
+ * gleichzeitig aufgerufen werden.
+ */
+public class TrafoCache
+{
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der Ergebnisse,
+   * die während eines Seriendrucks vorgehalten werden. Bei 0 (Default) werden
+   * Ergebnisse wie bisher nur innerhalb eines Datensatzes wiederverwendet.
+   */
+  static final String SIZE_KEY = "TRAFO_CACHE_GROESSE";
+
+  private static final int DEFAULT_SIZE = 0;
+
+  private final FunctionLibrary funcLib;
+
+  private final Map<String, Optional<Function>> functions = new ConcurrentHashMap<>();
+
+  private final Map<List<String>, String> results;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param funcLib
+   *          die Funktionsbibliothek, in der die TRAFOs gesucht werden.
+   * @param maxSize
+   *          die Anzahl vorgehaltener Ergebnisse oder 0 für unbegrenzt.
+   */
+  TrafoCache(FunctionLibrary funcLib, final int maxSize)
+  {
+    this.funcLib = funcLib;
+    this.results = new LinkedHashMap<List<String>, String>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<List<String>, String> eldest)
+      {
+        return maxSize > 0 && size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Liefert die in {@link #SIZE_KEY} konfigurierte Größe für einen Seriendruck.
+   */
+  static int getJobSize()
+  {
+    return Math.max(0, MailMergeSettings.getInt(SIZE_KEY, DEFAULT_SIZE));
+  }
+
+  /**
+   * Wie {@link TextDocumentController#getTransformedValue(String, String)}: Für
+   * alle Parameter der TRAFO trafoName wird value übergeben.
+   */
+  public String transform(String trafoName, String value)
+  {
+    Function func = getFunction(trafoName);
+    if (func == null)
+      return TextDocumentController.getTransformedValue(funcLib, trafoName, value);
+
+    String[] pars = func.parameters();
+    List<String> key = new ArrayList<>(pars.length + 1);
+    key.add(trafoName);
+    for (int i = 0; i < pars.length; i++)
+      key.add(value);
+    return getResult(func, pars, key);
+  }
+
+  /**
+   * Wie {@link TextDocumentController#getTransformedValue(String)}: Die Werte der
+   * Parameter der TRAFO trafoName werden aus values bestimmt.
+   */
+  public String transform(String trafoName, Map<String, String> values)
+  {
+    Function func = getFunction(trafoName);
+    if (func == null)
+      return TextDocumentController.getTransformedValue(funcLib, trafoName, values);
+
+    String[] pars = func.parameters();
+    List<String> key = new ArrayList<>(pars.length + 1);
+    key.add(trafoName);
+    for (String par : pars)
+      key.add(values.get(par));
+    return getResult(func, pars, key);
+  }
+
+  private Function getFunction(String trafoName)
+  {
+    return functions.computeIfAbsent(trafoName,
+      name -> Optional.ofNullable(funcLib.get(name))).orElse(null);
+  }
+
+  /**
+   * Liefert das gespeicherte Ergebnis zu key (Name der TRAFO gefolgt von den
+   * Werten der Parameter pars) oder berechnet es mit func.
+   */
+  private String getResult(Function func, String[] pars, List<String> key)
+  {
+    synchronized (results)
+    {
+      String result = results.get(key);
+      if (result != null || results.containsKey(key))
+      {
+        hits.incrementAndGet();
+        return result;
+      }
+    }
+
+    misses.incrementAndGet();
+    SimpleMap args = new SimpleMap();
+    for (int i = 0; i < pars.length; i++)
+      args.put(pars[i], key.get(i + 1));
+    String result = func.getString(args);
+    synchronized (results)
+    {
+      results.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Liefert die Anzahl der Aufrufe, die ein gespeichertes Ergebnis geliefert
+   * haben.
+   */
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  /**
+   * Liefert die Anzahl der Aufrufe, für die die TRAFO ausgewertet werden musste.
+   */
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  /**
+   * Beschreibt Treffer und Fehlschläge für das Log.
+   */
+  public String getStatistics()
+  {
+    int size;
+    synchronized (results)
+    {
+      size = results.size();
+    }
+    return L.m("TRAFO-Cache: %1 Treffer, %2 Fehlschläge, %3 Einträge", getHits(),
+      getMisses(), size);
+  }
+}
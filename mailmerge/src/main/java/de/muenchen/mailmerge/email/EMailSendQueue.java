@@ -0,0 +1,300 @@
+/*
+ * Dateiname: EMailSendQueue.java
+ * Projekt  : WollMux
+ * Funktion : Teil des E-Mail-Wrappers für javamail
+ *
+ * Copyright (c) 2011-2015 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ */
+
+package de.muenchen.mailmerge.email;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.MailMergeSettings;
+
+/**
+ * Warteschlange, über die ein eigener Thread die beim Seriendruck erzeugten
+ * E-Mails verschickt, während der Seriendruck bereits die Anhänge der nächsten
+ * Datensätze erzeugt. Die Warteschlange ist beschränkt
+ * ({@link #CAPACITY_KEY}), so dass der Seriendruck wartet, wenn der Versand
+ * nicht nachkommt, und sich keine beliebig vielen Anhänge im temporären
+ * Verzeichnis ansammeln. Fehlgeschlagene E-Mails werden bis zu
+ * {@link #RETRIES_KEY} Mal wiederholt und danach gesammelt von
+ * {@link #finish(boolean)} zurückgeliefert. Nicht wiederholt werden E-Mails mit
+ * abgelehnten Empfängern ({@link SendFailedException}), da der Server sie
+ * evtl. schon an andere Empfänger ausgeliefert hat. Schlägt die Anmeldung am
+ * Mailserver fehl oder ist er auch nach den Wiederholungen nicht erreichbar, so
+ * wird der Versand ganz abgebrochen (siehe {@link #getAbortCause()}).
+ */
+public class EMailSendQueue
+{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(EMailSendQueue.class);
+
+  /**
+   * Schlüssel im Abschnitt SeriendruckEinstellungen für die maximale Anzahl der
+   * E-Mails, die auf ihren Versand warten dürfen.
+   */
+  public static final String CAPACITY_KEY = "EMAIL_WARTESCHLANGE";
+
+  /**
+   * Schlüssel im Abschnitt SeriendruckEinstellungen für die Anzahl der
+   * Wiederholungen, wenn der Versand einer E-Mail fehlschlägt.
+   */
+  public static final String RETRIES_KEY = "EMAIL_WIEDERHOLUNGEN";
+
+  private static final int DEFAULT_CAPACITY = 10;
+
+  private static final int DEFAULT_RETRIES = 2;
+
+  /**
+   * Wartezeit in Millisekunden vor einer Wiederholung.
+   */
+  private static final long RETRY_DELAY = 1000;
+
+  /**
+   * Markiert das Ende der Warteschlange.
+   */
+  private static final Entry END = new Entry(null, null, null);
+
+  private final BlockingQueue<Entry> queue;
+
+  private final MailServerConnection connection;
+
+  private final int retries;
+
+  private final Thread sender;
+
+  /**
+   * Beschreibungen der E-Mails, die nicht verschickt werden konnten.
+   */
+  private final List<String> failures =
+    Collections.synchronizedList(new ArrayList<String>());
+
+  /**
+   * Ist discard gesetzt, so werden noch wartende E-Mails nicht mehr verschickt.
+   */
+  private volatile boolean discard = false;
+
+  /**
+   * Der Fehler, wegen dem keine weiteren E-Mails verschickt werden, oder null.
+   */
+  private volatile MessagingException abortCause = null;
+
+  private static class Entry
+  {
+    final EMailSender mail;
+
+    final String to;
+
+    final File attachment;
+
+    Entry(EMailSender mail, String to, File attachment)
+    {
+      this.mail = mail;
+      this.to = to;
+      this.attachment = attachment;
+    }
+  }
+
+  /**
+   * Erzeugt eine Warteschlange, deren E-Mails über connection verschickt werden,
+   * und startet den Thread für den Versand.
+   */
+  public EMailSendQueue(MailServerConnection connection)
+  {
+    this.connection = connection;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1,
+      MailMergeSettings.getInt(CAPACITY_KEY, DEFAULT_CAPACITY)));
+    this.retries = Math.max(0, MailMergeSettings.getInt(RETRIES_KEY, DEFAULT_RETRIES));
+    this.sender = new Thread(this::run, "EMailSendQueue");
+    this.sender.setDaemon(true);
+    this.sender.start();
+  }
+
+  /**
+   * Stellt die E-Mail mail an den Empfänger to in die Warteschlange. Ist die
+   * Warteschlange voll, so wird gewartet, bis wieder Platz ist. Der Anhang
+   * attachment (darf null sein) wird nach dem Versand mit
+   * {@link #deleteAttachment(File)} gelöscht.
+   *
+   * @throws InterruptedException
+   *           wenn der aufrufende Thread beim Warten unterbrochen wird.
+   * @throws MessagingException
+   *           wenn der Versand wegen {@link #getAbortCause()} abgebrochen wurde.
+   */
+  public void enqueue(EMailSender mail, String to, File attachment)
+      throws InterruptedException, MessagingException
+  {
+    if (abortCause != null)
+      throw new MessagingException(L.m("Der E-Mail-Versand wurde abgebrochen."),
+        abortCause);
+    Entry entry = new Entry(mail, to, attachment);
+    while (!queue.offer(entry, 1, TimeUnit.SECONDS))
+    {
+      if (!sender.isAlive())
+        throw new IllegalStateException(L.m("Der Thread für den E-Mail-Versand ist beendet."));
+    }
+  }
+
+  /**
+   * Wartet, bis alle E-Mails der Warteschlange verschickt sind, schließt die
+   * Verbindung zum Mailserver und liefert die Beschreibungen der E-Mails zurück,
+   * die nicht verschickt werden konnten. Ist discardPending gesetzt (z.B. weil der
+   * Seriendruck abgebrochen wurde), so werden noch wartende E-Mails nicht mehr
+   * verschickt, sondern ebenfalls als nicht verschickt gemeldet.
+   */
+  public List<String> finish(boolean discardPending)
+  {
+    discard = discardPending;
+    try
+    {
+      queue.put(END);
+      sender.join();
+    }
+    catch (InterruptedException e)
+    {
+      LOGGER.error("", e);
+      Thread.currentThread().interrupt();
+    }
+    connection.close();
+    synchronized (failures)
+    {
+      return new ArrayList<>(failures);
+    }
+  }
+
+  private void run()
+  {
+    while (true)
+    {
+      Entry entry;
+      try
+      {
+        entry = queue.take();
+      }
+      catch (InterruptedException e)
+      {
+        LOGGER.error("", e);
+        return;
+      }
+      if (entry == END)
+        return;
+
+      try
+      {
+        if (discard || abortCause != null)
+          failures.add(L.m("%1: nicht verschickt (Abbruch)", entry.to));
+        else
+          send(entry);
+      }
+      catch (Exception e)
+      {
+        LOGGER.error("", e);
+        failures.add(L.m("%1: %2", entry.to, e.getMessage()));
+      }
+      finally
+      {
+        deleteAttachment(entry.attachment);
+      }
+    }
+  }
+
+  /**
+   * Löscht den Anhang attachment (darf null sein) und das Verzeichnis, in dem er
+   * liegt, sofern es danach leer ist. Jeder Anhang liegt in einem eigenen
+   * Verzeichnis, damit der Anhang eines Datensatzes nicht durch den eines
+   * späteren Datensatzes mit gleichem Dateinamen überschrieben wird, solange die
+   * E-Mail noch auf ihren Versand wartet.
+   */
+  public static void deleteAttachment(File attachment)
+  {
+    if (attachment == null)
+      return;
+    attachment.delete();
+    File dir = attachment.getParentFile();
+    if (dir != null)
+      dir.delete();
+  }
+
+  private void send(Entry entry) throws MessagingException, InterruptedException
+  {
+    for (int attempt = 0;; ++attempt)
+    {
+      try
+      {
+        entry.mail.sendMessage(connection);
+        return;
+      }
+      catch (MessagingException e)
+      {
+        if (e instanceof AuthenticationFailedException)
+        {
+          // Weitere Versuche würden nur das Konto sperren.
+          abortCause = e;
+          throw e;
+        }
+        if (e instanceof SendFailedException || attempt >= retries || discard)
+        {
+          if (isConnectionFailure(e))
+            abortCause = e;
+          throw e;
+        }
+        LOGGER.debug(L.m("Versand an %1 fehlgeschlagen. Wiederhole.", entry.to), e);
+        Thread.sleep(RETRY_DELAY);
+      }
+    }
+  }
+
+  /**
+   * Liefert den Fehler, wegen dem der Versand abgebrochen wurde (fehlgeschlagene
+   * Anmeldung oder Mailserver nicht erreichbar), oder null. Die danach noch
+   * wartenden E-Mails werden nicht mehr verschickt.
+   */
+  public MessagingException getAbortCause()
+  {
+    return abortCause;
+  }
+
+  /**
+   * Liefert true, wenn e (bzw. eine seiner Ursachen) auf eine unterbrochene oder
+   * nicht zustande gekommene Verbindung zum Mailserver zurückgeht.
+   */
+  private static boolean isConnectionFailure(MessagingException e)
+  {
+    for (Throwable t = e; t != null; t = t.getCause())
+    {
+      if (t instanceof IOException)
+        return true;
+    }
+    return false;
+  }
+}
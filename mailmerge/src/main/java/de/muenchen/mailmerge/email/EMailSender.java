@@ -21,6 +21,7 @@
 
 package de.muenchen.mailmerge.email;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
 import java.util.Properties;
@@ -34,7 +35,6 @@ import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Multipart;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
@@ -49,7 +49,6 @@ import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
 import de.muenchen.allg.itd51.wollmux.core.parser.NodeNotFoundException;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.mailmerge.MailMergeFiles;
-import de.muenchen.mailmerge.Workarounds;
 
 public class EMailSender
 {
@@ -61,6 +60,15 @@ public class EMailSender
 
   private static MailServerSettings mailserver = null;
 
+  /**
+   * Benutzername (darf null sein) und Passwort für den Mailserver, die ohne
+   * Display (z.B. im {@link de.muenchen.mailmerge.BatchMailMerge}) an Stelle der
+   * Abfrage im Dialog verwendet werden.
+   */
+  private static String headlessUsername = null;
+
+  private static String headlessPassword = null;
+
   public EMailSender()
   {
     props = new Properties();
@@ -94,30 +102,85 @@ public class EMailSender
     ((Multipart) email.getContent()).addBodyPart(messageBodyPart);
   }
 
+  /**
+   * Verschickt die E-Mail über eine eigene Verbindung zum Mailserver, die danach
+   * wieder geschlossen wird. Für den Versand vieler E-Mails sollte
+   * {@link #sendMessage(MailServerConnection)} verwendet werden.
+   */
   public void sendMessage() throws MessagingException
   {
+    try (MailServerConnection connection = openConnection())
+    {
+      sendMessage(connection);
+    }
+  }
+
+  /**
+   * Verschickt die E-Mail über die bestehende Verbindung connection.
+   */
+  public void sendMessage(MailServerConnection connection)
+      throws MessagingException
+  {
+    try
+    {
+      connection.send(email);
+    }
+    catch (MessagingException e)
+    {
+      // Den ursprünglichen Typ (z.B. SendFailedException) nicht verdecken, die
+      // EMailSendQueue entscheidet danach über eine Wiederholung.
+      mailserver = null;
+      throw e;
+    }
+  }
 
+  /**
+   * Liefert eine noch nicht verbundene {@link MailServerConnection} zu dem in der
+   * WollMux-Konfiguration (Abschnitt EMailEinstellungen) festgelegten Mailserver.
+   * Da der Benutzername ggf. aus dem Absender abgeleitet wird, darf die Methode
+   * erst nach {@link #createNewMultipartMail(String, String, String, String)}
+   * aufgerufen werden.
+   *
+   * @throws ConfigurationErrorException
+   *           wenn keine Angaben zum Mailserver gefunden wurden.
+   */
+  public MailServerConnection openConnection()
+  {
     if (mailserver == null)
     {
       mailserver = getWollMuxMailServerSettings();
     }
+    return new MailServerConnection(session, mailserver);
+  }
+
+  /**
+   * Legt Benutzername username (darf null sein, dann wird er wie im Dialog aus
+   * dem Absender abgeleitet) und Passwort password für die Authentifizierung am
+   * Mailserver fest, wenn ohne Display nicht danach gefragt werden kann.
+   */
+  public static void setHeadlessCredentials(String username, String password)
+  {
+    headlessUsername = username;
+    headlessPassword = password;
+  }
+
+  /**
+   * Liefert true, wenn laut WollMux-Konfiguration (AUTH_USER_PATTERN im
+   * Abschnitt EMailEinstellungen) eine Authentifizierung am Mailserver nötig
+   * ist.
+   */
+  public static boolean isAuthenticationRequired()
+  {
     try
     {
-      Workarounds.applyWorkaroundForOOoIssue102164();
-      Transport tr = session.getTransport("smtp");
-      Workarounds.applyWorkaroundForOOoIssue102164();
-      tr.connect(mailserver.getMailserver(), mailserver.getMailserverport(),
-        mailserver.getUsername(), mailserver.getPassword());
-      Workarounds.applyWorkaroundForOOoIssue102164();
-      email.saveChanges();
-
-      Workarounds.applyWorkaroundForOOoIssue102164();
-      tr.sendMessage(email, email.getAllRecipients());
+      ConfigThingy wollmuxconf =
+        MailMergeFiles.getWollmuxConf().query("EMailEinstellungen").getLastChild();
+      return wollmuxconf.query("AUTH_USER_PATTERN").count() == 1
+        && !wollmuxconf.get("AUTH_USER_PATTERN").toString().equals("");
     }
-    catch (MessagingException e)
+    catch (Exception e)
     {
-      mailserver = null;
-      throw new MessagingException(e.getMessage(), e);
+      return false;
     }
   }
 
@@ -160,6 +223,18 @@ public class EMailSender
           username = pattern.pattern();
         }
 
+        // Ohne Display kann nicht nachgefragt werden. Es wird nie ohne
+        // Authentifizierung versendet, wenn eine verlangt ist.
+        if (GraphicsEnvironment.isHeadless())
+        {
+          if (headlessPassword == null)
+            throw new ConfigurationErrorException(L.m(
+              "Für den E-Mail-Server ist eine Authentifizierung nötig, es wurde aber kein Passwort angegeben."));
+          mailserver.setUsername(headlessUsername != null ? headlessUsername : username);
+          mailserver.setPassword(headlessPassword);
+          return mailserver;
+        }
+
         JLabel jUserName = new JLabel(L.m("Benutzername"));
         JTextField userNameField = new JTextField(username);
         JLabel jPassword = new JLabel(L.m("Passwort"));
@@ -181,6 +256,10 @@ public class EMailSender
     }
     catch (NodeNotFoundException e)
     {}
+    catch (ConfigurationErrorException e)
+    {
+      throw e;
+    }
     catch (Exception e)
     {
       throw new ConfigurationErrorException();
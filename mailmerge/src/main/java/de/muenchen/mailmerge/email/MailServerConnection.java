@@ -0,0 +1,167 @@
+/*
+ * Dateiname: MailServerConnection.java
+ * Projekt  : WollMux
+ * Funktion : Teil des E-Mail-Wrappers für javamail
+ *
+ * Copyright (c) 2011-2015 Landeshauptstadt München
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the European Union Public Licence (EUPL),
+ * version 1.0 (or any later version).
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * European Union Public Licence for more details.
+ *
+ * You should have received a copy of the European Union Public Licence
+ * along with this program. If not, see
+ * http://ec.europa.eu/idabc/en/document/7330
+ */
+
+package de.muenchen.mailmerge.email;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.MailMergeSettings;
+import de.muenchen.mailmerge.Workarounds;
+
+/**
+ * Eine Verbindung zum Mailserver, über die mehrere E-Mails nacheinander
+ * verschickt werden können, ohne dass für jede E-Mail neu verbunden und
+ * authentifiziert werden muss. Die Verbindung wird beim ersten Versand
+ * aufgebaut, nach jeweils {@link #BATCH_SIZE_KEY} E-Mails erneuert (viele
+ * Mailserver begrenzen die Anzahl der Nachrichten je Verbindung) und bei einem
+ * Verbindungsabbruch einmalig neu aufgebaut. Nach Ende des Versands muss
+ * {@link #close()} aufgerufen werden.
+ */
+public class MailServerConnection implements AutoCloseable
+{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MailServerConnection.class);
+
+  /**
+   * Schlüssel im Abschnitt SeriendruckEinstellungen für die Anzahl der E-Mails,
+   * die über eine Verbindung verschickt werden, bevor diese erneuert wird.
+   */
+  public static final String BATCH_SIZE_KEY = "EMAIL_NACHRICHTEN_PRO_VERBINDUNG";
+
+  private static final int DEFAULT_BATCH_SIZE = 100;
+
+  private final Session session;
+
+  private final int batchSize;
+
+  private MailServerSettings mailserver;
+
+  private Transport transport = null;
+
+  /**
+   * Anzahl der über die aktuelle Verbindung verschickten E-Mails.
+   */
+  private int sentOverTransport = 0;
+
+  /**
+   * Erzeugt eine noch nicht verbundene Verbindung zum Mailserver mailserver.
+   */
+  public MailServerConnection(Session session, MailServerSettings mailserver)
+  {
+    this.session = session;
+    this.mailserver = mailserver;
+    int size = MailMergeSettings.getInt(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE);
+    this.batchSize = size > 0 ? size : DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * Verschickt email über die bestehende Verbindung. Ist die Verbindung noch
+   * nicht aufgebaut, abgebrochen oder wurde die Anzahl der Nachrichten pro
+   * Verbindung erreicht, so wird (neu) verbunden. Bricht eine bereits bestehende
+   * Verbindung beim Versand ab, so wird einmalig neu verbunden und der Versand
+   * wiederholt. Eine {@link SendFailedException} (z.B. abgelehnte Empfänger) wird
+   * nicht wiederholt, da der Server einen Teil der Empfänger bereits angenommen
+   * haben kann und die E-Mail sonst doppelt ankäme.
+   *
+   * @throws MessagingException
+   *           wenn die E-Mail auch nach erneutem Verbinden nicht verschickt
+   *           werden kann.
+   */
+  public synchronized void send(Message email) throws MessagingException
+  {
+    Workarounds.applyWorkaroundForOOoIssue102164();
+    email.saveChanges();
+
+    boolean reused = ensureConnected();
+    try
+    {
+      Workarounds.applyWorkaroundForOOoIssue102164();
+      transport.sendMessage(email, email.getAllRecipients());
+    }
+    catch (MessagingException e)
+    {
+      if (!reused || e instanceof SendFailedException)
+        throw e;
+      LOGGER.debug(L.m("Versand über bestehende Verbindung fehlgeschlagen. Verbinde neu."), e);
+      disconnect();
+      ensureConnected();
+      Workarounds.applyWorkaroundForOOoIssue102164();
+      transport.sendMessage(email, email.getAllRecipients());
+    }
+    ++sentOverTransport;
+  }
+
+  /**
+   * Stellt sicher, dass eine verwendbare Verbindung besteht und liefert true,
+   * wenn dabei eine bereits bestehende Verbindung wiederverwendet wurde.
+   */
+  private boolean ensureConnected() throws MessagingException
+  {
+    if (transport != null
+      && (sentOverTransport >= batchSize || !transport.isConnected()))
+      disconnect();
+
+    if (transport != null)
+      return true;
+
+    Workarounds.applyWorkaroundForOOoIssue102164();
+    Transport tr = session.getTransport("smtp");
+    Workarounds.applyWorkaroundForOOoIssue102164();
+    tr.connect(mailserver.getMailserver(), mailserver.getMailserverport(),
+      mailserver.getUsername(), mailserver.getPassword());
+    transport = tr;
+    sentOverTransport = 0;
+    return false;
+  }
+
+  private void disconnect()
+  {
+    if (transport == null)
+      return;
+    try
+    {
+      transport.close();
+    }
+    catch (MessagingException e)
+    {
+      LOGGER.debug("", e);
+    }
+    transport = null;
+  }
+
+  /**
+   * Schließt die Verbindung zum Mailserver, falls sie besteht. Ein späterer
+   * Aufruf von {@link #send(Message)} baut die Verbindung wieder auf.
+   */
+  @Override
+  public synchronized void close()
+  {
+    disconnect();
+  }
+}
@@ -50,6 +50,7 @@
 package de.muenchen.mailmerge.event;
 
 import java.awt.event.ActionListener;
+import java.util.Map;
 
 import com.google.common.eventbus.EventBus;
 import com.sun.star.beans.PropertyValue;
@@ -79,6 +80,7 @@ import de.muenchen.mailmerge.event.handlers.OnRegisterDispatchInterceptor;
 import de.muenchen.mailmerge.event.handlers.OnRemoveDocumentEventListener;
 import de.muenchen.mailmerge.event.handlers.OnSeriendruck;
 import de.muenchen.mailmerge.event.handlers.OnSetFormValue;
+import de.muenchen.mailmerge.event.handlers.OnSetFormValues;
 import de.muenchen.mailmerge.event.handlers.OnSetPrintBlocksPropsViaPrintModel;
 import de.muenchen.mailmerge.event.handlers.OnSetVisibleState;
 import de.muenchen.mailmerge.event.handlers.OnTextDocumentClosed;
@@ -409,6 +411,23 @@ public class MailMergeEventHandler
     handle(new OnSetFormValue(doc, id, value));
   }
 
+  /**
+   * Erzeugt ein neues WollMuxEvent, das im Textdokument doc alle Formularfelder aus
+   * values auf einmal auf ihre neuen Werte setzt (siehe {@link OnSetFormValues}).
+   * Wird vom Seriendruck einmal pro Datensatz verwendet, anstatt für jede Spalte
+   * ein eigenes {@link #handleSetFormValue(XTextDocument, String, String)}-Event
+   * zu erzeugen.
+   *
+   * @param doc
+   *          Das Dokument, in dem die Formularfelder neu gesetzt werden sollen.
+   * @param values
+   *          Abbildung der IDs der Formularfelder auf ihre neuen Werte.
+   */
+  public void handleSetFormValues(XTextDocument doc, Map<String, String> values)
+  {
+    handle(new OnSetFormValues(doc, values));
+  }
+
 
 
   // *******************************************************************************************
@@ -10,6 +10,7 @@ import com.sun.star.uno.RuntimeException;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.GarbageCollection;
 import de.muenchen.mailmerge.MailMergeFehlerException;
 import de.muenchen.mailmerge.ModalDialogs;
 
@@ -98,10 +99,14 @@ public abstract class BasicEvent implements WollMuxEvent
    * In der Vergangenheit gab es z.B. sporadische, nicht immer reproduzierbare
    * Abstürze von OOo, die vermutlich in einem fehlerhaften Speichermanagement in
    * der schwer zu durchschauenden Kette JVM->UNO-Proxies->OOo begründet waren.
+   *
+   * Da eine vollständige Garbage Collection alle Benutzer einer JavaVM aufhält,
+   * wird sie nur noch ausgelöst, wenn {@link GarbageCollection} entsprechend
+   * konfiguriert ist.
    */
   protected void stabilize()
   {
-    System.gc();
+    GarbageCollection.afterJob();
   }
 
   @Override
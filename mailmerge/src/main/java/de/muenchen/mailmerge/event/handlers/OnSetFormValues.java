@@ -0,0 +1,88 @@
+package de.muenchen.mailmerge.event.handlers;
+
+import java.util.Map;
+
+import com.sun.star.text.XTextDocument;
+
+import de.muenchen.allg.itd51.wollmux.core.form.model.FormModel;
+import de.muenchen.allg.itd51.wollmux.core.form.model.FormModelException;
+import de.muenchen.mailmerge.MailMergeFehlerException;
+import de.muenchen.mailmerge.document.DocumentManager;
+import de.muenchen.mailmerge.document.TextDocumentController;
+
+/**
+ * Erzeugt ein neues WollMuxEvent, das wie {@link OnSetFormValue} Formularfelder im
+ * Textdokument doc setzt, jedoch alle Werte eines Datensatzes auf einmal. Besitzt
+ * das Dokument keine Formularbeschreibung, so werden alle Werte gemeinsam
+ * übernommen und jedes betroffene Formularfeld nur einmal aktualisiert (siehe
+ * {@link TextDocumentController#addFormFieldValues(Map)}). Andernfalls werden die
+ * Werte nacheinander über das FormModel gesetzt, das sich um die abhängigen
+ * Formularfelder und Sichtbarkeiten kümmert.
+ *
+ * Das Event wird vom Seriendruck einmal pro Datensatz geworfen.
+ */
+public class OnSetFormValues extends BasicEvent
+{
+  private XTextDocument doc;
+
+  private Map<String, String> values;
+
+  /**
+   *
+   * @param doc
+   *          Das Dokument, in dem die Formularfelder neu gesetzt werden sollen.
+   * @param values
+   *          Abbildung der IDs der Formularfelder auf ihre neuen Werte. Die
+   *          Werte werden in der Iterationsreihenfolge von values gesetzt.
+   */
+  public OnSetFormValues(XTextDocument doc, Map<String, String> values)
+  {
+    this.doc = doc;
+    this.values = values;
+  }
+
+  @Override
+  protected void doit() throws MailMergeFehlerException
+  {
+    setFormValues(DocumentManager.getTextDocumentController(doc), values);
+  }
+
+  /**
+   * Setzt die Formularwerte values wie beschrieben im Dokument von
+   * documentController. Wird auch direkt (ohne Event) für unsichtbare Kopien des
+   * Hauptdokuments verwendet, die nur von einem Thread bearbeitet werden.
+   */
+  public static void setFormValues(TextDocumentController documentController,
+      Map<String, String> values)
+  {
+    FormModel model = null;
+    try
+    {
+      model = documentController.getFormModel();
+    } catch (FormModelException e)
+    {
+      // Werte selber setzen
+    }
+
+    if (model == null)
+    {
+      documentController.addFormFieldValues(values);
+      return;
+    }
+
+    for (Map.Entry<String, String> entry : values.entrySet())
+    {
+      // Wert zuerst entsetzen um sicher eine Änderung hervorzurufen.
+      // Denn ansonsten werden die Sichtbarkeiten nicht richtig aktualisiert.
+      model.setValue(entry.getKey(), "");
+      model.setValue(entry.getKey(), entry.getValue());
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return this.getClass().getSimpleName() + "(#" + doc.hashCode() + ", "
+      + values.size() + " values)";
+  }
+}
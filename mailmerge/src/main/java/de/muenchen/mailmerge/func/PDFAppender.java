@@ -0,0 +1,295 @@
+package de.muenchen.mailmerge.func;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
+import de.muenchen.mailmerge.MailMergeSettings;
+
+/**
+ * Fügt die von {@link PDFMailMerge#mailMergeOutput(XPrintModel)} erzeugten
+ * Einzel-PDFs bereits während des Seriendrucks zu einem Gesamtdokument zusammen.
+ * Die Einzeldokumente werden von mehreren Threads geladen (und ggf. für den
+ * Duplexdruck auf eine gerade Seitenzahl aufgefüllt), ein weiterer Thread hängt
+ * sie in der Reihenfolge von {@link #add(File)} an das Gesamtdokument an.
+ *
+ * Gesamtdokument und Einzeldokumente halten höchstens {@link #MAIN_MEMORY_KEY}
+ * MB im Hauptspeicher und lagern den Rest in temporäre Dateien von PDFBox aus.
+ */
+class PDFAppender
+{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PDFAppender.class);
+
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der Threads, die
+   * Einzeldokumente laden.
+   */
+  static final String LOADER_THREADS_KEY = "PDF_LADE_THREADS";
+
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für den Hauptspeicher in MB,
+   * den ein PDF-Dokument höchstens belegen darf, bevor ausgelagert wird.
+   */
+  static final String MAIN_MEMORY_KEY = "PDF_HAUPTSPEICHER_MB";
+
+  private static final int DEFAULT_LOADER_THREADS = 2;
+
+  private static final int DEFAULT_MAIN_MEMORY_MB = 32;
+
+  /**
+   * Markiert das Ende der Einzeldokumente.
+   */
+  private static final Part END = new Part(null, null);
+
+  private final PDDocument dest;
+
+  private final PDFMergerUtility merger = new PDFMergerUtility();
+
+  private final MemoryUsageSetting memUsage;
+
+  private final boolean duplex;
+
+  private final ExecutorService loaders;
+
+  /**
+   * Die geladenen bzw. noch ladenden Einzeldokumente in der Reihenfolge, in der
+   * sie angehängt werden. Die Beschränkung verhindert, dass beliebig viele
+   * geladene Dokumente auf das Anhängen warten.
+   */
+  private final BlockingQueue<Part> parts;
+
+  private final Thread appender;
+
+  private final AtomicInteger added = new AtomicInteger();
+
+  private final AtomicInteger appended = new AtomicInteger();
+
+  private volatile Exception error = null;
+
+  private volatile boolean aborted = false;
+
+  private static class Part
+  {
+    final File file;
+
+    final Future<PDDocument> doc;
+
+    Part(File file, Future<PDDocument> doc)
+    {
+      this.file = file;
+      this.doc = doc;
+    }
+  }
+
+  /**
+   * Erzeugt einen neuen PDFAppender mit leerem Gesamtdokument. Ist duplex
+   * gesetzt, so wird an Einzeldokumente mit ungerader Seitenzahl eine leere Seite
+   * angehängt.
+   */
+  PDFAppender(boolean duplex)
+  {
+    this.duplex = duplex;
+    long mainMemory = Math.max(1, MailMergeSettings.getInt(MAIN_MEMORY_KEY,
+      DEFAULT_MAIN_MEMORY_MB)) * 1024L * 1024L;
+    memUsage = MemoryUsageSetting.setupMixed(mainMemory);
+    dest = new PDDocument(memUsage);
+
+    int threads = Math.max(1, MailMergeSettings.getInt(LOADER_THREADS_KEY,
+      DEFAULT_LOADER_THREADS));
+    final AtomicInteger threadCount = new AtomicInteger();
+    loaders = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "PDFAppender-Loader-" + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    parts = new ArrayBlockingQueue<>(2 * threads);
+
+    appender = new Thread(this::run, "PDFAppender");
+    appender.setDaemon(true);
+    appender.start();
+  }
+
+  /**
+   * Lädt die pdf-Datei file im Hintergrund und hängt sie nach allen zuvor
+   * hinzugefügten Dateien an das Gesamtdokument an. Die Datei wird danach
+   * gelöscht. Warten bereits zu viele Dokumente auf das Anhängen, so blockiert
+   * die Methode, bis wieder Platz ist.
+   */
+  void add(final File file) throws InterruptedException
+  {
+    Future<PDDocument> doc = loaders.submit(new Callable<PDDocument>()
+    {
+      @Override
+      public PDDocument call() throws IOException
+      {
+        if (aborted || error != null)
+          return null;
+        PDDocument source = PDDocument.load(file, memUsage);
+        if (duplex && source.getNumberOfPages() % 2 != 0)
+          source.addPage(new PDPage(PDRectangle.A4));
+        return source;
+      }
+    });
+    parts.put(new Part(file, doc));
+    added.incrementAndGet();
+  }
+
+  /**
+   * Wartet, bis alle hinzugefügten Dateien angehängt sind, und zeigt den
+   * Fortschritt dabei in pmod an. Wurde pmod abgebrochen, so werden noch nicht
+   * angehängte Dateien verworfen. Das zurückgelieferte Gesamtdokument muss vom
+   * Aufrufer geschlossen werden, z.B. über {@link #abort()}.
+   *
+   * @throws Exception
+   *           wenn beim Laden oder Anhängen eines Einzeldokuments ein Fehler
+   *           aufgetreten ist.
+   */
+  PDDocument finish(XPrintModel pmod) throws Exception
+  {
+    parts.put(END);
+    pmod.setPrintProgressMaxValue((short) added.get());
+    while (appender.isAlive())
+    {
+      if (pmod.isCanceled())
+        aborted = true;
+      pmod.setPrintProgressValue((short) appended.get());
+      appender.join(200);
+    }
+    pmod.setPrintProgressValue((short) appended.get());
+    loaders.shutdown();
+
+    if (error != null)
+    {
+      dest.close();
+      throw error;
+    }
+    return dest;
+  }
+
+  /**
+   * Bricht das Zusammenfügen ab, z.B. wenn der Seriendruck mit einem Fehler
+   * endet, bevor {@link #finish(XPrintModel)} aufgerufen wurde. Beendet die
+   * Threads, löscht die noch nicht angehängten Dateien und schließt das
+   * Gesamtdokument, wodurch auch dessen temporäre Dateien von PDFBox gelöscht
+   * werden. Darf auch nach {@link #finish(XPrintModel)} aufgerufen werden.
+   */
+  void abort()
+  {
+    aborted = true;
+    appender.interrupt();
+    try
+    {
+      appender.join();
+    }
+    catch (InterruptedException e)
+    {
+      LOGGER.error("", e);
+      Thread.currentThread().interrupt();
+    }
+    loaders.shutdownNow();
+
+    Part part;
+    while ((part = parts.poll()) != null)
+    {
+      if (part == END)
+        continue;
+      // cancel() schlägt fehl, wenn das Dokument bereits geladen ist
+      if (!part.doc.cancel(true))
+      {
+        try
+        {
+          close(part.doc.get());
+        }
+        catch (Exception e)
+        {
+          LOGGER.debug("", e);
+        }
+      }
+      part.file.delete();
+    }
+    close(dest);
+  }
+
+  private static void close(PDDocument doc)
+  {
+    if (doc == null)
+      return;
+    try
+    {
+      doc.close();
+    }
+    catch (IOException e)
+    {
+      LOGGER.debug("", e);
+    }
+  }
+
+  private void run()
+  {
+    while (true)
+    {
+      Part part;
+      try
+      {
+        part = parts.take();
+      }
+      catch (InterruptedException e)
+      {
+        LOGGER.error("", e);
+        return;
+      }
+      if (part == END)
+        return;
+
+      PDDocument source = null;
+      try
+      {
+        source = part.doc.get();
+        if (source != null && !aborted && error == null)
+          merger.appendDocument(dest, source);
+      }
+      catch (InterruptedException e)
+      {
+        // von abort()
+        return;
+      }
+      catch (ExecutionException e)
+      {
+        setError(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+      }
+      catch (Exception e)
+      {
+        setError(e);
+      }
+      finally
+      {
+        close(source);
+        part.file.delete();
+        appended.incrementAndGet();
+      }
+    }
+  }
+
+  private void setError(Exception e)
+  {
+    if (error == null)
+      error = e;
+  }
+}
@@ -2,14 +2,8 @@ package de.muenchen.mailmerge.func;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map.Entry;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
-import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.common.PDRectangle;
 
 import com.sun.star.beans.PropertyState;
 import com.sun.star.beans.PropertyValue;
@@ -61,6 +55,8 @@ public class PDFMailMerge
 
   private static final String PDFMM_TMP_FILE_COUNT = "PDFMailMerge_PDFBox_TMP_FILE_COUNT";
 
+  private static final String PDFMM_APPENDER = "PDFMailMerge_PDFBox_APPENDER";
+
   /**
    * Die Aufgabe dieser Druckfunktion ist es, den Dialog zur Auswahl der
    * Optionen anzuzeigen, den Druck an Druckfunktionen mit höherem ORDER-Wert
@@ -101,10 +97,12 @@ public class PDFMailMerge
     }
     String pdfViewer = pd.getPDFViewerCmd();
     File outputFile = pd.getOutputFile();
+    File tmpOutputFile = null;
     if (outputFile == null)
       try
       {
         outputFile = File.createTempFile(TEMPFILE_PREFIX, ".pdf");
+        tmpOutputFile = outputFile;
       } catch (Exception e)
       {
         InfoDialog.showInfo(
@@ -128,116 +126,100 @@ public class PDFMailMerge
       pmod.cancel();
       return;
     }
+    boolean duplex = pd.isDuplexPrintRequired();
+    PDFAppender appender = new PDFAppender(duplex);
     try
     {
       pmod.setPropertyValue(PDFMM_TMP_OUTPUT_DIR, tmpOutDir.getAbsolutePath());
+      pmod.setPropertyValue(PDFMM_APPENDER, appender);
     } catch (Exception e)
     {
     }
 
-    // Druck weiterleiten an Druckfunktionen mit höherem ORDER-Wert
-    pmod.printWithProps();
-
-    // Ausgabedokument abschließen
-    PDFMergerUtility merger = new PDFMergerUtility();
-    merger.setDestinationFileName(outputFile.getAbsolutePath());
+    boolean done = false;
     try
     {
-      boolean duplex = pd.isDuplexPrintRequired();
-      PDDocument dest = new PDDocument();
-      pmod.setPrintProgressMaxValue((short) tmpOutDir.list().length);
-      short n = 1;
-      pmod.setPrintProgressValue(n++);
-
-      // Files alphabetisch sortieren:
-      SortedMap<String, File> sorter = new TreeMap<>();
-      for (File file : tmpOutDir.listFiles())
-        sorter.put(file.getName(), file);
+      // Druck weiterleiten an Druckfunktionen mit höherem ORDER-Wert. Die
+      // Einzeldokumente werden dabei bereits vom PDFAppender angehängt.
+      pmod.printWithProps();
 
-      // mergen
-      for (Entry<String, File> entry : sorter.entrySet())
-      {
-        if (pmod.isCanceled())
-        {
-          break;
-        }
-        File file = entry.getValue();
-        PDDocument source = PDDocument.load(file);
-        if (duplex && source.getNumberOfPages() % 2 != 0)
-          source.addPage(new PDPage(PDRectangle.A4));
-        merger.appendDocument(dest, source);
-        source.close();
-        file.delete();
-        pmod.setPrintProgressValue(n++);
-        Thread.sleep(1);
-      }
-      boolean tryagain = true;
-      while (tryagain)
+      // Ausgabedokument abschließen
+      try
       {
-        if (pmod.isCanceled())
-        {
-          break;
-        }
-        try
+        PDDocument dest = appender.finish(pmod);
+        boolean tryagain = true;
+        while (tryagain)
         {
-          dest.save(outputFile.getAbsolutePath());
-          // Erfolg also nicht nochmal versuchen
-          tryagain = false;
-        } catch (Exception ex)
-        {
-          InputDialog id = new InputDialog("Fehler beim PDF-Druck",
-              "Beim Schreiben in die Datei " + outputFile.getAbsolutePath()
-                  + " ist ein Fehler aufgetreten (" + ex.getMessage()
-                  + "), wollen Sie es erneut versuchen?", 80);
-          if (id.askForInput())
+          if (pmod.isCanceled())
           {
-            // Erneuter Versuch
-            tryagain = true;
-            ParametersDialog fileNameDialog = new ParametersDialog(
-                outputFile.getParent());
-            fileNameDialog.showDialog(false, outputFile.getAbsolutePath(),
-                pdfViewer, duplex);
-            if (fileNameDialog.isCanceled())
-            {
-              tryagain = false;
-              outputFile = null;
-            } else
+            break;
+          }
+          try
+          {
+            dest.save(outputFile.getAbsolutePath());
+            // Erfolg also nicht nochmal versuchen
+            tryagain = false;
+          } catch (Exception ex)
+          {
+            InputDialog id = new InputDialog("Fehler beim PDF-Druck",
+                "Beim Schreiben in die Datei " + outputFile.getAbsolutePath()
+                    + " ist ein Fehler aufgetreten (" + ex.getMessage()
+                    + "), wollen Sie es erneut versuchen?", 80);
+            if (id.askForInput())
             {
-              outputFile = fileNameDialog.getOutputFile();
-              if (outputFile == null)
+              // Erneuter Versuch
+              tryagain = true;
+              ParametersDialog fileNameDialog = new ParametersDialog(
+                  outputFile.getParent());
+              fileNameDialog.showDialog(false, outputFile.getAbsolutePath(),
+                  pdfViewer, duplex);
+              if (fileNameDialog.isCanceled())
               {
-                InfoDialog.showInfo(
-                    "Ausgabedatei konnte nicht ermittelt werden.", null, 80);
                 tryagain = false;
+                outputFile = null;
+              } else
+              {
+                outputFile = fileNameDialog.getOutputFile();
+                if (outputFile == null)
+                {
+                  InfoDialog.showInfo(
+                      "Ausgabedatei konnte nicht ermittelt werden.", null, 80);
+                  tryagain = false;
+                }
               }
+            } else
+            {
+              // Der Benutzer ignoriert den Fehler
+              tryagain = false;
+              outputFile = null;
             }
-          } else
-          {
-            // Der Benutzer ignoriert den Fehler
-            tryagain = false;
-            outputFile = null;
           }
         }
-        Thread.sleep(1);
+        done = true;
+      } catch (Exception e)
+      {
+        InfoDialog.showInfo("Fehler beim Verbinden der PDF-Dokumente:", e, 80);
+        pmod.cancel();
+        return;
       }
-
-      // aufräumen
-      dest.close();
+    } finally
+    {
+      // aufräumen, auch wenn printWithProps() oder finish() fehlschlägt: ohne
+      // finish() laufen sonst die Threads des PDFAppenders weiter.
+      appender.abort();
       // Wenn abgebrochen wird, sind immer noch Dateien da, die gelöscht
       // werden müssen.
-      if (tmpOutDir.listFiles().length > 0)
+      File[] files = tmpOutDir.listFiles();
+      if (files != null)
       {
-        for (File f : tmpOutDir.listFiles())
+        for (File f : files)
         {
           f.delete();
         }
       }
       tmpOutDir.delete();
-    } catch (Exception e)
-    {
-      InfoDialog.showInfo("Fehler beim Verbinden der PDF-Dokumente:", e, 80);
-      pmod.cancel();
-      return;
+      if (tmpOutputFile != null && (!done || pmod.isCanceled()))
+        tmpOutputFile.delete();
     }
 
     // Ausgabedokument anzeigen oder speichern
@@ -309,6 +291,11 @@ public class PDFMailMerge
                   PropertyState.DIRECT_VALUE),
               new PropertyValue("Overwrite", -1, "true",
                   PropertyState.DIRECT_VALUE) });
+
+      // sofort an das Gesamtdokument anhängen
+      PDFAppender appender = (PDFAppender) getProp(pmod, PDFMM_APPENDER);
+      if (appender != null)
+        appender.add(tmpFile);
     } catch (Exception e)
     {
       InfoDialog.showInfo(
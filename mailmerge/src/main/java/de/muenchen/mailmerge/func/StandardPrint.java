@@ -375,7 +375,12 @@ public class StandardPrint
     catch (UnknownPropertyException e)
     {}
 
-    PrintIntoFile.appendToFile(outputDoc, pmod.getTextDocument(), firstAppend);
+    PrintIntoFile.Appender appender =
+      PrintIntoFile.getAppender(pmod, outputDoc, firstAppend);
+    if (appender != null)
+      appender.append(pmod.getTextDocument());
+    else
+      PrintIntoFile.appendToFile(outputDoc, pmod.getTextDocument(), firstAppend);
 
     if (firstAppend)
       pmod.setPropertyValue("PrintIntoFile_PreviousOutputDocument", outputDoc);
@@ -430,7 +435,9 @@ public class StandardPrint
 
     OOoMailMergeToPrinter("oooMailMergeToPrinter", 200),
 
-    OOoMailMergeToOdtFile("oooMailMergeToOdtFile", 200);
+    OOoMailMergeToOdtFile("oooMailMergeToOdtFile", 200),
+
+    PrintIntoFile("printIntoFile", 200);
 
     private String intMethodName;
 
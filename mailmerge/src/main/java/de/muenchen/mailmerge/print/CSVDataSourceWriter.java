@@ -1,52 +1,103 @@
 package de.muenchen.mailmerge.print;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.muenchen.allg.itd51.wollmux.core.util.L;
+
 /**
  * Implementiert einen DataSourceWriter, der Daten in eine CSV-Datei data.csv in
  * einem frei wählbaren Zielverzeichnis schreibt.
  *
+ * Die Datensätze werden nicht im Speicher gesammelt, sondern direkt beim Aufruf
+ * von {@link #addDataset(Map)} an die csv-Datei angehängt. Die Spalten der Datei
+ * werden beim ersten Datensatz aus den im Konstruktor bekannt gemachten Spalten
+ * und den Schlüsseln des ersten Datensatzes festgelegt. Taucht später eine neue
+ * Spalte auf, so wird diese zunächst hinten angehängt und die Datei in
+ * {@link #flushAndClose()} einmalig mit vollständigem Header neu geschrieben.
+ *
  * @author Christoph Lutz (D-III-ITD-D101)
  */
 public class CSVDataSourceWriter implements DataSourceWriter
 {
+  private static final Logger LOGGER = LoggerFactory.getLogger(CSVDataSourceWriter.class);
+
   /**
    * Enthält die zu erzeugende bzw. erzeugte csv-Datei.
    */
   File csvFile = null;
 
   /**
-   * Sammelt alle über {@link #addDataset(HashMap)} gesetzten Datensätze
+   * Die bereits vor dem ersten Datensatz bekannten Spaltennamen.
    */
-  ArrayList<Map<String, String>> datasets;
+  HashSet<String> columns;
 
   /**
-   * Sammelt die Namen aller über {@link #addDataset(HashMap)} gesetzten Spalten.
+   * Enthält die Spalten in der Reihenfolge, in der sie in die csv-Datei
+   * geschrieben werden. Nach dem ersten Datensatz alphabetisch sortiert, spät
+   * hinzugekommene Spalten werden hinten angehängt.
    */
-  HashSet<String> columns;
+  ArrayList<String> headers = null;
 
   /**
-   * Enthält nach einem Aufruf von {@link #getHeaders()} die sortierten Headers.
+   * Ordnet jedem Spaltennamen aus {@link #headers} seine Position zu.
    */
-  ArrayList<String> headers = null;
+  HashMap<String, Integer> headerIndex = new HashMap<>();
+
+  /**
+   * Anzahl der Spalten, die bereits in die Kopfzeile der csv-Datei geschrieben
+   * wurden.
+   */
+  int writtenHeaderCount = 0;
+
+  /**
+   * Der Writer auf die csv-Datei oder null, wenn noch kein Datensatz geschrieben
+   * wurde bzw. die Datei bereits geschlossen ist.
+   */
+  Writer out = null;
+
+  /**
+   * Anzahl der bisher geschriebenen Datensätze.
+   */
+  int size = 0;
 
   /**
    * Erzeugt einen CSVDataSourceWriter, der die zu erzeugende csv-Datei in
    * parentDir ablegt.
    */
   public CSVDataSourceWriter(File parentDir)
+  {
+    this(parentDir, Collections.<String> emptySet());
+  }
+
+  /**
+   * Erzeugt einen CSVDataSourceWriter, der die zu erzeugende csv-Datei in
+   * parentDir ablegt und dabei bereits die Spalten knownColumns (z.B. das Schema
+   * der Seriendruckdaten) in die Kopfzeile aufnimmt.
+   */
+  public CSVDataSourceWriter(File parentDir, Collection<String> knownColumns)
   {
     csvFile = new File(parentDir, OOoBasedMailMerge.TABLE_NAME + ".csv");
-    datasets = new ArrayList<>();
-    columns = new HashSet<>();
+    columns = new HashSet<>(knownColumns);
   }
 
   /*
@@ -59,7 +110,7 @@ public class CSVDataSourceWriter implements DataSourceWriter
   @Override
   public int getSize()
   {
-    return datasets.size();
+    return size;
   }
 
   /*
@@ -72,8 +123,28 @@ public class CSVDataSourceWriter implements DataSourceWriter
   @Override
   public void addDataset(Map<String, String> ds) throws Exception
   {
-    datasets.add(ds);
-    columns.addAll(ds.keySet());
+    if (out == null)
+    {
+      if (headers != null)
+        throw new IllegalStateException(L.m("Die csv-Datei %1 ist bereits geschlossen", csvFile));
+      columns.addAll(ds.keySet());
+      open();
+    }
+
+    for (String key : ds.keySet())
+      if (!headerIndex.containsKey(key))
+        addHeader(key);
+
+    ArrayList<String> entries = new ArrayList<>(headers.size());
+    for (String key : headers)
+    {
+      String val = ds.get(key);
+      if (val == null)
+        val = "";
+      entries.add(val);
+    }
+    out.write(line(entries));
+    ++size;
   }
 
   /*
@@ -85,23 +156,161 @@ public class CSVDataSourceWriter implements DataSourceWriter
   @Override
   public void flushAndClose() throws Exception
   {
-    FileOutputStream fos = new FileOutputStream(csvFile);
-    try (PrintStream p = new PrintStream(fos, true, "UTF-8"))
+    if (out == null)
+    {
+      if (headers != null)
+        return;
+      open();
+    }
+
+    out.close();
+    out = null;
+
+    if (writtenHeaderCount < headers.size())
+      rewriteWithCompleteHeaders();
+  }
+
+  /**
+   * Schließt die csv-Datei, falls sie noch offen ist, und löscht sie samt einer
+   * evtl. übrig gebliebenen Zwischendatei von
+   * {@link #rewriteWithCompleteHeaders()}.
+   */
+  void discard()
+  {
+    if (out != null)
+    {
+      try
+      {
+        out.close();
+      }
+      catch (IOException e)
+      {
+        LOGGER.debug("", e);
+      }
+      out = null;
+    }
+    csvFile.delete();
+    new File(csvFile.getParentFile(), csvFile.getName() + ".spill").delete();
+  }
+
+  /**
+   * Legt die Kopfzeile aus den bisher bekannten Spalten fest und öffnet die
+   * csv-Datei zum Schreiben.
+   */
+  private void open() throws IOException
+  {
+    headers = new ArrayList<>(columns);
+    Collections.sort(headers);
+    for (int i = 0; i < headers.size(); ++i)
+      headerIndex.put(headers.get(i), i);
+    writtenHeaderCount = headers.size();
+
+    out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csvFile),
+        StandardCharsets.UTF_8));
+    out.write(line(headers));
+  }
+
+  private void addHeader(String column)
+  {
+    headerIndex.put(column, headers.size());
+    headers.add(column);
+  }
+
+  /**
+   * Schreibt die csv-Datei neu, nachdem nach dem ersten Datensatz weitere Spalten
+   * hinzugekommen sind. Die bereits geschriebenen Zeilen sind kürzer als die
+   * endgültige Kopfzeile und werden mit leeren Werten aufgefüllt; die Kopfzeile
+   * wird wieder alphabetisch sortiert.
+   */
+  private void rewriteWithCompleteHeaders() throws IOException
+  {
+    File spillFile = new File(csvFile.getParentFile(), csvFile.getName() + ".spill");
+    spillFile.delete();
+    if (!csvFile.renameTo(spillFile))
+      throw new IOException(L.m("Kann %1 nicht umbenennen", csvFile));
+
+    ArrayList<String> sorted = new ArrayList<>(headers);
+    Collections.sort(sorted);
+    int[] positions = new int[sorted.size()];
+    for (int i = 0; i < sorted.size(); ++i)
+      positions[i] = headerIndex.get(sorted.get(i));
+
+    try (Reader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(spillFile), StandardCharsets.UTF_8));
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+            csvFile), StandardCharsets.UTF_8)))
+    {
+      // alte Kopfzeile überspringen
+      readRecord(in);
+      w.write(line(sorted));
+
+      List<String> record;
+      while ((record = readRecord(in)) != null)
+      {
+        ArrayList<String> entries = new ArrayList<>(sorted.size());
+        for (int pos : positions)
+          entries.add(pos < record.size() ? record.get(pos) : "");
+        w.write(line(entries));
+      }
+    }
+    finally
+    {
+      spillFile.delete();
+    }
+
+    headers = sorted;
+    for (int i = 0; i < headers.size(); ++i)
+      headerIndex.put(headers.get(i), i);
+    writtenHeaderCount = headers.size();
+  }
+
+  /**
+   * Liest eine von {@link #line(List)} erzeugte Zeile aus in und liefert ihre
+   * Werte zurück oder null, wenn das Dateiende erreicht ist.
+   */
+  private static List<String> readRecord(Reader in) throws IOException
+  {
+    int c = in.read();
+    if (c < 0)
+      return null;
+
+    ArrayList<String> record = new ArrayList<>();
+    StringBuilder buf = new StringBuilder();
+    boolean quoted = false;
+    while (c >= 0)
     {
-      p.print(line(getHeaders()));
-      for (Map<String, String> ds : datasets)
+      if (quoted)
       {
-        ArrayList<String> entries = new ArrayList<>();
-        for (String key : getHeaders())
+        if (c == '"')
         {
-          String val = ds.get(key);
-          if (val == null)
-            val = "";
-          entries.add(val);
+          in.mark(1);
+          int next = in.read();
+          if (next == '"')
+            buf.append('"');
+          else
+          {
+            quoted = false;
+            if (next >= 0)
+              in.reset();
+          }
         }
-        p.print(line(entries));
+        else
+          buf.append((char) c);
       }
+      else if (c == '"')
+        quoted = true;
+      else if (c == ',')
+      {
+        record.add(buf.toString());
+        buf.setLength(0);
+      }
+      else if (c == '\n')
+        break;
+      c = in.read();
     }
+    if (!record.isEmpty() || buf.length() > 0)
+      record.add(buf.toString());
+    return record;
   }
 
   /**
@@ -135,21 +344,6 @@ public class CSVDataSourceWriter implements DataSourceWriter
     return "\"" + esc + "\"";
   }
 
-  /**
-   * Liefert eine alphabetisch sortierte Liste alle Spaltennamen zurück, die jemals
-   * über {@link #addDataset(HashMap)} benutzt bzw. gesetzt wurden.
-   *
-   * @author Christoph Lutz (D-III-ITD-D101)
-   */
-  private ArrayList<String> getHeaders()
-  {
-    if (headers != null)
-      return headers;
-    headers = new ArrayList<>(columns);
-    Collections.sort(headers);
-    return headers;
-  }
-
   /**
    * Liefert das File-Objekt der csv-Datei zurück, in die geschrieben wird/wurde.
    *
@@ -159,4 +353,4 @@ public class CSVDataSourceWriter implements DataSourceWriter
   {
     return csvFile;
   }
-}
\ No newline at end of file
+}
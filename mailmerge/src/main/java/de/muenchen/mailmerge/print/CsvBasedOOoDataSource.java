@@ -1,6 +1,8 @@
 package de.muenchen.mailmerge.print;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,9 +38,19 @@ public class CsvBasedOOoDataSource extends OOoDataSource
    * ablegt.
    */
   public CsvBasedOOoDataSource(File parentDir)
+  {
+    this(parentDir, Collections.<String> emptySet());
+  }
+
+  /**
+   * Erzeugt eine {@link OOoDataSource}, die als Backend eine CSV-Datei verwendet,
+   * die dafür notwendige Datei im Verzeichnis parentDir ablegt und die Spalten
+   * knownColumns von Anfang an in die Kopfzeile aufnimmt.
+   */
+  public CsvBasedOOoDataSource(File parentDir, Collection<String> knownColumns)
   {
     this.parentDir = parentDir;
-    this.dsw = new CSVDataSourceWriter(parentDir);
+    this.dsw = new CSVDataSourceWriter(parentDir, knownColumns);
   }
 
   /*
@@ -131,6 +143,6 @@ public class CsvBasedOOoDataSource extends OOoDataSource
   @Override
   public void remove()
   {
-    dsw.getCSVFile().delete();
+    dsw.discard();
   }
 }
\ No newline at end of file
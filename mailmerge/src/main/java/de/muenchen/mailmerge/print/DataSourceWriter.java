@@ -27,8 +27,9 @@ public interface DataSourceWriter
    * Nachdem mit {@link #addDataset(HashMap)} alle Datensätze hinzugefügt wurden
    * schließt der Aufruf dieser Methode die Erzeugung der Datenquelle ab. Nach dem
    * Aufruf von {@link #flushAndClose()} ist die Erzeugung abgeschlossen und es
-   * darf kein weiterer Aufruf von {@link #addDataset(HashMap)} erfolgen (bzw.
-   * dieser ist dann ohne Wirkung).
+   * darf kein weiterer Aufruf von {@link #addDataset(HashMap)} erfolgen (dieser
+   * wirft dann eine {@link IllegalStateException}, damit kein Datensatz
+   * unbemerkt verloren geht).
    *
    * @throws Exception
    *           falls etwas beim Finalisieren schief geht.
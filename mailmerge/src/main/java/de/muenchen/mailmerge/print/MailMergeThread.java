@@ -2,6 +2,7 @@ package de.muenchen.mailmerge.print;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,7 +15,9 @@ import com.sun.star.util.XCancellable;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 
 /**
- * A optional XCancellable mail merge thread.
+ * A optional XCancellable mail merge thread. The end of the mail merge is
+ * signalled by {@link #getCompletion()}, so callers don't need to poll the
+ * thread.
  *
  * @author Jan-Marek Glogowski (ITM-I23)
  */
@@ -27,6 +30,8 @@ class MailMergeThread extends Thread
 
   private Object result = null;
 
+  private final CompletableFuture<Object> completion = new CompletableFuture<>();
+
   private final XJob mailMerge;
 
   private final File outputDir;
@@ -62,7 +67,13 @@ class MailMergeThread extends Thread
     {
       LOGGER.debug(L.m("OOo-MailMergeService fehlgeschlagen: %1", e.getMessage()));
     }
-    mailMergeCancellable = null;
+    finally
+    {
+      // Auch bei einem Error (z.B. aus der UNO-Bridge) abschließen, da sonst
+      // ewig auf den Seriendruck gewartet wird.
+      mailMergeCancellable = null;
+      completion.complete(result);
+    }
   }
 
   public synchronized void cancel()
@@ -75,4 +86,13 @@ class MailMergeThread extends Thread
   {
     return result;
   }
+
+  /**
+   * Completed with the result of the mail merge service (or null, if it failed,
+   * even with an Error) as soon as the thread has finished.
+   */
+  public CompletableFuture<Object> getCompletion()
+  {
+    return completion;
+  }
 }
\ No newline at end of file
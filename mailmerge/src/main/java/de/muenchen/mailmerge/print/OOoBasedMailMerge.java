@@ -33,9 +33,16 @@ package de.muenchen.mailmerge.print;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,9 +58,12 @@ import com.sun.star.container.NoSuchElementException;
 import com.sun.star.container.XNameAccess;
 import com.sun.star.frame.XStorable;
 import com.sun.star.io.IOException;
+import com.sun.star.lang.DisposedException;
+import com.sun.star.lang.EventObject;
 import com.sun.star.lang.IllegalArgumentException;
 import com.sun.star.lang.XComponent;
 import com.sun.star.lang.XMultiServiceFactory;
+import com.sun.star.lang.XServiceInfo;
 import com.sun.star.lang.XSingleServiceFactory;
 import com.sun.star.sdb.CommandType;
 import com.sun.star.sdb.XDocumentDataSource;
@@ -72,6 +82,8 @@ import com.sun.star.uno.AnyConverter;
 import com.sun.star.uno.UnoRuntime;
 import com.sun.star.uno.XNamingService;
 import com.sun.star.util.CloseVetoException;
+import com.sun.star.util.XCloseListener;
+import com.sun.star.util.XCloseable;
 import com.sun.star.view.XPrintable;
 
 import de.muenchen.allg.afid.UNO;
@@ -88,9 +100,11 @@ import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommand.InsertFormValue;
 import de.muenchen.allg.itd51.wollmux.core.document.commands.DocumentCommands;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
+import de.muenchen.mailmerge.MailMergeSettings;
 import de.muenchen.mailmerge.ModalDialogs;
 import de.muenchen.mailmerge.SachleitendeVerfuegung;
 import de.muenchen.mailmerge.dialog.mailmerge.MailMergeControllerImpl;
+import de.muenchen.mailmerge.print.PreparedInputCache.PreparedInput;
 import de.muenchen.mailmerge.document.DocumentManager;
 import de.muenchen.mailmerge.print.model.PrintModels;
 
@@ -119,6 +133,42 @@ public class OOoBasedMailMerge
 
   static final char OPENSYMBOL_UNCHECKED = 0xE470;
 
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der Datensätze,
+   * die höchstens in einem Lauf des OOo-Seriendrucks verarbeitet werden. Größere
+   * Seriendrucke werden in mehrere Läufe aufgeteilt, deren Ergebnisse in der
+   * richtigen Reihenfolge zusammengefügt bzw. gedruckt werden. Bei 0 (Default)
+   * wird nicht aufgeteilt.
+   */
+  static final String SHARD_SIZE_KEY = "OOO_SERIENDRUCK_BLOCKGROESSE";
+
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der Läufe, die
+   * bei aufgeteiltem Seriendruck gleichzeitig laufen dürfen. Beim Druck auf einen
+   * Drucker laufen sie immer nacheinander.
+   */
+  static final String SHARD_THREADS_KEY = "OOO_SERIENDRUCK_THREADS";
+
+  private static final int DEFAULT_SHARD_SIZE = 0;
+
+  private static final int DEFAULT_SHARD_THREADS = 1;
+
+  private static final String SHARD_DIR_PREFIX = "shard";
+
+  private static final String OUTPUT_FILENAME = "output0.odt";
+
+  /**
+   * Pausen in ms zwischen den Versuchen, das Input-Dokument zu laden (siehe
+   * {@link #loadInputFile(String)}).
+   */
+  private static final long[] LOAD_RETRY_DELAYS = { 100, 200, 400, 800 };
+
+  /**
+   * Zeit in ms, die nach einem Veto auf das Schließen des Input-Dokuments gewartet
+   * wird, bevor es erneut versucht wird.
+   */
+  private static final long CLOSE_RETRY_TIMEOUT = 5000;
+
   private XPrintModel pmod;
 
   private OutputType type;
@@ -153,24 +203,67 @@ public class OOoBasedMailMerge
 
     File tmpDir = createMailMergeTempdir();
 
+    // Hauptdokument speichern und ggf. ein bereits angepasstes Input-Dokument samt
+    // registrierter Datenbank wiederverwenden
+    File inputFile = storeInputFile(tmpDir, pmod.getTextDocument());
+    String key = null;
+    if (inputFile != null && PreparedInputCache.isEnabled())
+      key = PreparedInputCache.createKey(inputFile, getSchema());
+    PreparedInput prepared = key != null ? PreparedInputCache.take(key) : null;
+    if (prepared != null)
+    {
+      LOGGER.debug(L.m("Verwende vorbereitetes Input-Dokument %1", prepared.inputFile));
+      inputFile.delete();
+      tmpDir.delete();
+      tmpDir = prepared.dir;
+    }
+
     // Datenquelle mit über mailMergeNewSetFormValue simulierten Daten erstellen
     OOoDataSource ds = createTempDatasource(tmpDir);
 
     if (ds == null) {
+      if (prepared != null)
+        PreparedInputCache.put(prepared);
+      else
+      {
+        if (inputFile != null)
+          inputFile.delete();
+        tmpDir.delete();
+      }
       return;
     }
 
-    XDocumentDataSource dataSource = ds.createXDocumentDatasource();
+    if (prepared == null)
+    {
+      XDocumentDataSource dataSource = ds.createXDocumentDatasource();
 
-    String dbName = registerTempDatasouce(dataSource);
+      String name = registerTempDatasouce(dataSource);
 
-    File inputFile =
-      createAndAdjustInputFile(tmpDir, pmod.getTextDocument(), dbName);
+      if (inputFile != null)
+        prepared = adjustInputFile(key, tmpDir, inputFile, name);
+      else
+        prepared = new PreparedInput(key, tmpDir, name, null, 0);
+    }
+    String dbName = prepared.dbName;
+    inputFile = prepared.inputFile;
 
     LOGGER.debug(L.m("Temporäre Datenquelle: %1", dbName));
 
     if (pmod.isCanceled())
+    {
+      ds.remove();
+      release(prepared);
       return;
+    }
+
+    int nextSets = prepared.nextSets > 0 ? prepared.nextSets
+        : countNextSets(pmod.getTextDocument());
+    int shardSize = getShardSize(nextSets);
+    if (shardSize > 0 && ds.getSize() > shardSize)
+    {
+      startSharded(ds, prepared, nextSets, shardSize);
+      return;
+    }
 
     Object result = null;
 
@@ -182,11 +275,12 @@ public class OOoBasedMailMerge
         PrintModels.setStage(pmod, L.m("Gesamtdokument erzeugen"));
         ProgressUpdater updater =
           new ProgressUpdater(pmod, (int) Math.ceil((double) ds.getSize()
-            / countNextSets(pmod.getTextDocument())));
+            / nextSets));
 
         String pNameSD = getSelectedPrinterName();
 
-        thread = runMailMerge(dbName, tmpDir, inputFile, updater, type, pNameSD);
+        thread = runMailMerge(dbName, tmpDir, inputFile, updater, type, pNameSD,
+          null);
       }
       catch (Exception e)
       {
@@ -195,33 +289,28 @@ public class OOoBasedMailMerge
 
       // Warte auf Ende des MailMerge-Threads unter Berücksichtigung von
       // pmod.isCanceled()
-      while (thread != null && thread.isAlive())
+      if (thread != null)
       {
-        try
+        List<MailMergeThread> running = Collections.singletonList(thread);
+        while (!thread.getCompletion().isDone() && !pmod.isCanceled())
         {
-          thread.join(1000);
-          if (pmod.isCanceled())
-          {
-            thread.cancel();
+          if (!awaitAny(running))
             break;
-          }
         }
-        catch (InterruptedException e)
-        {}
-      }
 
-      if (pmod.isCanceled() && thread.isAlive())
-      {
-        thread.interrupt();
-        LOGGER.debug(L.m("Der OOo-Seriendruck wurde abgebrochen"));
-        // aber aufräumen tun wir noch...
-      }
+        if (pmod.isCanceled() && thread.isAlive())
+        {
+          thread.cancel();
+          thread.interrupt();
+          LOGGER.debug(L.m("Der OOo-Seriendruck wurde abgebrochen"));
+          // aber aufräumen tun wir noch...
+        }
 
-      result = thread.getResult();
+        result = thread.getResult();
+      }
     } finally {
-      removeTempDatasource(dbName, tmpDir);
       ds.remove();
-      inputFile.delete();
+      release(prepared);
     }
 
     // ... jetzt können wir nach Benutzerabbruch aufhören
@@ -239,6 +328,255 @@ public class OOoBasedMailMerge
     tmpDir.delete();
   }
 
+  /**
+   * Gibt das Input-Dokument und die Datenbank von prepared nach dem Seriendruck
+   * zur Wiederverwendung an den {@link PreparedInputCache} zurück oder räumt sie
+   * weg, wenn der Seriendruck abgebrochen wurde oder nichts vorgehalten wird. Das
+   * Verzeichnis selbst wird in beiden Fällen nicht gelöscht, da es noch das
+   * Ergebnis enthalten kann.
+   */
+  private void release(PreparedInput prepared)
+  {
+    if (prepared.key != null && prepared.inputFile != null && !pmod.isCanceled())
+    {
+      PreparedInputCache.put(prepared);
+      return;
+    }
+    removeTempDatasource(prepared.dbName, prepared.dir);
+    if (prepared.inputFile != null)
+      prepared.inputFile.delete();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Collection<String> getSchema()
+  {
+    return (Collection<String>) pmod.getProp("MailMergeNew_Schema",
+      Collections.emptySet());
+  }
+
+  /**
+   * Liefert die Anzahl der Datensätze pro Lauf bei aufgeteiltem Seriendruck oder 0,
+   * wenn nicht aufgeteilt wird. Da jedes Dokument nextSets Datensätze verbraucht,
+   * wird auf ein Vielfaches davon aufgerundet.
+   */
+  private static int getShardSize(int nextSets)
+  {
+    int shardSize = MailMergeSettings.getInt(SHARD_SIZE_KEY, DEFAULT_SHARD_SIZE);
+    if (shardSize <= 0)
+      return 0;
+    return (shardSize + nextSets - 1) / nextSets * nextSets;
+  }
+
+  /**
+   * Führt den Seriendruck über die Datenquelle ds und das Input-Dokument prepared
+   * in mehreren Läufen mit jeweils höchstens shardSize Datensätzen aus. Jeder Lauf verwendet über die Property
+   * "Selection" des MailMerge-Services einen Ausschnitt derselben Datenquelle und
+   * legt sein Ergebnis in einem eigenen Unterverzeichnis von tmpDir ab. Beim Druck
+   * auf einen Drucker entsteht pro Lauf ein Druckauftrag, sonst werden die
+   * Ergebnisse in der Reihenfolge der Läufe zu einem Gesamtdokument
+   * zusammengefügt, das wie bei {@link OutputType#toFile} geöffnet wird. Der
+   * Fortschritt wird über alle Läufe gemeinsam angezeigt.
+   */
+  private void startSharded(OOoDataSource ds, PreparedInput prepared,
+      int nextSets, int shardSize)
+  {
+    String dbName = prepared.dbName;
+    File tmpDir = prepared.dir;
+    File inputFile = prepared.inputFile;
+    int rows = ds.getSize();
+    int shards = (rows + shardSize - 1) / shardSize;
+    OutputType shardType =
+      type == OutputType.toPrinter ? OutputType.toPrinter : OutputType.toFile;
+    int parallel = 1;
+    if (shardType != OutputType.toPrinter)
+      parallel = Math.max(1, Math.min(shards,
+        MailMergeSettings.getInt(SHARD_THREADS_KEY, DEFAULT_SHARD_THREADS)));
+
+    LOGGER.debug(L.m("OOo-Seriendruck in %1 Läufen mit je %2 Datensätzen", shards,
+      shardSize));
+
+    List<MailMergeThread> running = new ArrayList<>();
+    try
+    {
+      PrintModels.setStage(pmod, L.m("Gesamtdokument erzeugen"));
+      ProgressUpdater updater =
+        new ProgressUpdater(pmod, (int) Math.ceil((double) rows / nextSets));
+      String pNameSD = getSelectedPrinterName();
+
+      int next = 0;
+      while (!pmod.isCanceled() && (next < shards || !running.isEmpty()))
+      {
+        while (next < shards && running.size() < parallel)
+        {
+          File shardDir = new File(tmpDir, SHARD_DIR_PREFIX + next);
+          shardDir.mkdir();
+          int first = next * shardSize;
+          running.add(runMailMerge(dbName, shardDir, inputFile, updater,
+            shardType, pNameSD, createSelection(first, Math.min(rows, first
+              + shardSize))));
+          ++next;
+        }
+
+        if (!awaitAny(running))
+          break;
+        running.removeIf(t -> t.getCompletion().isDone());
+      }
+
+      if (pmod.isCanceled())
+        LOGGER.debug(L.m("Der OOo-Seriendruck wurde abgebrochen"));
+      else if (shardType == OutputType.toFile)
+      {
+        PrintModels.setStage(pmod, L.m("Teildokumente zusammenfügen"));
+        mergeShardOutputs(tmpDir, shards);
+      }
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("Fehler beim Starten des OOo-Seriendrucks"), e);
+      pmod.cancel();
+    }
+    finally
+    {
+      // Nach Abbruch oder Fehler noch laufende Läufe beenden
+      for (MailMergeThread t : running)
+      {
+        t.cancel();
+        t.interrupt();
+      }
+      ds.remove();
+      release(prepared);
+      for (int i = 0; i < shards; ++i)
+      {
+        File shardDir = new File(tmpDir, SHARD_DIR_PREFIX + i);
+        new File(shardDir, OUTPUT_FILENAME).delete();
+        shardDir.delete();
+      }
+    }
+
+    if (pmod.isCanceled())
+      return;
+
+    if (shardType == OutputType.toFile)
+      openFinishedFile(tmpDir);
+
+    tmpDir.delete();
+  }
+
+  /**
+   * Wartet, bis einer der Läufe aus running fertig ist oder der Seriendruck
+   * abgebrochen wird. Wird der wartende Thread unterbrochen (z.B. weil die
+   * Druckfunktion von ihrem Aufrufer abgebrochen wurde), so werden die Läufe und
+   * der Seriendruck abgebrochen und false zurückgeliefert; der Aufrufer darf dann
+   * nicht weiter warten.
+   */
+  private boolean awaitAny(List<MailMergeThread> running)
+  {
+    CompletableFuture<?>[] events = new CompletableFuture<?>[running.size() + 1];
+    for (int i = 0; i < running.size(); ++i)
+      events[i] = running.get(i).getCompletion();
+    events[running.size()] = PrintModels.getCancellation(pmod);
+    try
+    {
+      CompletableFuture.anyOf(events).get();
+    }
+    catch (InterruptedException e)
+    {
+      LOGGER.debug(L.m("Warten auf den OOo-Seriendruck wurde unterbrochen"), e);
+      Thread.currentThread().interrupt();
+      for (MailMergeThread t : running)
+      {
+        t.cancel();
+        t.interrupt();
+      }
+      pmod.cancel();
+      return false;
+    }
+    catch (ExecutionException e)
+    {
+      LOGGER.debug("", e);
+    }
+    return true;
+  }
+
+  /**
+   * Liefert die Datensatznummern (beginnend mit 1) first+1 bis to für die Property
+   * "Selection" des MailMerge-Services.
+   */
+  private static Object[] createSelection(int first, int to)
+  {
+    Object[] selection = new Object[to - first];
+    for (int i = 0; i < selection.length; ++i)
+      selection[i] = Integer.valueOf(first + i + 1);
+    return selection;
+  }
+
+  /**
+   * Fügt die Ergebnisse der Läufe aus den Unterverzeichnissen von tmpDir in der
+   * Reihenfolge der Läufe mit einem {@link PrintIntoFile.Appender} zusammen und
+   * speichert das Gesamtdokument als {@link #OUTPUT_FILENAME} in tmpDir.
+   */
+  private void mergeShardOutputs(File tmpDir, int shards) throws Exception
+  {
+    XComponent output = null;
+    PrintIntoFile.Appender appender = null;
+    try
+    {
+      for (int i = 0; i < shards && !pmod.isCanceled(); ++i)
+      {
+        File shardFile =
+          new File(new File(tmpDir, SHARD_DIR_PREFIX + i), OUTPUT_FILENAME);
+        if (!shardFile.exists())
+        {
+          LOGGER.error(L.m("Teildokument %1 fehlt", shardFile));
+          continue;
+        }
+        String url = UNO.getParsedUNOUrl(shardFile.toURI().toString()).Complete;
+        if (output == null)
+        {
+          output = UNO.loadComponentFromURL(url, false, false, true);
+          appender = new PrintIntoFile.Appender(UNO.XTextDocument(output), false, 1);
+          continue;
+        }
+
+        XComponent part = UNO.loadComponentFromURL(url, false, false, true);
+        try
+        {
+          appender.append(UNO.XTextDocument(part));
+        }
+        finally
+        {
+          closeHidden(part);
+        }
+      }
+
+      if (output != null && !pmod.isCanceled())
+      {
+        File outputFile = new File(tmpDir, OUTPUT_FILENAME);
+        UNO.XStorable(output).storeToURL(
+          UNO.getParsedUNOUrl(outputFile.toURI().toString()).Complete,
+          new PropertyValue[] {});
+      }
+    }
+    finally
+    {
+      closeHidden(output);
+    }
+  }
+
+  private static void closeHidden(XComponent doc)
+  {
+    if (UNO.XCloseable(doc) == null)
+      return;
+    try
+    {
+      UNO.XCloseable(doc).close(true);
+    }
+    catch (CloseVetoException e)
+    {
+      LOGGER.error("", e);
+    }
+  }
+
   private void showFinishedDocument(Object result)
   {
     XTextDocument doc = UNO.XTextDocument(result);
@@ -260,7 +598,7 @@ public class OOoBasedMailMerge
   private void openFinishedFile(File tmpDir)
   {
     // Output-File als Template öffnen und aufräumen
-    File outputFile = new File(tmpDir, "output0.odt");
+    File outputFile = new File(tmpDir, OUTPUT_FILENAME);
     if (outputFile.exists())
       try
       {
@@ -284,18 +622,26 @@ public class OOoBasedMailMerge
 
   private OOoDataSource createTempDatasource(File tmpDir)
   {
-    OOoDataSource ds = new CsvBasedOOoDataSource(tmpDir);
+    OOoDataSource ds = null;
     try
     {
+      // Das Schema ist vorab bekannt, damit kann die csv-Datei schon während der
+      // Simulation Zeile für Zeile geschrieben werden.
+      ds = new CsvBasedOOoDataSource(tmpDir, getSchema());
       MailMergeControllerImpl.mailMergeNewSetFormValue(pmod, ds);
+      ds.getDataSourceWriter().flushAndClose();
       if (pmod.isCanceled())
+      {
+        ds.remove();
         return null;
-      ds.getDataSourceWriter().flushAndClose();
+      }
     }
     catch (Exception e)
     {
       LOGGER.error(
         L.m("OOo-Based-MailMerge: kann Simulationsdatenquelle nicht erzeugen!"), e);
+      if (ds != null)
+        ds.remove();
       return null;
     }
     if (ds.getSize() == 0)
@@ -304,6 +650,7 @@ public class OOoBasedMailMerge
         L.m("WollMux-Seriendruck"),
         L.m("Der Seriendruck wurde abgebrochen, da Ihr Druckauftrag keine Datensätze enthält."));
       pmod.cancel();
+      ds.remove();
       return null;
     }
     return ds;
@@ -331,15 +678,14 @@ public class OOoBasedMailMerge
   }
 
   /**
-   * Erzeugt das aus origDoc abgeleitete, für den OOo-Seriendruck heranzuziehende
-   * Input-Dokument im Verzeichnis tmpDir und nimmt alle notwendigen Anpassungen vor,
-   * damit der Seriendruck über die temporäre Datenbank dbName korrekt und möglichst
-   * performant funktioniert, und liefert dieses zurück.
+   * Speichert origDoc als das für den OOo-Seriendruck heranzuziehende
+   * Input-Dokument im Verzeichnis tmpDir und liefert dieses zurück (oder null, wenn
+   * das nicht möglich ist). Die Anpassungen nimmt
+   * {@link #adjustInputFile(String, File, File, String)} vor.
    *
    * @author Christoph Lutz (D-III-ITD-D101) TESTED
    */
-  private File createAndAdjustInputFile(File tmpDir, XTextDocument origDoc,
-      String dbName)
+  private File storeInputFile(File tmpDir, XTextDocument origDoc)
   {
     // Aktuelles Dokument speichern als neues input-Dokument
     if (origDoc == null)
@@ -365,16 +711,23 @@ public class OOoBasedMailMerge
     {
       return null;
     }
+    return inputFile;
+  }
 
-    // Workaround für #16487
-    try
-    {
-      Thread.sleep(1000);
-    }
-    catch (InterruptedException e2)
-    {
-      LOGGER.error("", e2);
-    }
+  /**
+   * Nimmt am mit {@link #storeInputFile(File, XTextDocument)} im Verzeichnis
+   * tmpDir erzeugten Input-Dokument inputFile alle notwendigen Anpassungen vor,
+   * damit der Seriendruck über die temporäre Datenbank dbName korrekt und
+   * möglichst performant funktioniert, und liefert es als PreparedInput zum
+   * Schlüssel key zurück (mit inputFile null, wenn das Dokument nicht gespeichert
+   * werden konnte).
+   *
+   * @author Christoph Lutz (D-III-ITD-D101) TESTED
+   */
+  private PreparedInput adjustInputFile(String key, File tmpDir, File inputFile,
+      String dbName)
+  {
+    String url = UNO.getParsedUNOUrl(inputFile.toURI().toString()).Complete;
 
     // Neues input-Dokument öffnen. Achtung: Normalerweise würde der
     // loadComponentFromURL den WollMux veranlassen, das Dokument zu interpretieren
@@ -383,20 +736,22 @@ public class OOoBasedMailMerge
     // d.m.a.i.wollmux.event.GlobalEventListener.isTempMailMergeDocument(XModel
     // compo) über den Pfad der Datei dass es sich um ein temporäres Dokument handelt
     // und dieses nicht bearbeitet werden soll.
-    XComponent tmpDoc = null;
-    try
-    {
-      tmpDoc = UNO.loadComponentFromURL(url, false, false, true);
-    }
-    catch (Exception e)
-    {
-      return null;
-    }
-
-    // neues input-Dokument bearbeiten/anpassen
+    XComponent tmpDoc = loadInputFile(url);
+    if (tmpDoc == null)
+      return new PreparedInput(key, tmpDir, dbName, null, 0);
+
+    // neues input-Dokument bearbeiten/anpassen. Nur deMuxSLVStyles() läuft über
+    // den Text (die Absätze); Textbereiche, Textfelder und Bookmarks werden über
+    // ihre eigenen Sammlungen des Dokuments (XTextSectionsSupplier,
+    // XTextFieldsSupplier, XBookmarksSupplier) direkt angesprochen, und die
+    // Metadaten liegen nicht im Text. Ein gemeinsamer Durchlauf über den Text
+    // müsste diese Objekte erst in allen Absätzen (inkl. Kopf-/Fußzeilen und
+    // Rahmen) suchen und wäre daher langsamer. Die Reihenfolge ist festgelegt:
+    // Die Bookmarks werden erst entfernt, wenn die Datenbankfelder in sie
+    // eingefügt sind.
     addDatabaseFieldsForInsertFormValueBookmarks(UNO.XTextDocument(tmpDoc), dbName);
     updateTextSections(UNO.XTextDocument(tmpDoc));
-    adjustDatabaseAndInputUserFields(tmpDoc, dbName);
+    int nextSets = adjustDatabaseAndInputUserFields(tmpDoc, dbName);
     removeAllBookmarks(tmpDoc);
     // removeHiddenSections(tmpDoc);
     SachleitendeVerfuegung.deMuxSLVStyles(UNO.XTextDocument(tmpDoc));
@@ -419,27 +774,117 @@ public class OOoBasedMailMerge
       inputFile = null;
     }
 
-    boolean closed = false;
-    if (UNO.XCloseable(tmpDoc) != null)
-      do
+    closeInputFile(tmpDoc);
+
+    return new PreparedInput(key, tmpDir, dbName, inputFile, nextSets);
+  }
+
+  /**
+   * Lädt das gerade gespeicherte Input-Dokument url unsichtbar oder liefert null,
+   * wenn das nicht möglich ist.
+   *
+   * Workaround für #16487: Direkt nach dem Speichern lässt sich das Dokument nicht
+   * immer sofort laden. Statt vor jedem Laden pauschal zu warten, wird das Laden
+   * nur dann nach den Pausen aus {@link #LOAD_RETRY_DELAYS} wiederholt, wenn es
+   * fehlschlägt.
+   */
+  private static XComponent loadInputFile(String url)
+  {
+    for (int attempt = 0;; ++attempt)
+    {
+      try
       {
-        try
-        {
-          UNO.XCloseable(tmpDoc).close(true);
-          closed = true;
-        }
-        catch (CloseVetoException e)
-        {
-          try
-          {
-            Thread.sleep(2000);
-          }
-          catch (InterruptedException e1)
-          {}
-        }
-      } while (!closed);
+        XComponent doc = UNO.loadComponentFromURL(url, false, false, true);
+        if (doc != null)
+          return doc;
+      }
+      catch (Exception e)
+      {
+        LOGGER.debug("", e);
+      }
 
-    return inputFile;
+      if (attempt >= LOAD_RETRY_DELAYS.length)
+      {
+        LOGGER.error(L.m("Kann Input-Dokument %1 nicht laden", url));
+        return null;
+      }
+      try
+      {
+        Thread.sleep(LOAD_RETRY_DELAYS[attempt]);
+      }
+      catch (InterruptedException e)
+      {
+        LOGGER.error("", e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Schließt das angepasste Input-Dokument doc und kehrt erst zurück, wenn es
+   * wirklich geschlossen ist, da der MailMerge-Service die Datei sonst nicht
+   * laden kann. Legt jemand ein Veto ein, so geht das Dokument durch close(true)
+   * an ihn über und er schließt es, sobald er es nicht mehr braucht. Darauf wird
+   * über einen XCloseListener gewartet; erst wenn innerhalb von
+   * {@link #CLOSE_RETRY_TIMEOUT} ms nichts geschieht, wird das Schließen erneut
+   * versucht.
+   */
+  private static void closeInputFile(XComponent doc)
+  {
+    XCloseable closeable = UNO.XCloseable(doc);
+    if (closeable == null)
+      return;
+
+    final CompletableFuture<Void> closed = new CompletableFuture<>();
+    closeable.addCloseListener(new XCloseListener()
+    {
+      @Override
+      public void queryClosing(EventObject event, boolean getsOwnership)
+      {}
+
+      @Override
+      public void notifyClosing(EventObject event)
+      {
+        closed.complete(null);
+      }
+
+      @Override
+      public void disposing(EventObject event)
+      {
+        closed.complete(null);
+      }
+    });
+
+    while (!closed.isDone())
+    {
+      try
+      {
+        closeable.close(true);
+        return;
+      }
+      catch (CloseVetoException e)
+      {
+        LOGGER.debug(L.m("Schließen des Input-Dokuments verzögert"), e);
+      }
+      catch (DisposedException e)
+      {
+        return;
+      }
+
+      try
+      {
+        closed.get(CLOSE_RETRY_TIMEOUT, TimeUnit.MILLISECONDS);
+      }
+      catch (TimeoutException | ExecutionException e)
+      {
+        LOGGER.debug("", e);
+      }
+      catch (InterruptedException e)
+      {
+        LOGGER.error("", e);
+        return;
+      }
+    }
   }
 
   private void updateTextSections(XTextDocument doc)
@@ -637,13 +1082,17 @@ public class OOoBasedMailMerge
   /**
    * Passt bereits enthaltene OOo-Seriendruckfelder und Nächster-Datensatz-Felder in
    * tmpDoc so an, dass sie über die Datenbank dbName befüllt werden und ersetzt
-   * InputUser-Felder durch entsprechende OOo-Seriendruckfelder.
+   * InputUser-Felder durch entsprechende OOo-Seriendruckfelder. Da dabei ohnehin
+   * alle Textfelder durchlaufen werden, werden die "Nächster Datensatz"-Felder
+   * gleich mitgezählt; zurückgeliefert wird dasselbe Ergebnis wie bei
+   * {@link #countNextSets(XComponent)}.
    *
    * @author Christoph Lutz (D-III-ITD-D101) TESTED
    */
-  private void adjustDatabaseAndInputUserFields(XComponent tmpDoc,
+  private int adjustDatabaseAndInputUserFields(XComponent tmpDoc,
       String dbName)
   {
+    int numberOfNextSets = 1;
     if (UNO.XTextFieldsSupplier(tmpDoc) != null)
     {
       for (XDependentTextField tf : UnoCollection.getCollection(UNO.XTextFieldsSupplier(tmpDoc).getTextFields(), XDependentTextField.class))
@@ -653,8 +1102,10 @@ public class OOoBasedMailMerge
           continue;
         }
 
+        List<String> services = getSupportedServices(tf);
+
         // Database-Felder anpassen auf temporäre Datenquelle/Tabelle
-        if (UNO.supportsService(tf, "com.sun.star.text.TextField.Database"))
+        if (services.contains("com.sun.star.text.TextField.Database"))
         {
           XPropertySet master = tf.getTextFieldMaster();
           UNO.setProperty(master, "DataBaseName", dbName);
@@ -662,14 +1113,15 @@ public class OOoBasedMailMerge
         }
 
         // "Nächster Datensatz"-Felder anpassen auf temporäre Datenquelle/Tabelle
-        if (UNO.supportsService(tf, "com.sun.star.text.TextField.DatabaseNextSet"))
+        if (services.contains("com.sun.star.text.TextField.DatabaseNextSet"))
         {
+          numberOfNextSets++;
           UNO.setProperty(tf, "DataBaseName", dbName);
           UNO.setProperty(tf, "DataTableName", TABLE_NAME);
         }
 
         // InputUser-Felder ersetzen durch entsprechende Database-Felder
-        else if (UNO.supportsService(tf, "com.sun.star.text.TextField.InputUser"))
+        else if (services.contains("com.sun.star.text.TextField.InputUser"))
         {
           String content = "";
           try
@@ -698,11 +1150,26 @@ public class OOoBasedMailMerge
         }
       }
     }
+    return numberOfNextSets;
+  }
+
+  /**
+   * Liefert die Services, die das Textfeld tf unterstützt, mit nur einem Aufruf
+   * über UNO.
+   */
+  private static List<String> getSupportedServices(XDependentTextField tf)
+  {
+    XServiceInfo info = UnoRuntime.queryInterface(XServiceInfo.class, tf);
+    if (info == null)
+      return Collections.emptyList();
+    return Arrays.asList(info.getSupportedServiceNames());
   }
 
   /**
    * Zählt die Anzahl an "Nächster Datensatz"-Feldern zur Berechnung der Gesamtzahl
-   * der zu verarbeitenden Dokumente.
+   * der zu verarbeitenden Dokumente. Wird nur benötigt, wenn das Input-Dokument
+   * nicht über {@link #adjustDatabaseAndInputUserFields(XComponent, String)}
+   * angepasst wurde.
    *
    * @author Ignaz Forster (ITM-I23)
    */
@@ -718,7 +1185,7 @@ public class OOoBasedMailMerge
           continue;
         }
 
-        if (UNO.supportsService(tf, "com.sun.star.text.TextField.DatabaseNextSet"))
+        if (getSupportedServices(tf).contains("com.sun.star.text.TextField.DatabaseNextSet"))
         {
           numberOfNextSets++;
         }
@@ -762,7 +1229,7 @@ public class OOoBasedMailMerge
    *
    * @author Christoph Lutz (D-III-ITD-D101)
    */
-  private void removeTempDatasource(String dbName, File tmpDir)
+  static void removeTempDatasource(String dbName, File tmpDir)
   {
     XSingleServiceFactory dbContext =
       UNO.XSingleServiceFactory(UNO.createUNOService("com.sun.star.sdb.DatabaseContext"));
@@ -779,6 +1246,16 @@ public class OOoBasedMailMerge
     new File(tmpDir, DATASOURCE_ODB_FILENAME).delete();
   }
 
+  /**
+   * Liefert true, wenn in OOo eine Datenbank mit dem Namen dbName registriert ist.
+   */
+  static boolean isDatasourceRegistered(String dbName)
+  {
+    XNameAccess nameAccess =
+      UNO.XNameAccess(UNO.createUNOService("com.sun.star.sdb.DatabaseContext"));
+    return nameAccess != null && nameAccess.hasByName(dbName);
+  }
+
   /**
    * Registriert die {@link XDocumentDataSource} dataSource mit einem neuen
    * Zufallsnamen in OOo (so, dass sie z.B. in der Liste der Datenbanken unter
@@ -883,6 +1360,9 @@ public class OOoBasedMailMerge
    *          wird.
    * @param printerName
    *          Drucker fuer den Seriendruck
+   * @param selection
+   *          die Nummern der zu verarbeitenden Datensätze (beginnend mit 1) oder
+   *          null, wenn alle Datensätze verarbeitet werden sollen.
    * @throws Exception
    *           falls der MailMergeService nicht erzeugt werden kann.
    *
@@ -890,40 +1370,18 @@ public class OOoBasedMailMerge
    */
   private MailMergeThread runMailMerge(String dbName, final File outputDir,
       File inputFile, final ProgressUpdater progress, final OutputType type,
-      String printerName) throws Exception
+      String printerName, Object[] selection) throws Exception
   {
     final XJob mailMerge =
       UnoRuntime.queryInterface(XJob.class, UNO.xMCF.createInstanceWithContext(
         "com.sun.star.text.MailMerge", UNO.defaultContext));
 
-    // Register MailMergeEventListener
-    XMailMergeBroadcaster xmmb =
-      UnoRuntime.queryInterface(XMailMergeBroadcaster.class, mailMerge);
-    xmmb.addMailMergeEventListener(new XMailMergeListener()
-    {
-      int count = 0;
-
-      final long start = System.currentTimeMillis();
-
-      @Override
-      public void notifyMailMergeEvent(MailMergeEvent arg0)
-      {
-        if (progress != null)
-          progress.incrementProgress();
-        count++;
-        LOGGER.trace(L.m("OOo-MailMerger: verarbeite Datensatz %1 (%2 ms)", count,
-          (System.currentTimeMillis() - start)));
-        if (count >= progress.maxDatasets && type == OutputType.toPrinter)
-        {
-          progress.setMessage(L.m("Sende Druckauftrag - bitte warten... (Dies kann einige Minuten dauern)"));
-        }
-      }
-    });
-
     final ArrayList<NamedValue> mmProps = new ArrayList<>();
     mmProps.add(new NamedValue("DataSourceName", dbName));
     mmProps.add(new NamedValue("CommandType", CommandType.TABLE));
     mmProps.add(new NamedValue("Command", TABLE_NAME));
+    if (selection != null)
+      mmProps.add(new NamedValue("Selection", selection));
     mmProps.add(new NamedValue("DocumentURL",
       UNO.getParsedUNOUrl(inputFile.toURI().toString()).Complete));
     mmProps.add(new NamedValue("OutputURL",
@@ -955,7 +1413,36 @@ public class OOoBasedMailMerge
       }
       // jgm ende
     }
-    MailMergeThread t = new MailMergeThread(mailMerge, outputDir, mmProps);
+
+    final MailMergeThread t = new MailMergeThread(mailMerge, outputDir, mmProps);
+
+    // Register MailMergeEventListener
+    XMailMergeBroadcaster xmmb =
+      UnoRuntime.queryInterface(XMailMergeBroadcaster.class, mailMerge);
+    xmmb.addMailMergeEventListener(new XMailMergeListener()
+    {
+      int count = 0;
+
+      final long start = System.currentTimeMillis();
+
+      @Override
+      public void notifyMailMergeEvent(MailMergeEvent arg0)
+      {
+        // Bei aufgeteiltem Seriendruck zählt progress die Dokumente aller Läufe.
+        int total = progress.incrementProgress();
+        count++;
+        LOGGER.trace(L.m("OOo-MailMerger: verarbeite Datensatz %1 (%2 ms)", count,
+          (System.currentTimeMillis() - start)));
+        // Abbruch auch bei Druckmodellen erkennen, die ihn nicht selbst melden
+        if (pmod.isCanceled())
+          t.cancel();
+        if (total >= progress.maxDatasets && type == OutputType.toPrinter)
+        {
+          progress.setMessage(L.m("Sende Druckauftrag - bitte warten... (Dies kann einige Minuten dauern)"));
+        }
+      }
+    });
+
     t.start();
     return t;
   }
@@ -11,14 +11,14 @@ import com.sun.star.sdb.XDocumentDataSource;
 import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormField;
 import de.muenchen.allg.itd51.wollmux.core.document.FormFieldFactory.FormFieldType;
 import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults;
-import de.muenchen.allg.itd51.wollmux.core.document.SimulationResults.SimulationResultsProcessor;
+import de.muenchen.mailmerge.document.SimulationBaseline;
 
 /**
  * Repräsentiert eine (noch nicht registrierte) Datenquelle für OpenOffice.org.
  *
  * @author Christoph Lutz (D-III-ITD-D101)
  */
-public abstract class OOoDataSource implements SimulationResultsProcessor
+public abstract class OOoDataSource implements SimulationBaseline.Processor
 {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(OOoDataSource.class);
@@ -53,6 +53,17 @@ public abstract class OOoDataSource implements SimulationResultsProcessor
    */
   public abstract void remove();
 
+  /**
+   * Die SimulationBaseline, zu der {@link #baselineColumns} berechnet wurde.
+   */
+  private SimulationBaseline baseline;
+
+  /**
+   * Die Spalten, die sich aus den Inhalten der Formularfelder in {@link #baseline}
+   * ergeben.
+   */
+  private Map<String, String> baselineColumns;
+
   /*
    * (non-Javadoc)
    *
@@ -67,24 +78,77 @@ public abstract class OOoDataSource implements SimulationResultsProcessor
       return;
 
     HashMap<String, String> data = new HashMap<>(simRes.getFormFieldValues());
-    for (FormField field : simRes.getFormFields())
+    addColumns(data, simRes);
+    addDataset(data, simRes);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * de.muenchen.mailmerge.document.SimulationBaseline.Processor#processSimulationResults
+   * (de.muenchen.allg.itd51.wollmux.core.document.SimulationResults,
+   * de.muenchen.mailmerge.document.SimulationBaseline)
+   */
+  @Override
+  public void processSimulationResults(SimulationResults simRes,
+      SimulationBaseline baseline)
+  {
+    if (simRes == null)
+      return;
+
+    if (this.baseline != baseline)
     {
-      String columnName = OOoBasedMailMerge.getSpecialColumnNameForFormField(field);
-      if (columnName == null)
-        continue;
-      String content = simRes.getFormFieldContent(field);
-
-      // Checkboxen müssen über bestimmte Zeichen der Schriftart OpenSymbol
-      // angenähert werden.
-      if (field.getType() == FormFieldType.CHECKBOX_FORM_FIELD)
-        if (content.equalsIgnoreCase("TRUE"))
-          content = "" + OOoBasedMailMerge.OPENSYMBOL_CHECKED;
-        else
-          content = "" + OOoBasedMailMerge.OPENSYMBOL_UNCHECKED;
-
-      data.put(columnName, content);
+      Map<String, String> columns = new HashMap<>();
+      for (Map.Entry<FormField, String> entry : baseline.getFormFieldContents().entrySet())
+        addColumn(columns, entry.getKey(), entry.getValue());
+      this.baseline = baseline;
+      this.baselineColumns = columns;
     }
 
+    HashMap<String, String> data = new HashMap<>(simRes.getFormFieldValues());
+    data.putAll(baselineColumns);
+    addColumns(data, simRes);
+    addDataset(data, simRes);
+  }
+
+  /**
+   * Fügt data die Spalten für die Inhalte der Formularfelder aus simRes hinzu.
+   */
+  private static void addColumns(Map<String, String> data, SimulationResults simRes)
+  {
+    for (FormField field : simRes.getFormFields())
+      addColumn(data, field, simRes.getFormFieldContent(field));
+  }
+
+  /**
+   * Fügt data die Spalte für den Inhalt content des Formularfelds field hinzu,
+   * falls field eine eigene Spalte benötigt.
+   */
+  private static void addColumn(Map<String, String> data, FormField field,
+      String content)
+  {
+    String columnName = OOoBasedMailMerge.getSpecialColumnNameForFormField(field);
+    if (columnName == null)
+      return;
+
+    // Checkboxen müssen über bestimmte Zeichen der Schriftart OpenSymbol
+    // angenähert werden.
+    if (field.getType() == FormFieldType.CHECKBOX_FORM_FIELD)
+      if (content.equalsIgnoreCase("TRUE"))
+        content = "" + OOoBasedMailMerge.OPENSYMBOL_CHECKED;
+      else
+        content = "" + OOoBasedMailMerge.OPENSYMBOL_UNCHECKED;
+
+    data.put(columnName, content);
+  }
+
+  /**
+   * Ergänzt data um die Sichtbarkeiten der Gruppen aus simRes und schreibt den
+   * Datensatz in die Datenquelle.
+   */
+  private void addDataset(Map<String, String> data, SimulationResults simRes)
+  {
     for (Map.Entry<String, Boolean> entry : simRes.getGroupsVisibilityState().entrySet())
     {
       LOGGER.info("{} --> {}", entry.getKey(), entry.getValue());
@@ -95,9 +159,13 @@ public abstract class OOoDataSource implements SimulationResultsProcessor
     {
       getDataSourceWriter().addDataset(data);
     }
+    catch (IllegalStateException e)
+    {
+      throw e;
+    }
     catch (Exception e)
     {
       LOGGER.error("", e);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,287 @@
+package de.muenchen.mailmerge.print;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.star.frame.TerminationVetoException;
+import com.sun.star.frame.XTerminateListener;
+import com.sun.star.lang.EventObject;
+
+import de.muenchen.allg.afid.UNO;
+import de.muenchen.mailmerge.MailMergeSettings;
+
+/**
+ * Hält für den OOo-Seriendruck bereits angepasste Input-Dokumente zusammen mit
+ * der dafür registrierten temporären Datenbank vor, damit bei wiederholtem
+ * Seriendruck mit demselben Hauptdokument nur noch die csv-Datei mit den
+ * Datensätzen neu geschrieben werden muss.
+ *
+ * Der Schlüssel eines Eintrags wird aus dem Inhalt des gespeicherten
+ * Hauptdokuments (ohne Metadaten, Ansichtseinstellungen und Vorschaubild) und den
+ * Spalten der Datenquelle gebildet (siehe {@link #createKey(File, Collection)}).
+ * Es werden höchstens {@link #SIZE_KEY} Einträge vorgehalten; ältere Einträge
+ * werden verworfen und ihre Datenbank deregistriert. Da die Registrierung der
+ * Datenbanken das Beenden von Office überdauert, werden beim Beenden alle
+ * Einträge verworfen (siehe {@link #disposeAll()}).
+ */
+class PreparedInputCache
+{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(PreparedInputCache.class);
+
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION} für die Anzahl der
+   * vorgehaltenen Input-Dokumente. Bei 0 (Default) wird nichts vorgehalten.
+   */
+  static final String SIZE_KEY = "OOO_SERIENDRUCK_CACHE";
+
+  private static final int DEFAULT_SIZE = 0;
+
+  /**
+   * Einträge des gespeicherten Dokuments, die sich bei jedem Speichern ändern und
+   * nicht in den Schlüssel eingehen.
+   */
+  private static final List<String> VOLATILE_ENTRIES =
+    Arrays.asList("meta.xml", "settings.xml", "Thumbnails/");
+
+  /**
+   * Die vorgehaltenen Einträge in der Reihenfolge ihrer letzten Verwendung.
+   */
+  private static final Map<String, PreparedInput> entries = new LinkedHashMap<>();
+
+  /**
+   * Ist true, sobald der Listener registriert ist, der beim Beenden von Office
+   * {@link #disposeAll()} aufruft.
+   */
+  private static boolean terminateListenerRegistered = false;
+
+  private PreparedInputCache()
+  {}
+
+  /**
+   * Ein angepasstes Input-Dokument im Verzeichnis dir mit der dafür registrierten
+   * Datenbank dbName, die auf die csv-Datei in dir verweist. nextSets enthält die
+   * beim Anpassen ermittelte Anzahl der Datensätze pro Dokument (Anzahl der
+   * "Nächster Datensatz"-Felder plus 1) oder 0, wenn sie nicht bekannt ist.
+   */
+  static class PreparedInput
+  {
+    final String key;
+
+    final File dir;
+
+    final String dbName;
+
+    final File inputFile;
+
+    final int nextSets;
+
+    PreparedInput(String key, File dir, String dbName, File inputFile, int nextSets)
+    {
+      this.key = key;
+      this.dir = dir;
+      this.dbName = dbName;
+      this.inputFile = inputFile;
+      this.nextSets = nextSets;
+    }
+  }
+
+  /**
+   * Liefert true, wenn Input-Dokumente vorgehalten werden sollen.
+   */
+  static boolean isEnabled()
+  {
+    return getSize() > 0;
+  }
+
+  private static int getSize()
+  {
+    return Math.max(0, MailMergeSettings.getInt(SIZE_KEY, DEFAULT_SIZE));
+  }
+
+  /**
+   * Bildet den Schlüssel zum gespeicherten, noch nicht angepassten Hauptdokument
+   * storedDoc und den Spalten schema der Datenquelle oder liefert null, wenn die
+   * Datei nicht gelesen werden kann.
+   */
+  static String createKey(File storedDoc, Collection<String> schema)
+  {
+    try (ZipFile zip = new ZipFile(storedDoc))
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      List<ZipEntry> zipEntries = new ArrayList<>(Collections.list(zip.entries()));
+      zipEntries.sort((a, b) -> a.getName().compareTo(b.getName()));
+      byte[] buf = new byte[8192];
+      for (ZipEntry entry : zipEntries)
+      {
+        if (isVolatile(entry.getName()))
+          continue;
+        digest.update(entry.getName().getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = zip.getInputStream(entry))
+        {
+          int n;
+          while ((n = in.read(buf)) > 0)
+            digest.update(buf, 0, n);
+        }
+      }
+
+      List<String> columns = new ArrayList<>(schema);
+      Collections.sort(columns);
+      for (String column : columns)
+      {
+        digest.update((byte) 0);
+        digest.update(column.getBytes(StandardCharsets.UTF_8));
+      }
+
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest())
+        key.append(String.format("%02x", b));
+      return key.toString();
+    }
+    catch (IOException | NoSuchAlgorithmException e)
+    {
+      LOGGER.debug("", e);
+      return null;
+    }
+  }
+
+  private static boolean isVolatile(String name)
+  {
+    for (String prefix : VOLATILE_ENTRIES)
+    {
+      if (name.startsWith(prefix))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Entnimmt den Eintrag zum Schlüssel key, falls vorhanden und noch gültig. Der
+   * Eintrag steht bis zur Rückgabe mit {@link #put(PreparedInput)} keinem anderen
+   * Seriendruck zur Verfügung.
+   */
+  static PreparedInput take(String key)
+  {
+    PreparedInput prepared;
+    synchronized (entries)
+    {
+      prepared = entries.remove(key);
+    }
+    if (prepared == null)
+      return null;
+
+    if (prepared.inputFile.exists()
+      && OOoBasedMailMerge.isDatasourceRegistered(prepared.dbName))
+      return prepared;
+
+    dispose(prepared);
+    return null;
+  }
+
+  /**
+   * Nimmt prepared (wieder) auf und verwirft dabei die am längsten nicht
+   * verwendeten Einträge, wenn es zu viele sind. Ist das Vorhalten abgeschaltet,
+   * so wird prepared sofort verworfen.
+   */
+  static void put(PreparedInput prepared)
+  {
+    List<PreparedInput> evicted = new ArrayList<>();
+    int size = getSize();
+    synchronized (entries)
+    {
+      PreparedInput old = entries.remove(prepared.key);
+      if (old != null)
+        evicted.add(old);
+      if (size > 0)
+      {
+        entries.put(prepared.key, prepared);
+        registerTerminateListener();
+      }
+      else
+        evicted.add(prepared);
+
+      Iterator<PreparedInput> iter = entries.values().iterator();
+      while (entries.size() > size && iter.hasNext())
+      {
+        evicted.add(iter.next());
+        iter.remove();
+      }
+    }
+
+    for (PreparedInput p : evicted)
+      dispose(p);
+  }
+
+  /**
+   * Verwirft alle vorgehaltenen Einträge.
+   */
+  static void disposeAll()
+  {
+    List<PreparedInput> disposed;
+    synchronized (entries)
+    {
+      disposed = new ArrayList<>(entries.values());
+      entries.clear();
+    }
+
+    for (PreparedInput p : disposed)
+      dispose(p);
+  }
+
+  /**
+   * Sorgt dafür, dass beim Beenden von Office alle Einträge verworfen werden.
+   * Muss mit gehaltener Sperre auf {@link #entries} aufgerufen werden.
+   */
+  private static void registerTerminateListener()
+  {
+    if (terminateListenerRegistered || UNO.desktop == null)
+      return;
+
+    UNO.desktop.addTerminateListener(new XTerminateListener()
+    {
+      @Override
+      public void disposing(EventObject arg0)
+      {
+      }
+
+      @Override
+      public void queryTermination(EventObject arg0) throws TerminationVetoException
+      {
+      }
+
+      @Override
+      public void notifyTermination(EventObject arg0)
+      {
+        disposeAll();
+      }
+    });
+    terminateListenerRegistered = true;
+  }
+
+  /**
+   * Deregistriert die Datenbank von prepared und löscht dessen Dateien.
+   */
+  static void dispose(PreparedInput prepared)
+  {
+    OOoBasedMailMerge.removeTempDatasource(prepared.dbName, prepared.dir);
+    prepared.inputFile.delete();
+    prepared.dir.delete();
+  }
+}
@@ -30,6 +30,14 @@
  */
 package de.muenchen.mailmerge.print;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,7 +45,9 @@ import de.muenchen.allg.itd51.wollmux.XPrintModel;
 import de.muenchen.allg.itd51.wollmux.core.functions.ExternalFunction;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigThingy;
 import de.muenchen.allg.itd51.wollmux.core.parser.ConfigurationErrorException;
+import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.mailmerge.MailMergeClassLoader;
+import de.muenchen.mailmerge.MailMergeSettings;
 
 /**
  * Eine durch ein ConfigThingy beschriebene externe Druckfunktion.
@@ -49,6 +59,25 @@ public class PrintFunction implements Comparable<PrintFunction>
 
   private static final Logger LOGGER = LoggerFactory.getLogger(PrintFunction.class);
 
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION}, über den die Anzahl der Threads
+   * des Druckfunktionen-Pools festgelegt wird, die auch ohne Druckauftrag für
+   * {@link #POOL_KEEP_ALIVE_SECONDS} bereitgehalten werden. Dies ist nur eine
+   * weiche Grenze: Sind alle Threads belegt (z.B. weil ein Druckauftrag auf einen
+   * Dialog wartet), so wird für einen weiteren Druckauftrag ein zusätzlicher
+   * Thread erzeugt, damit kein Aufrufer auf einen freien Thread warten muss.
+   */
+  public static final String POOL_SIZE_KEY = "DRUCKFUNKTIONEN_THREADS";
+
+  private static final int DEFAULT_POOL_SIZE = 2;
+
+  /**
+   * Nach dieser Zeit ohne Druckauftrag werden die Threads des Pools beendet.
+   */
+  private static final long POOL_KEEP_ALIVE_SECONDS = 60;
+
+  private static ExecutorService executor = null;
+
   private ExternalFunction func = null;
 
   private String functionName;
@@ -84,21 +113,26 @@ public class PrintFunction implements Comparable<PrintFunction>
   }
 
   /**
-   * Ruft die Funktion mit dem XPrintModel pmod als Parameter asynchron (d,h, in
-   * einem eigenen Thread) auf und liefert den Thread zurück.
-   * 
+   * Ruft die Funktion mit dem XPrintModel pmod als Parameter auf und kehrt erst
+   * zurück, wenn die Funktion beendet ist. Der Aufruf erfolgt in einem Thread des
+   * gemeinsamen Druckfunktionen-Pools (siehe {@link #POOL_SIZE_KEY}), damit der
+   * aufrufende Thread (z.B. der WollMuxEventHandler) keine Druckfunktion selbst
+   * ausführen muss. Wird die Methode bereits aus einem Thread des Pools heraus
+   * aufgerufen (also für die nächste Druckfunktion der Aufrufkette), so wird die
+   * Funktion direkt in diesem Thread ausgeführt, da die Aufrufkette ohnehin
+   * sequentiell abgearbeitet wird.
+   *
    * @param pmod
    *          das XPrintModel des aktuellen Vordergrunddokuments, das die
    *          wichtigsten Druckkomandos bereitstellt, die die externe Funktion
    *          verwenden kann.
-   * @throws Exception
    */
-  public Thread invoke(XPrintModel pmod)
+  public void invoke(XPrintModel pmod)
   {
     final Object[] args;
     args = new Object[] { pmod };
 
-    Thread t = new Thread(() -> {
+    Runnable r = () -> {
       try
       {
         func.invoke(args);
@@ -106,9 +140,70 @@ public class PrintFunction implements Comparable<PrintFunction>
       {
         LOGGER.error("", e);
       }
-    });
-    t.start();
-    return t;
+    };
+
+    if (Thread.currentThread() instanceof PrintFunctionThread)
+    {
+      r.run();
+      return;
+    }
+
+    Future<?> f = getExecutor().submit(r);
+    try
+    {
+      f.get();
+    }
+    catch (InterruptedException e)
+    {
+      // Die Druckfunktion darf nicht unbemerkt im Pool weiterlaufen.
+      f.cancel(true);
+      Thread.currentThread().interrupt();
+      LOGGER.error("", e);
+    }
+    catch (ExecutionException e)
+    {
+      LOGGER.error("", e);
+    }
+  }
+
+  /**
+   * Liefert den gemeinsamen Pool, in dem die Druckfunktionen ausgeführt werden,
+   * und erzeugt ihn beim ersten Aufruf.
+   */
+  private static synchronized ExecutorService getExecutor()
+  {
+    if (executor == null)
+    {
+      int size = MailMergeSettings.getInt(POOL_SIZE_KEY, DEFAULT_POOL_SIZE);
+      if (size < 1)
+        size = 1;
+      LOGGER.debug(L.m("Erzeuge Pool für Druckfunktionen mit %1 Threads", size));
+      // Ohne Warteschlange: Ein Druckauftrag darf nie hinter einem anderen
+      // (evtl. auf einen Dialog oder seinen eigenen Aufrufer wartenden)
+      // Druckauftrag warten, daher werden bei Bedarf weitere Threads erzeugt.
+      ThreadPoolExecutor pool = new ThreadPoolExecutor(size, Integer.MAX_VALUE,
+          POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), PrintFunctionThread::new);
+      pool.allowCoreThreadTimeOut(true);
+      executor = pool;
+    }
+    return executor;
+  }
+
+  /**
+   * Die Threads des Druckfunktionen-Pools. Sie dienen auch als Erkennungsmerkmal
+   * dafür, dass eine Druckfunktion direkt im aktuellen Thread ausgeführt werden
+   * kann.
+   */
+  private static class PrintFunctionThread extends Thread
+  {
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    PrintFunctionThread(Runnable r)
+    {
+      super(r, "PrintFunction-" + COUNTER.incrementAndGet());
+      setDaemon(true);
+    }
   }
 
   /**
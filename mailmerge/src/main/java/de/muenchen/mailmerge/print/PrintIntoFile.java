@@ -37,9 +37,12 @@ package de.muenchen.mailmerge.print;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -49,6 +52,7 @@ import org.slf4j.LoggerFactory;
 import com.sun.star.beans.PropertyValue;
 import com.sun.star.beans.XPropertySet;
 import com.sun.star.container.NoSuchElementException;
+import com.sun.star.container.XEnumeration;
 import com.sun.star.container.XEnumerationAccess;
 import com.sun.star.container.XIndexAccess;
 import com.sun.star.container.XNameAccess;
@@ -64,16 +68,21 @@ import com.sun.star.text.XTextCursor;
 import com.sun.star.text.XTextDocument;
 import com.sun.star.text.XTextRange;
 import com.sun.star.text.XTextRangeCompare;
+import com.sun.star.text.XTextTable;
 import com.sun.star.uno.AnyConverter;
 import com.sun.star.uno.UnoRuntime;
+import com.sun.star.util.CloseVetoException;
 
 import de.muenchen.allg.afid.UNO;
 import de.muenchen.allg.afid.UnoCollection;
 import de.muenchen.allg.afid.UnoProps;
+import de.muenchen.allg.itd51.wollmux.XPrintModel;
 import de.muenchen.allg.itd51.wollmux.core.HashableComponent;
 import de.muenchen.allg.itd51.wollmux.core.util.L;
 import de.muenchen.allg.ooo.TextDocument;
+import de.muenchen.mailmerge.GarbageCollection;
 import de.muenchen.mailmerge.MailMergeFiles;
+import de.muenchen.mailmerge.MailMergeSettings;
 import de.muenchen.mailmerge.Workarounds;
 
 /**
@@ -91,6 +100,290 @@ public class PrintIntoFile
    */
   private static final String TEMP_DIR_PREFIX = "wollmux-seriendruck-";
 
+  /**
+   * Schlüssel in {@link MailMergeSettings#SECTION}, der steuert, wie
+   * {@link #getAppender(XPrintModel, XTextDocument, boolean)} anhängt. Bei 0
+   * (Default) wird wie bisher nach jedem Anhängen das ganze Gesamtdokument
+   * nachbearbeitet. Ab 1 wird ein {@link Appender} verwendet, der nur die neu
+   * hinzugekommenen Inhalte nachbearbeitet. Bei Werten größer 1 werden zusätzlich
+   * so viele Dokumente in einem unsichtbaren Zwischendokument gesammelt und
+   * gemeinsam in das Gesamtdokument eingefügt, sofern der Aufrufer des
+   * Druckvorgangs {@link #PROP_BATCHING} gesetzt hat.
+   */
+  static final String BLOCK_SIZE_KEY = "GESAMTDOKUMENT_BLOCKGROESSE";
+
+  private static final int DEFAULT_BLOCK_SIZE = 0;
+
+  /**
+   * Property eines XPrintModels, die auf Boolean.TRUE gesetzt wird, wenn der
+   * Erzeuger des Druckvorgangs am Ende {@link #finish(XPrintModel)} aufruft. Nur
+   * dann dürfen Dokumente für das gemeinsame Einfügen zurückgehalten werden.
+   */
+  public static final String PROP_BATCHING = "PrintIntoFile_Batching";
+
+  /**
+   * Property eines XPrintModels, in der der aktuelle {@link Appender} steht.
+   */
+  private static final String PROP_APPENDER = "PrintIntoFile_Appender";
+
+  /**
+   * Die Properties eines Seitenformats, die Texte von Kopf- und Fußzeilen
+   * enthalten.
+   */
+  private static final String[] HEADER_FOOTER_TEXTS = {
+    "HeaderText", "HeaderTextLeft", "HeaderTextRight", "HeaderTextFirst",
+    "FooterText", "FooterTextLeft", "FooterTextRight", "FooterTextFirst" };
+
+  /**
+   * Hängt nacheinander Dokumente an ein Gesamtdokument an. Anders als
+   * {@link PrintIntoFile#appendToFile(XTextDocument, XTextDocument, boolean)}
+   * merkt sich der Appender, welche Shapes das Gesamtdokument bereits enthält, und
+   * bearbeitet nach jedem Anhängen nur die neu hinzugekommenen Shapes, Textfelder
+   * (im eingefügten Text, in dessen Tabellen, Fußnoten und Rahmen sowie in den
+   * Kopf- und Fußzeilen der kopierten Seitenformate) nach. Der Aufwand pro
+   * Dokument hängt damit nicht mehr von der Größe des Gesamtdokuments ab.
+   *
+   * Ist batchSize größer 1, so werden jeweils batchSize Dokumente zuerst in einem
+   * unsichtbaren Zwischendokument gesammelt und dann gemeinsam an das
+   * Gesamtdokument angehängt. Noch gesammelte Dokumente werden erst mit
+   * {@link #flush()} übernommen.
+   */
+  public static class Appender
+  {
+    private final XTextDocument outputDoc;
+
+    private final int batchSize;
+
+    private final Set<HashableComponent> knownShapes = new HashSet<>();
+
+    private boolean firstAppend;
+
+    /**
+     * Beim ersten Anhängen werden alle Textfelder des Gesamtdokuments
+     * nachbearbeitet, danach nur noch die neuen.
+     */
+    private boolean fullScanDone = false;
+
+    private Appender batch = null;
+
+    private int batched = 0;
+
+    /**
+     * @param outputDoc
+     *          das Gesamtdokument.
+     * @param firstAppend
+     *          true, wenn outputDoc noch leer ist (siehe
+     *          {@link PrintIntoFile#appendToFile(XTextDocument, XTextDocument, boolean)}).
+     * @param batchSize
+     *          die Anzahl der Dokumente, die gemeinsam eingefügt werden.
+     */
+    public Appender(XTextDocument outputDoc, boolean firstAppend, int batchSize)
+    {
+      this.outputDoc = outputDoc;
+      this.firstAppend = firstAppend;
+      this.batchSize = Math.max(1, batchSize);
+
+      XIndexAccess shapes =
+        UNO.XIndexAccess(UNO.XDrawPageSupplier(outputDoc).getDrawPage());
+      int count = shapes.getCount();
+      for (int i = 0; i < count; ++i)
+      {
+        try
+        {
+          knownShapes.add(new HashableComponent(shapes.getByIndex(i)));
+        }
+        catch (Exception x)
+        {
+          LOGGER.error("", x);
+        }
+      }
+    }
+
+    public XTextDocument getOutputDocument()
+    {
+      return outputDoc;
+    }
+
+    /**
+     * Hängt den Inhalt von inputDoc an das Gesamtdokument bzw. das
+     * Zwischendokument an.
+     *
+     * @throws Exception
+     *           wenn das Zwischendokument nicht erzeugt werden kann.
+     */
+    public void append(XTextDocument inputDoc) throws Exception
+    {
+      if (batchSize <= 1)
+      {
+        PrintIntoFile.append(outputDoc, inputDoc, firstAppend, this);
+        firstAppend = false;
+        return;
+      }
+
+      if (batch == null)
+        batch = new Appender(UNO.XTextDocument(UNO.loadComponentFromURL(
+          "private:factory/swriter", true, true, true)), true, 1);
+      batch.append(inputDoc);
+      if (++batched >= batchSize)
+        flush();
+    }
+
+    /**
+     * Hängt die im Zwischendokument gesammelten Dokumente an das Gesamtdokument
+     * an und schließt das Zwischendokument.
+     */
+    public void flush()
+    {
+      if (batch == null)
+        return;
+      try
+      {
+        PrintIntoFile.append(outputDoc, batch.outputDoc, firstAppend, this);
+        firstAppend = false;
+      }
+      finally
+      {
+        try
+        {
+          UNO.XCloseable(batch.outputDoc).close(true);
+        }
+        catch (CloseVetoException e)
+        {
+          LOGGER.error("", e);
+        }
+        batch = null;
+        batched = 0;
+      }
+    }
+
+    /**
+     * Liefert die Shapes aus shapes, die noch nicht bekannt sind, und merkt sie
+     * sich. Neu eingefügte Shapes stehen normalerweise am Ende, daher wird von
+     * hinten gesucht, bis alle neuen gefunden sind.
+     */
+    private List<Object> takeNewShapes(XIndexAccess shapes)
+        throws com.sun.star.lang.IndexOutOfBoundsException, WrappedTargetException
+    {
+      int count = shapes.getCount();
+      List<Object> newShapes = new ArrayList<>();
+      for (int i = count - 1; i >= 0 && knownShapes.size() < count; --i)
+      {
+        Object ob = shapes.getByIndex(i);
+        if (knownShapes.add(new HashableComponent(ob)))
+          newShapes.add(ob);
+      }
+      return newShapes;
+    }
+
+    /**
+     * Liefert die Textfelder, die nach dem Einfügen nachbearbeitet werden müssen:
+     * beim ersten Aufruf alle Textfelder des Gesamtdokuments, danach nur die aus
+     * dem eingefügten Bereich inserted, aus den neuen Shapes newShapes und aus den
+     * Kopf- und Fußzeilen der neuen Seitenformate newPageStyles.
+     */
+    private Iterable<Object> getNewTextFields(XTextRange inserted,
+        List<Object> newShapes, Collection<String> newPageStyles)
+    {
+      if (!fullScanDone)
+      {
+        fullScanDone = true;
+        return UnoCollection.getCollection(
+          UNO.XTextFieldsSupplier(outputDoc).getTextFields(), Object.class);
+      }
+
+      List<Object> fields = new ArrayList<>();
+      collectTextFields(inserted, fields);
+      for (Object shape : newShapes)
+      {
+        XText shapeText = UNO.XText(shape);
+        if (shapeText != null)
+          collectTextFields(shapeText, fields);
+      }
+      try
+      {
+        XNameAccess pageStyles =
+          UNO.XNameAccess(UNO.XStyleFamiliesSupplier(outputDoc).getStyleFamilies().getByName(
+            "PageStyles"));
+        for (String name : newPageStyles)
+        {
+          Object style = pageStyles.getByName(name);
+          for (String prop : HEADER_FOOTER_TEXTS)
+          {
+            XText headerFooter = UNO.XText(UNO.getProperty(style, prop));
+            if (headerFooter != null)
+              collectTextFields(headerFooter, fields);
+          }
+        }
+      }
+      catch (Exception x)
+      {
+        LOGGER.error("", x);
+      }
+      return fields;
+    }
+  }
+
+  /**
+   * Liefert den {@link Appender}, über den der Druckvorgang pmod in das
+   * Gesamtdokument outputDoc anhängen soll, oder null, wenn über
+   * {@link #BLOCK_SIZE_KEY} kein Appender konfiguriert ist. Der Appender wird in
+   * pmod gespeichert und wiederverwendet, solange dasselbe Gesamtdokument
+   * verwendet wird. Wechselt das Gesamtdokument, so werden zuvor die noch
+   * gesammelten Dokumente des alten Appenders übernommen.
+   *
+   * @param firstAppend
+   *          true, wenn outputDoc noch leer ist.
+   */
+  public static Appender getAppender(XPrintModel pmod, XTextDocument outputDoc,
+      boolean firstAppend)
+  {
+    int blockSize = MailMergeSettings.getInt(BLOCK_SIZE_KEY, DEFAULT_BLOCK_SIZE);
+    if (blockSize <= 0)
+      return null;
+
+    Appender appender = (Appender) pmod.getProp(PROP_APPENDER, null);
+    if (appender != null && !firstAppend
+      && UnoRuntime.areSame(appender.getOutputDocument(), outputDoc))
+      return appender;
+
+    if (appender != null)
+      appender.flush();
+    if (!Boolean.TRUE.equals(pmod.getProp(PROP_BATCHING, null)))
+      blockSize = 1;
+    appender = new Appender(outputDoc, firstAppend, blockSize);
+    try
+    {
+      pmod.setPropertyValue(PROP_APPENDER, appender);
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("darf nicht vorkommen"), e);
+    }
+    return appender;
+  }
+
+  /**
+   * Übernimmt die im Druckvorgang pmod noch gesammelten Dokumente in das
+   * Gesamtdokument. Muss vom Erzeuger eines Druckvorgangs aufgerufen werden, der
+   * {@link #PROP_BATCHING} gesetzt hat, auch wenn der Druckvorgang abgebrochen
+   * wurde.
+   */
+  public static void finish(XPrintModel pmod)
+  {
+    Appender appender = (Appender) pmod.getProp(PROP_APPENDER, null);
+    if (appender == null)
+      return;
+    try
+    {
+      pmod.setPropertyValue(PROP_APPENDER, null);
+    }
+    catch (Exception e)
+    {
+      LOGGER.error(L.m("darf nicht vorkommen"), e);
+    }
+    appender.flush();
+  }
+
   /**
    * Hängt den Inhalt von inputDoc an outputDoc an.
    *
@@ -104,6 +397,18 @@ public class PrintIntoFile
    */
   public static void appendToFile(XTextDocument outputDoc, XTextDocument inputDoc,
       boolean firstAppend)
+  {
+    append(outputDoc, inputDoc, firstAppend, null);
+  }
+
+  /**
+   * Hängt wie {@link #appendToFile(XTextDocument, XTextDocument, boolean)} den
+   * Inhalt von inputDoc an outputDoc an. Ist appender null, so wird danach das
+   * ganze Dokument nachbearbeitet, ansonsten nur die neuen Inhalte, die appender
+   * ermittelt.
+   */
+  private static void append(XTextDocument outputDoc, XTextDocument inputDoc,
+      boolean firstAppend, Appender appender)
   {
     File[] dest = new File[] {
       null, null }; // dest[0] ist das temp. Verzeichnis, dest[1] die temp. Datei
@@ -194,10 +499,14 @@ public class PrintIntoFile
       // UNO.XTextGraphicObjectsSupplier(outputDoc).getGraphicObjects().getElementNames();
       XIndexAccess shapes =
         UNO.XIndexAccess(UNO.XDrawPageSupplier(outputDoc).getDrawPage());
-      Set<HashableComponent> oldShapes = new HashSet<>(shapes.getCount());
-      int shapeCount = shapes.getCount();
-      for (int i = 0; i < shapeCount; ++i)
-        oldShapes.add(new HashableComponent(shapes.getByIndex(i)));
+      Set<HashableComponent> oldShapes = null;
+      if (appender == null)
+      {
+        int shapeCount = shapes.getCount();
+        oldShapes = new HashSet<>(shapeCount);
+        for (int i = 0; i < shapeCount; ++i)
+          oldShapes.add(new HashableComponent(shapes.getByIndex(i)));
+      }
 
       Set<String> oldSections = new HashSet<>();
       if (startsWithSection)
@@ -233,30 +542,55 @@ public class PrintIntoFile
           TextDocument.disappearParagraph(cursor);
       }
 
+      // Der eingefügte Bereich, der Cursor selbst wandert gleich ans Ende.
+      XTextCursor inserted = text.createTextCursorByRange(cursor.getStart());
+
       XParagraphCursor paraCursor = UNO.XParagraphCursor(cursor);
       XNameAccess inputDocPageStyles =
         UNO.XNameAccess(UNO.XStyleFamiliesSupplier(inputDoc).getStyleFamilies().getByName(
           "PageStyles"));
-      renamePageStyles(paraCursor, outputDoc, inputDocPageStyles);
+      Collection<String> newPageStyles =
+        renamePageStyles(paraCursor, outputDoc, inputDocPageStyles);
 
-      if (!firstAppend)
+      if (appender == null)
       {
-        // fixPageAnchoredObjects(UNO.XTextFramesSupplier(outputDoc).getTextFrames(),
-        // frameNames, pageNumberOffset);
-        // fixPageAnchoredObjects(UNO.XTextGraphicObjectsSupplier(outputDoc).getGraphicObjects(),
-        // imageNames, pageNumberOffset);
-        fixPageAnchoredObjects(shapes, oldShapes, pageNumberOffset);
+        if (!firstAppend)
+        {
+          // fixPageAnchoredObjects(UNO.XTextFramesSupplier(outputDoc).getTextFrames(),
+          // frameNames, pageNumberOffset);
+          // fixPageAnchoredObjects(UNO.XTextGraphicObjectsSupplier(outputDoc).getGraphicObjects(),
+          // imageNames, pageNumberOffset);
+          fixPageAnchoredObjects(shapes, oldShapes, pageNumberOffset);
+        }
+
+        int pageCount =
+          ((Number) UNO.getProperty(outputDoc.getCurrentController(), "PageCount")).intValue();
+        pageCount -= pageNumberOffset;
+        fixPageCountFields(UnoCollection.getCollection(
+          UNO.XTextFieldsSupplier(outputDoc).getTextFields(), Object.class), pageCount);
+        fixInputUserFields(UnoCollection.getCollection(
+          UNO.XTextFieldsSupplier(outputDoc).getTextFields(), Object.class));
       }
+      else
+      {
+        List<Object> newShapes = appender.takeNewShapes(shapes);
+        if (!firstAppend)
+        {
+          for (Object ob : newShapes)
+            fixPageAnchoredObject(ob, pageNumberOffset);
+        }
 
-      int pageCount =
-        ((Number) UNO.getProperty(outputDoc.getCurrentController(), "PageCount")).intValue();
-      pageCount -= pageNumberOffset;
-      fixPageCountFields(UNO.XTextFieldsSupplier(outputDoc).getTextFields(),
-        pageCount);
-      fixInputUserFields(UNO.XTextFieldsSupplier(outputDoc).getTextFields());
+        inserted.gotoEnd(true);
+        Iterable<Object> fields =
+          appender.getNewTextFields(inserted, newShapes, newPageStyles);
+        int pageCount =
+          ((Number) UNO.getProperty(outputDoc.getCurrentController(), "PageCount")).intValue();
+        pageCount -= pageNumberOffset;
+        fixPageCountFields(fields, pageCount);
+        fixInputUserFields(fields);
+      }
 
-      oldShapes = null;
-      System.gc();
+      GarbageCollection.afterRecord();
     }
     catch (Exception x)
     {
@@ -355,10 +689,11 @@ public class PrintIntoFile
    *          das Dokument in dem der Cursor wandert
    * @param oldPageStyles
    *          die PageStyles Familie des alten Dokuments
+   * @return die Namen der neu angelegten Seitenformate.
    * @author Matthias Benkmann (D-III-ITD 5.1)
    */
-  private static void renamePageStyles(XParagraphCursor cursor, XTextDocument doc,
-      XNameAccess oldPageStyles)
+  private static Collection<String> renamePageStyles(XParagraphCursor cursor,
+      XTextDocument doc, XNameAccess oldPageStyles)
   {
     XNameAccess newPageStyles;
     try
@@ -370,7 +705,7 @@ public class PrintIntoFile
     catch (Exception x)
     {
       LOGGER.error("", x);
-      return;
+      return new ArrayList<>();
     }
     Map<String, String> mapOldPageStyleName2NewPageStyleName = new HashMap<>();
     while (true)
@@ -404,6 +739,55 @@ public class PrintIntoFile
       if (!cursor.gotoNextParagraph(false))
         break;
     }
+    return mapOldPageStyleName2NewPageStyleName.values();
+  }
+
+  /**
+   * Fügt alle Textfelder aus range (Absätze und Tabellen, auch in Fußnoten) zu
+   * fields hinzu.
+   */
+  private static void collectTextFields(XTextRange range, List<Object> fields)
+  {
+    XEnumerationAccess access = UNO.XEnumerationAccess(range);
+    if (access == null)
+      return;
+    XEnumeration paragraphs = access.createEnumeration();
+    while (paragraphs.hasMoreElements())
+    {
+      try
+      {
+        Object element = paragraphs.nextElement();
+        XTextTable table = UNO.XTextTable(element);
+        if (table != null)
+        {
+          for (String cellName : table.getCellNames())
+            collectTextFields(UNO.XText(table.getCellByName(cellName)), fields);
+          continue;
+        }
+
+        XEnumerationAccess portions = UNO.XEnumerationAccess(element);
+        if (portions == null)
+          continue;
+        XEnumeration portionEnum = portions.createEnumeration();
+        while (portionEnum.hasMoreElements())
+        {
+          Object portion = portionEnum.nextElement();
+          Object type = UNO.getProperty(portion, "TextPortionType");
+          Object field = null;
+          if ("TextField".equals(type))
+            field = UNO.getProperty(portion, "TextField");
+          if (field != null)
+            fields.add(field);
+          if ("Footnote".equals(type))
+            collectTextFields(UNO.XText(UNO.getProperty(portion, "Footnote")),
+              fields);
+        }
+      }
+      catch (Exception x)
+      {
+        LOGGER.error("", x);
+      }
+    }
   }
 
   /**
@@ -445,11 +829,11 @@ public class PrintIntoFile
    * @throws NoSuchElementException
    *           sollte nie geworfen werden
    */
-  private static void fixPageCountFields(XEnumerationAccess textFields, int pageCount)
+  private static void fixPageCountFields(Iterable<Object> textFields, int pageCount)
       throws NoSuchElementException, WrappedTargetException
   {
     String pc = "" + pageCount;
-    for (Object textfield : UnoCollection.getCollection(textFields, Object.class))
+    for (Object textfield : textFields)
     {
       // Der eigentlich redundante Test auf das Property NumberingType ist eine
       // Optimierung, da supportsService sehr langsam ist.
@@ -489,10 +873,10 @@ public class PrintIntoFile
    * @throws WrappedTargetException
    * @throws NoSuchElementException
    */
-  private static void fixInputUserFields(XEnumerationAccess textFields)
+  private static void fixInputUserFields(Iterable<Object> textFields)
       throws NoSuchElementException, WrappedTargetException
   {
-    for (Object textfield : UnoCollection.getCollection(textFields, Object.class))
+    for (Object textfield : textFields)
     {
       // Der eigentlich Test, ob der Inhalt des Content-Properties mit "WM(FUNCTION"
       // beginnt ist eine Optimierung, da in der Regel nur die betroffenen
@@ -534,40 +918,14 @@ public class PrintIntoFile
       try
       {
         Object ob = objects.getByIndex(i);
-        XNamed named = UNO.XNamed(ob);
-        String name = "<Unknown>";
-        if (named != null)
-          name = named.getName();
         if (!old.contains(new HashableComponent(ob)))
         {
-          if (TextContentAnchorType.AT_PAGE.equals(UNO.getProperty(ob, "AnchorType")))
-          {
-            int oldPageNo =
-              ((Number) UNO.getProperty(ob, "AnchorPageNo")).intValue();
-            int newPageNo = oldPageNo + pageNumberOffset;
-            LOGGER.trace(L.m("Verschiebe \"%1\" von Seite %2 nach Seite %3", name,
-              oldPageNo, newPageNo));
-            Object afterMovePageNo =
-              UNO.setProperty(ob, "AnchorPageNo", Short.valueOf((short) newPageNo));
-            if (null == afterMovePageNo
-              || ((Number) afterMovePageNo).intValue() != newPageNo)
-            {
-              LOGGER.error(L.m(
-                "Kann AnchorPageNo von Objekt #\"%1\" nicht auf %2 setzen", i,
-                newPageNo));
-            }
-          }
-          else
-          {
-            LOGGER.trace(L.m(
-              "Verschiebe \"%1\" NICHT, weil zwar neu dazugekommen, aber nicht an der Seite verankert",
-              name));
-          }
+          fixPageAnchoredObject(ob, pageNumberOffset);
         }
         else
         {
           LOGGER.trace(L.m("Verschiebe \"%1\" NICHT, weil nicht neu dazugekommen",
-            name));
+            getName(ob)));
         }
       }
       catch (Exception x)
@@ -577,6 +935,46 @@ public class PrintIntoFile
     }
   }
 
+  /**
+   * Addiert auf die AnchorPageNo Property des neu dazugekommenen Objekts ob den
+   * Wert pageNumberOffset, falls es an der Seite verankert ist.
+   */
+  private static void fixPageAnchoredObject(Object ob, int pageNumberOffset)
+  {
+    String name = getName(ob);
+    if (TextContentAnchorType.AT_PAGE.equals(UNO.getProperty(ob, "AnchorType")))
+    {
+      int oldPageNo =
+        ((Number) UNO.getProperty(ob, "AnchorPageNo")).intValue();
+      int newPageNo = oldPageNo + pageNumberOffset;
+      LOGGER.trace(L.m("Verschiebe \"%1\" von Seite %2 nach Seite %3", name,
+        oldPageNo, newPageNo));
+      Object afterMovePageNo =
+        UNO.setProperty(ob, "AnchorPageNo", Short.valueOf((short) newPageNo));
+      if (null == afterMovePageNo
+        || ((Number) afterMovePageNo).intValue() != newPageNo)
+      {
+        LOGGER.error(L.m(
+          "Kann AnchorPageNo von Objekt \"%1\" nicht auf %2 setzen", name,
+          newPageNo));
+      }
+    }
+    else
+    {
+      LOGGER.trace(L.m(
+        "Verschiebe \"%1\" NICHT, weil zwar neu dazugekommen, aber nicht an der Seite verankert",
+        name));
+    }
+  }
+
+  private static String getName(Object ob)
+  {
+    XNamed named = UNO.XNamed(ob);
+    if (named != null)
+      return named.getName();
+    return "<Unknown>";
+  }
+
   /**
    * Speichert inputDoc in einer temporären Datei und liefert eine UNO-taugliche URL
    * zu dieser Datei zurück.
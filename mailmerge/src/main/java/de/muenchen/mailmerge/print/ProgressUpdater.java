@@ -24,12 +24,17 @@ class ProgressUpdater
     pmod.setPrintProgressValue((short) 0);
   }
 
-  public void incrementProgress()
+  /**
+   * Erhöht den Fortschritt um eins und liefert den neuen Stand zurück. Kann von
+   * mehreren Threads aufgerufen werden.
+   */
+  public synchronized int incrementProgress()
   {
     pmod.setPrintProgressValue((short) ++currentCount);
+    return currentCount;
   }
 
-  public void setMessage(String text)
+  public synchronized void setMessage(String text)
   {
     this.currentCount = 0;
     pmod.setPrintMessage(text);
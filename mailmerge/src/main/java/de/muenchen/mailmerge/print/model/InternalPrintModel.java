@@ -1,5 +1,8 @@
 package de.muenchen.mailmerge.print.model;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import de.muenchen.mailmerge.print.PrintFunction;
 
 /**
@@ -27,4 +30,23 @@ public interface InternalPrintModel
    * @author Christoph Lutz (D-III-ITD-5.1)
    */
   public boolean useInternalPrintFunction(PrintFunction printFunction);
-}
\ No newline at end of file
+
+  /**
+   * Setzt wie {@link de.muenchen.allg.itd51.wollmux.XPrintModel#setFormValue(String, String)}
+   * die Formularfelder aus values auf ihre neuen Werte, allerdings gemeinsam in
+   * einem einzigen Event, so dass abhängige Formularfelder nur einmal neu berechnet
+   * werden.
+   *
+   * @param values
+   *          Abbildung der IDs der Formularfelder auf ihre neuen Werte.
+   */
+  public void setFormValues(Map<String, String> values);
+
+  /**
+   * Liefert ein Future, das abgeschlossen wird, sobald der Druckvorgang
+   * abgebrochen wird (siehe {@link de.muenchen.allg.itd51.wollmux.XPrintModel#cancel()}).
+   * Damit können Druckfunktionen auf das Ende einer Hintergrundarbeit und den
+   * Abbruch zugleich warten, ohne regelmäßig isCanceled() abzufragen.
+   */
+  public CompletableFuture<Void> getCancellation();
+}
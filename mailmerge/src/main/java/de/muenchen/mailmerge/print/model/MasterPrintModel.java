@@ -1,11 +1,16 @@
 package de.muenchen.mailmerge.print.model;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -97,15 +102,28 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
 
   /**
    * Enthält die Properties, die in printWithProps() ausgewertet werden und über
-   * die get/setPropertyValue-Methoden frei gesetzt und gelesen werden können.
+   * die get/setPropertyValue-Methoden frei gesetzt und gelesen werden können. Da
+   * die Druckfunktionen der Aufrufkette in eigenen Threads laufen und pro
+   * Datensatz viele Properties lesen, wird hier nicht gesperrt.
    */
-  private HashMap<String, Object> props;
+  private final ConcurrentHashMap<String, Object> props = new ConcurrentHashMap<>();
+
+  /**
+   * Unveränderliche Kopie der Namen aus props für getPropertySetInfo(). Wird nur
+   * neu erzeugt, wenn eine Property hinzukommt oder entfernt wird.
+   */
+  private volatile Set<String> propertyNames = Collections.emptySet();
 
   /**
    * Enthält das Flag das Auskunft darüber gibt, ob der Druckauftrag abgebrochen
    * wurde oder nicht.
    */
-  private boolean[] isCanceled = new boolean[] { false };
+  private volatile boolean isCanceled = false;
+
+  /**
+   * Wird beim ersten Aufruf von cancel() abgeschlossen.
+   */
+  private final CompletableFuture<Void> cancellation = new CompletableFuture<>();
 
   /**
    * Enthält null oder ab dem ersten Aufruf von setPrintProgress[Max]Value ein
@@ -133,7 +151,6 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
   MasterPrintModel(TextDocumentController documentController)
   {
     this.documentController = documentController;
-    this.props = new HashMap<>();
     this.functions = new TreeSet<>();
   }
 
@@ -258,15 +275,7 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
     if (f != null)
     {
       XPrintModel pmod = new SlavePrintModel(this, 0);
-      Thread t = f.invoke(pmod);
-      try
-      {
-        t.join();
-      }
-      catch (InterruptedException e)
-      {
-        LOGGER.error("", e);
-      }
+      f.invoke(pmod);
     }
     else
     {
@@ -392,15 +401,33 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
   }
 
   /**
-   * synchronisiertes Setzen von props
+   * Setzen von props. Da props keine null-Werte aufnehmen kann, wird die
+   * Property beim Setzen auf null entfernt; getPropertyValue() verhält sich dabei
+   * wie zuvor.
    *
    * @author Christoph Lutz (D-III-ITD-5.1)
    */
   private void setProperty(String prop, Object o)
+  {
+    boolean namesChanged;
+    if (o == null)
+      namesChanged = props.remove(prop) != null;
+    else
+      namesChanged = props.put(prop, o) == null;
+    if (namesChanged)
+      updatePropertyNames();
+  }
+
+  /**
+   * Erneuert die Kopie propertyNames. Nur die seltenen Änderungen der Namen
+   * werden hier gegeneinander gesperrt, damit keine veraltete Kopie eine neuere
+   * überschreibt.
+   */
+  private void updatePropertyNames()
   {
     synchronized (props)
     {
-      props.put(prop, o);
+      propertyNames = Collections.unmodifiableSet(new HashSet<>(props.keySet()));
     }
   }
 
@@ -419,16 +446,13 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
   }
 
   /**
-   * synchronisiertes Auslesen von props
+   * Auslesen von props
    *
    * @author Christoph Lutz (D-III-ITD-5.1)
    */
   private Object getProperty(String prop)
   {
-    synchronized (props)
-    {
-      return props.get(prop);
-    }
+    return props.get(prop);
   }
 
   /**
@@ -456,6 +480,18 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
         value);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.muenchen.mailmerge.print.model.InternalPrintModel#setFormValues(java.util.Map)
+   */
+  @Override
+  public void setFormValues(Map<String, String> values)
+  {
+    MailMergeEventHandler.getInstance().handleSetFormValues(documentController.getModel().doc,
+        values);
+  }
+
   /**
    * Liefert true, wenn das Dokument als "modifiziert" markiert ist und damit z.B.
    * die "Speichern?" Abfrage vor dem Schließen erscheint.
@@ -517,11 +553,7 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
   @Override
   public XPropertySetInfo getPropertySetInfo()
   {
-    final HashSet<String> propsKeySet;
-    synchronized (props)
-    {
-      propsKeySet = new HashSet<>(props.keySet());
-    }
+    final Set<String> propsKeySet = propertyNames;
 
     return new XPropertySetInfo()
     {
@@ -734,10 +766,7 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
   @Override
   public boolean isCanceled()
   {
-    synchronized (isCanceled)
-    {
-      return isCanceled[0];
-    }
+    return isCanceled;
   }
 
   /**
@@ -752,10 +781,19 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
   @Override
   public void cancel()
   {
-    synchronized (isCanceled)
-    {
-      isCanceled[0] = true;
-    }
+    isCanceled = true;
+    cancellation.complete(null);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.muenchen.mailmerge.print.model.InternalPrintModel#getCancellation()
+   */
+  @Override
+  public CompletableFuture<Void> getCancellation()
+  {
+    return cancellation;
   }
 
   /**
@@ -806,7 +844,8 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
    * maxValue in der aktuellen Fortschrittsleiste; Ist bis jetzt noch keine
    * Fortschrittsleiste aktiv, so wird eine neue Fortschrittsleiste erzeugt und
    * aktiviert; ist maxValue==0, so wird die durch key repräsentierte Druckfunktion
-   * deregistriert.
+   * deregistriert. Ohne Display (z.B. beim BatchMailMerge) wird keine
+   * Fortschrittsleiste angezeigt.
    *
    * @param key
    *          repräsentiert eine Druckfunktion (oder genauer Ihr zugehöriges
@@ -818,7 +857,8 @@ class MasterPrintModel implements XPrintModel, InternalPrintModel
    */
   void setPrintProgressMaxValue(Object key, short maxValue)
   {
-    if (printProgressBar == null && maxValue > 0)
+    if (printProgressBar == null && maxValue > 0
+      && !GraphicsEnvironment.isHeadless())
     {
       printProgressBar = new PrintProgressBar(currentStage, new ActionListener()
       {
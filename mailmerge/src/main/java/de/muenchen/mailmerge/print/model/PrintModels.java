@@ -30,6 +30,9 @@
  */
 package de.muenchen.mailmerge.print.model;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -133,4 +136,41 @@ public class PrintModels
       LOGGER.error(L.m("Kann Stage nicht auf '%1' setzen", stage), e);
     }
   }
+
+  /**
+   * Liefert ein Future, das beim Abbruch des Druckvorgangs pmod abgeschlossen
+   * wird (siehe {@link InternalPrintModel#getCancellation()}). Ist pmod kein
+   * {@link InternalPrintModel}, so wird der Abbruch nicht gemeldet und das Future
+   * ist nur dann abgeschlossen, wenn pmod bereits abgebrochen ist.
+   */
+  public static CompletableFuture<Void> getCancellation(XPrintModel pmod)
+  {
+    if (pmod instanceof InternalPrintModel)
+      return ((InternalPrintModel) pmod).getCancellation();
+    CompletableFuture<Void> cancellation = new CompletableFuture<>();
+    if (pmod.isCanceled())
+      cancellation.complete(null);
+    return cancellation;
+  }
+
+  /**
+   * Setzt die Formularfelder aus values im XPrintModel pmod auf ihre neuen Werte.
+   * Handelt es sich bei pmod um ein {@link InternalPrintModel}, so geschieht dies
+   * gemeinsam in einem einzigen Event, ansonsten über einzelne Aufrufe von
+   * {@link XPrintModel#setFormValue(String, String)}, wobei jeder Wert zuerst
+   * entsetzt wird, um sicher eine Änderung hervorzurufen.
+   */
+  public static void setFormValues(XPrintModel pmod, Map<String, String> values)
+  {
+    if (pmod instanceof InternalPrintModel)
+    {
+      ((InternalPrintModel) pmod).setFormValues(values);
+      return;
+    }
+    for (Map.Entry<String, String> entry : values.entrySet())
+    {
+      pmod.setFormValue(entry.getKey(), "");
+      pmod.setFormValue(entry.getKey(), entry.getValue());
+    }
+  }
 }
@@ -1,5 +1,8 @@
 package de.muenchen.mailmerge.print.model;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -105,15 +108,7 @@ class SlavePrintModel extends WeakBase implements XPrintModel,
     if (f != null)
     {
       XPrintModel pmod = new SlavePrintModel(master, idx + 1);
-      Thread t = f.invoke(pmod);
-      try
-      {
-        t.join();
-      }
-      catch (InterruptedException e)
-      {
-        LOGGER.error("", e);
-      }
+      f.invoke(pmod);
       master.setPrintProgressMaxValue(pmod, (short) 0);
     }
     else
@@ -136,6 +131,17 @@ class SlavePrintModel extends WeakBase implements XPrintModel,
     master.setFormValue(arg0, arg1);
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.muenchen.mailmerge.print.model.InternalPrintModel#setFormValues(java.util.Map)
+   */
+  @Override
+  public void setFormValues(Map<String, String> values)
+  {
+    master.setFormValues(values);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -382,6 +388,17 @@ class SlavePrintModel extends WeakBase implements XPrintModel,
     master.cancel();
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see de.muenchen.mailmerge.print.model.InternalPrintModel#getCancellation()
+   */
+  @Override
+  public CompletableFuture<Void> getCancellation()
+  {
+    return master.getCancellation();
+  }
+
   /*
    * (non-Javadoc)
    *